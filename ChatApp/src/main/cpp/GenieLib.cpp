@@ -9,6 +9,50 @@
 
 #include "GenieWrapper.hpp"
 
+namespace
+{
+// StringCallback class and methods, looked up once when the library is loaded
+jclass g_string_callback_class = nullptr;
+jmethodID g_on_new_string_method = nullptr;
+jmethodID g_on_generation_end_method = nullptr;
+
+/**
+ * GetJavaString: Copies Java string into std::string and releases JNI chars
+ */
+std::string GetJavaString(JNIEnv* env, jstring value)
+{
+    const char* chars = env->GetStringUTFChars(value, 0);
+    std::string result = chars;
+    env->ReleaseStringUTFChars(value, chars);
+    return result;
+}
+} // namespace
+
+extern "C" JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* /* reserved */)
+{
+    JNIEnv* env = nullptr;
+    if (vm->GetEnv(reinterpret_cast<void**>(&env), JNI_VERSION_1_6) != JNI_OK)
+    {
+        return JNI_ERR;
+    }
+
+    jclass callback_class = env->FindClass("com/quicinc/chatapp/StringCallback");
+    if (callback_class == nullptr)
+    {
+        return JNI_ERR;
+    }
+    g_string_callback_class = static_cast<jclass>(env->NewGlobalRef(callback_class));
+    env->DeleteLocalRef(callback_class);
+
+    g_on_new_string_method = env->GetMethodID(g_string_callback_class, "onNewString", "(Ljava/lang/String;I)V");
+    g_on_generation_end_method = env->GetMethodID(g_string_callback_class, "onGenerationEnd", "(I)V");
+    if (g_on_new_string_method == nullptr || g_on_generation_end_method == nullptr)
+    {
+        return JNI_ERR;
+    }
+    return JNI_VERSION_1_6;
+}
+
 extern "C" JNIEXPORT jlong JNICALL Java_com_quicinc_chatapp_GenieWrapper_loadModel(JNIEnv* env,
                                                                                    jobject /* this */,
                                                                                    jstring model_dir_path,
@@ -17,8 +61,8 @@ extern "C" JNIEXPORT jlong JNICALL Java_com_quicinc_chatapp_GenieWrapper_loadMod
 
     try
     {
-        std::string model_dir = std::string(env->GetStringUTFChars(model_dir_path, 0));
-        std::string htp_config = std::string(env->GetStringUTFChars(htp_config_path, 0));
+        std::string model_dir = GetJavaString(env, model_dir_path);
+        std::string htp_config = GetJavaString(env, htp_config_path);
         std::filesystem::path model_config_path = std::filesystem::path(model_dir) / "genie-config.json";
         std::filesystem::path tokenizer_path = std::filesystem::path(model_dir) / "tokenizer.json";
 
@@ -38,19 +82,44 @@ extern "C" JNIEXPORT void JNICALL Java_com_quicinc_chatapp_GenieWrapper_getRespo
                                                                                              jobject /* this */,
                                                                                              jlong genie_wrapper_handle,
                                                                                              jstring user_question,
+                                                                                             jint flush_interval_ms,
                                                                                              jobject callback)
 {
     try
     {
-        // Get callback method
-        jclass callbackClass = env->GetObjectClass(callback);
-        jmethodID onNewStringMethod = env->GetMethodID(callbackClass, "onNewString", "(Ljava/lang/String;)V");
+        std::string user_input = GetJavaString(env, user_question);
 
-        std::string user_input = env->GetStringUTFChars(user_question, 0);
+        // Get response from Genie
+        App::GenieWrapper* myClass = reinterpret_cast<App::GenieWrapper*>(genie_wrapper_handle);
+        auto response = myClass->GetResponseForPrompt(user_input, env, callback, g_on_new_string_method,
+                                                      g_on_generation_end_method, flush_interval_ms);
+    }
+    catch (std::exception& e)
+    {
+        jclass exception_cls = env->FindClass("java/lang/RuntimeException");
+        env->ThrowNew(exception_cls, e.what());
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_quicinc_chatapp_GenieWrapper_getResponseForInstructedPrompt(JNIEnv* env,
+                                                                     jobject /* this */,
+                                                                     jlong genie_wrapper_handle,
+                                                                     jstring instructions,
+                                                                     jstring user_question,
+                                                                     jint flush_interval_ms,
+                                                                     jobject callback)
+{
+    try
+    {
+        std::string instructions_text = GetJavaString(env, instructions);
+        std::string user_input = GetJavaString(env, user_question);
 
         // Get response from Genie
         App::GenieWrapper* myClass = reinterpret_cast<App::GenieWrapper*>(genie_wrapper_handle);
-        auto response = myClass->GetResponseForPrompt(user_input, env, callback, onNewStringMethod);
+        auto response = myClass->GetResponseForInstructedPrompt(instructions_text, user_input, env, callback,
+                                                                g_on_new_string_method, g_on_generation_end_method,
+                                                                flush_interval_ms);
     }
     catch (std::exception& e)
     {
@@ -59,6 +128,14 @@ extern "C" JNIEXPORT void JNICALL Java_com_quicinc_chatapp_GenieWrapper_getRespo
     }
 }
 
+extern "C" JNIEXPORT void JNICALL Java_com_quicinc_chatapp_GenieWrapper_abortGeneration(JNIEnv* /* env */,
+                                                                                        jobject /* this */,
+                                                                                        jlong genie_wrapper_handle)
+{
+    App::GenieWrapper* genie_wrapper = reinterpret_cast<App::GenieWrapper*>(genie_wrapper_handle);
+    genie_wrapper->Abort();
+}
+
 extern "C" JNIEXPORT void JNICALL Java_com_quicinc_chatapp_GenieWrapper_freeModel(JNIEnv* env,
                                                                                   jobject /* this */,
                                                                                   jlong genie_wrapper_handle)
@@ -4,6 +4,7 @@
 // ---------------------------------------------------------------------
 
 #include <android/log.h>
+#include <chrono>
 #include <filesystem>
 #include <fstream>
 #include <iostream>
@@ -20,10 +21,14 @@ using namespace App;
 namespace
 {
 
+// Tokens are passed to Java once this many bytes are pending, even before the flush interval passed
+constexpr size_t c_min_batch_bytes = 32;
+
 /**
  * user_data_and_callback: Hold data required for callback into java methods
  *  - JNIEnv, jobject, jmethodID required for callback
  *  - data to capture response string from Genie
+ *  - pending tokens batched until the next flush
  */
 struct user_data_and_callback
 {
@@ -32,13 +37,145 @@ struct user_data_and_callback
     jobject callback;
     jmethodID on_new_string_method;
     std::string data;
+    // last sentence code reported by Genie, END once the response is complete
+    GenieDialog_SentenceCode_t last_sentence_code = GenieDialog_SentenceCode_t::GENIE_DIALOG_SENTENCE_COMPLETE;
+    // tokens not passed to Java yet; may end in the middle of a UTF-8 sequence
+    std::string pending;
+    // reused UTF-16 conversion buffer
+    std::u16string utf16;
+    std::chrono::milliseconds flush_interval{0};
+    std::chrono::steady_clock::time_point last_flush = std::chrono::steady_clock::now();
+    // set once the request was aborted; tokens Genie still emits are dropped
+    const std::atomic<bool>* abort_requested = nullptr;
 };
 
+/**
+ * CompleteUtf8Length: Length of the longest prefix of text that does not end inside a UTF-8 sequence
+ *
+ * @param text UTF-8 bytes
+ * @return number of leading bytes that can be decoded now; the rest has to wait for the next token
+ */
+size_t CompleteUtf8Length(const std::string& text)
+{
+    size_t length = text.size();
+    // Walk back over continuation bytes (at most 3) to the lead byte of the last code point
+    for (size_t back = 1; back <= 4 && back <= length; ++back)
+    {
+        auto byte = static_cast<unsigned char>(text[length - back]);
+        if ((byte & 0xC0) == 0x80)
+        {
+            continue;
+        }
+        size_t needed = byte < 0x80 ? 1 : (byte & 0xE0) == 0xC0 ? 2 : (byte & 0xF0) == 0xE0 ? 3 : (byte & 0xF8) == 0xF0 ? 4 : 1;
+        return back >= needed ? length : length - back;
+    }
+    // Malformed input: pass it through, it will be replaced while decoding
+    return length;
+}
+
+/**
+ * Utf8ToUtf16: Decodes UTF-8 into UTF-16 for JNI NewString
+ *    NewStringUTF expects modified UTF-8 and rejects split or 4-byte sequences, so decoding is done here.
+ *    Invalid or truncated sequences become U+FFFD.
+ *
+ * @param text UTF-8 bytes
+ * @param length number of bytes to decode
+ * @param out receives UTF-16 code units (cleared first)
+ */
+void Utf8ToUtf16(const char* text, size_t length, std::u16string& out)
+{
+    out.clear();
+    size_t i = 0;
+    while (i < length)
+    {
+        auto byte = static_cast<unsigned char>(text[i]);
+        char32_t code_point;
+        size_t extra;
+        if (byte < 0x80)
+        {
+            code_point = byte;
+            extra = 0;
+        }
+        else if ((byte & 0xE0) == 0xC0)
+        {
+            code_point = byte & 0x1F;
+            extra = 1;
+        }
+        else if ((byte & 0xF0) == 0xE0)
+        {
+            code_point = byte & 0x0F;
+            extra = 2;
+        }
+        else if ((byte & 0xF8) == 0xF0)
+        {
+            code_point = byte & 0x07;
+            extra = 3;
+        }
+        else
+        {
+            out.push_back(u'\uFFFD');
+            ++i;
+            continue;
+        }
+
+        bool valid = true;
+        for (size_t k = 1; k <= extra; ++k)
+        {
+            // Sequence cut off at the end of the input or by a byte that is not a continuation
+            if (i + k >= length || (static_cast<unsigned char>(text[i + k]) & 0xC0) != 0x80)
+            {
+                valid = false;
+                extra = k - 1;
+                break;
+            }
+            code_point = (code_point << 6) | (static_cast<unsigned char>(text[i + k]) & 0x3F);
+        }
+        i += extra + 1;
+        if (!valid)
+        {
+            out.push_back(u'\uFFFD');
+            continue;
+        }
+
+        if (code_point >= 0x10000)
+        {
+            code_point -= 0x10000;
+            out.push_back(static_cast<char16_t>(0xD800 + (code_point >> 10)));
+            out.push_back(static_cast<char16_t>(0xDC00 + (code_point & 0x3FF)));
+        }
+        else
+        {
+            out.push_back(static_cast<char16_t>(code_point));
+        }
+    }
+}
+
+/**
+ * FlushPending: Passes the first count pending bytes to Java as one string
+ *
+ * @param user_data callback data holding pending tokens
+ * @param count number of pending bytes to pass
+ */
+void FlushPending(user_data_and_callback& user_data, size_t count)
+{
+    if (count == 0)
+    {
+        return;
+    }
+    Utf8ToUtf16(user_data.pending.data(), count, user_data.utf16);
+    jstring text = user_data.env->NewString(reinterpret_cast<const jchar*>(user_data.utf16.data()),
+                                            static_cast<jsize>(user_data.utf16.size()));
+    user_data.env->CallVoidMethod(user_data.callback, user_data.on_new_string_method, text,
+                                  static_cast<jint>(user_data.last_sentence_code));
+    user_data.env->DeleteLocalRef(text);
+    user_data.pending.erase(0, count);
+    user_data.last_flush = std::chrono::steady_clock::now();
+}
+
 //
 // GenieCallBack - Callback to handle response from Genie
 //   - Captures response from Genie into user_data
-//   - Print response to stdout
-//   - Add ChatSplit upon sentence completion
+//   - Batches tokens and passes them to Java at UTF-8 boundaries
 //
 /**
  * GenieCallBack: Callback to handle response from Genie
@@ -50,9 +187,50 @@ struct user_data_and_callback
 void GenieCallBack(const char* response_back, const GenieDialog_SentenceCode_t sentence_code, const void* user_data)
 {
     auto user_data_struct = static_cast<struct user_data_and_callback*>(const_cast<void*>(user_data));
-    user_data_struct->data.append(response_back);
-    user_data_struct->env->CallVoidMethod(user_data_struct->callback, user_data_struct->on_new_string_method,
-                                          user_data_struct->env->NewStringUTF(response_back));
+    if (user_data_struct->abort_requested != nullptr && user_data_struct->abort_requested->load())
+    {
+        // Aborted: Genie may still emit the token it was working on, nobody is waiting for it
+        user_data_struct->last_sentence_code = GenieDialog_SentenceCode_t::GENIE_DIALOG_SENTENCE_ABORT;
+        return;
+    }
+    const char* text = response_back != nullptr ? response_back : "";
+    user_data_struct->data.append(text);
+    user_data_struct->pending.append(text);
+    user_data_struct->last_sentence_code = sentence_code;
+
+    bool sentence_done = sentence_code == GenieDialog_SentenceCode_t::GENIE_DIALOG_SENTENCE_END ||
+                         sentence_code == GenieDialog_SentenceCode_t::GENIE_DIALOG_SENTENCE_ABORT;
+    if (!sentence_done && user_data_struct->pending.size() < c_min_batch_bytes &&
+        std::chrono::steady_clock::now() - user_data_struct->last_flush < user_data_struct->flush_interval)
+    {
+        return;
+    }
+    FlushPending(*user_data_struct, CompleteUtf8Length(user_data_struct->pending));
+}
+
+/**
+ * PrefillCallBack: Callback for prompt parts that only extend the dialog state and produce no response
+ */
+void PrefillCallBack(const char* /* response_back */,
+                     const GenieDialog_SentenceCode_t /* sentence_code */,
+                     const void* /* user_data */)
+{
+}
+
+/**
+ * NotifyGenerationEnd: Flushes pending tokens and reports end of generation to Java, END unless the response was
+ * aborted (by Genie or by GenieWrapper::Abort)
+ */
+void NotifyGenerationEnd(user_data_and_callback& user_data, jmethodID on_generation_end_method)
+{
+    // Whatever is still pending goes out first; an unfinished UTF-8 sequence becomes U+FFFD
+    FlushPending(user_data, user_data.pending.size());
+
+    bool aborted = user_data.last_sentence_code == GenieDialog_SentenceCode_t::GENIE_DIALOG_SENTENCE_ABORT ||
+                   (user_data.abort_requested != nullptr && user_data.abort_requested->load());
+    GenieDialog_SentenceCode_t end_code = aborted ? GenieDialog_SentenceCode_t::GENIE_DIALOG_SENTENCE_ABORT
+                                                  : GenieDialog_SentenceCode_t::GENIE_DIALOG_SENTENCE_END;
+    user_data.env->CallVoidMethod(user_data.callback, on_generation_end_method, static_cast<jint>(end_code));
 }
 
 //
@@ -113,6 +291,8 @@ GenieWrapper::GenieWrapper(const std::string& model_config_path,
         __android_log_print(ANDROID_LOG_ERROR, "ChatApp", "Failed to create Genie dialog.");
         throw std::runtime_error("Failed to create the Genie Dialog.");
     }
+
+    m_snapshot_path = (std::filesystem::path(models_path) / "instruction_state").string();
 }
 
 GenieWrapper::~GenieWrapper()
@@ -139,14 +319,30 @@ GenieWrapper::~GenieWrapper()
 std::string GenieWrapper::GetResponseForPrompt(const std::string& user_prompt,
                                                JNIEnv* env,
                                                jobject callback,
-                                               jmethodID onNewStringMethod)
+                                               jmethodID onNewStringMethod,
+                                               jmethodID onGenerationEndMethod,
+                                               int flush_interval_ms)
 {
 
     std::string model_response;
     struct user_data_and_callback user_data
     {
-        .env = env, .callback = callback, .on_new_string_method = onNewStringMethod, .data = model_response
+        .env = env, .callback = callback, .on_new_string_method = onNewStringMethod, .data = model_response,
+        .flush_interval = std::chrono::milliseconds(flush_interval_ms), .abort_requested = &m_abort_requested
     };
+    m_abort_requested.store(false);
+
+    if (!m_chat_active)
+    {
+        // Dialog holds a stand-alone request; start the conversation over
+        if (GENIE_STATUS_SUCCESS != GenieDialog_reset(m_dialog_handle))
+        {
+            __android_log_print(ANDROID_LOG_ERROR, "ChatApp", "Failed to reset GenieDialog.");
+            throw std::runtime_error("Failed to reset Genie Dialog.");
+        }
+        prompt_handler.Reset();
+        m_chat_active = true;
+    }
 
     std::string tagged_prompt = prompt_handler.GetPromptWithTag(user_prompt);
     // Get response from Genie
@@ -157,7 +353,7 @@ std::string GenieWrapper::GetResponseForPrompt(const std::string& user_prompt,
         __android_log_print(ANDROID_LOG_ERROR, "ChatApp", "Failed to get response from bot.");
     }
 
-    if (user_data.data.empty())
+    if (user_data.data.empty() && !m_abort_requested.load())
     {
         // If model response is empty, reset dialog to re-initiate dialog.
         // During local testing, we found that in certain cases,
@@ -176,5 +372,108 @@ std::string GenieWrapper::GetResponseForPrompt(const std::string& user_prompt,
             throw std::runtime_error("Failed to get response from GenieDialog. Please restart Chat.");
         }
     }
+
+    // GenieDialog_query returns once generation stopped; report it right away so callers
+    // don't have to wait for a timeout.
+    NotifyGenerationEnd(user_data, onGenerationEndMethod);
+    return user_data.data;
+}
+
+bool GenieWrapper::RestoreInstructionState(const std::string& instructions)
+{
+    if (m_snapshot_valid && m_snapshot_instructions == instructions)
+    {
+        if (GENIE_STATUS_SUCCESS == GenieDialog_restore(m_dialog_handle, m_snapshot_path.c_str()))
+        {
+            return true;
+        }
+        __android_log_print(ANDROID_LOG_WARN, "ChatApp", "Failed to restore instruction state, saving it again.");
+        m_snapshot_valid = false;
+    }
+
+    if (!m_snapshot_supported)
+    {
+        return false;
+    }
+
+    // Prefill only the shared prefix (SENTENCE_BEGIN: more of the prompt follows, nothing is generated)
+    // and save the dialog state right after it.
+    m_snapshot_valid = false;
+    std::string prefix = prompt_handler.GetInstructionPrefix(instructions);
+    std::filesystem::create_directories(m_snapshot_path);
+    if (GENIE_STATUS_SUCCESS != GenieDialog_reset(m_dialog_handle) ||
+        GENIE_STATUS_SUCCESS != GenieDialog_query(m_dialog_handle, prefix.c_str(),
+                                                  GenieDialog_SentenceCode_t::GENIE_DIALOG_SENTENCE_BEGIN,
+                                                  PrefillCallBack, nullptr) ||
+        GENIE_STATUS_SUCCESS != GenieDialog_save(m_dialog_handle, m_snapshot_path.c_str()))
+    {
+        __android_log_print(ANDROID_LOG_WARN, "ChatApp",
+                            "Instruction state snapshot unavailable, prefilling full prompts.");
+        m_snapshot_supported = false;
+        return false;
+    }
+
+    m_snapshot_instructions = instructions;
+    m_snapshot_valid = true;
+    return true;
+}
+
+std::string GenieWrapper::GetResponseForInstructedPrompt(const std::string& instructions,
+                                                         const std::string& user_prompt,
+                                                         JNIEnv* env,
+                                                         jobject callback,
+                                                         jmethodID onNewStringMethod,
+                                                         jmethodID onGenerationEndMethod,
+                                                         int flush_interval_ms)
+{
+    std::string model_response;
+    struct user_data_and_callback user_data
+    {
+        .env = env, .callback = callback, .on_new_string_method = onNewStringMethod, .data = model_response,
+        .flush_interval = std::chrono::milliseconds(flush_interval_ms), .abort_requested = &m_abort_requested
+    };
+    m_abort_requested.store(false);
+
+    // Stand-alone request replaces whatever conversation the dialog held
+    m_chat_active = false;
+
+    std::string suffix = prompt_handler.GetInstructionSuffix(user_prompt);
+    Genie_Status_t status;
+    if (RestoreInstructionState(instructions))
+    {
+        // Dialog already holds the shared prefix; only the request-specific part is prefilled
+        status = GenieDialog_query(m_dialog_handle, suffix.c_str(), GenieDialog_SentenceCode_t::GENIE_DIALOG_SENTENCE_END,
+                                   GenieCallBack, &user_data);
+    }
+    else
+    {
+        std::string full_prompt = prompt_handler.GetInstructionPrefix(instructions) + suffix;
+        status = GenieDialog_reset(m_dialog_handle);
+        if (GENIE_STATUS_SUCCESS == status)
+        {
+            status = GenieDialog_query(m_dialog_handle, full_prompt.c_str(),
+                                       GenieDialog_SentenceCode_t::GENIE_DIALOG_SENTENCE_COMPLETE, GenieCallBack,
+                                       &user_data);
+        }
+    }
+
+    if (GENIE_STATUS_SUCCESS != status && !m_abort_requested.load())
+    {
+        __android_log_print(ANDROID_LOG_ERROR, "ChatApp", "Failed to get response for instructed prompt.");
+        m_snapshot_valid = false;
+        throw std::runtime_error("Failed to get response from GenieDialog.");
+    }
+
+    NotifyGenerationEnd(user_data, onGenerationEndMethod);
     return user_data.data;
 }
+
+void GenieWrapper::Abort()
+{
+    m_abort_requested.store(true);
+    if (GENIE_STATUS_SUCCESS != GenieDialog_signal(m_dialog_handle, GenieDialog_Action_t::GENIE_DIALOG_ACTION_ABORT))
+    {
+        // Nothing running, or signal not supported: remaining tokens are still dropped in GenieCallBack
+        __android_log_print(ANDROID_LOG_WARN, "ChatApp", "Failed to signal abort to GenieDialog.");
+    }
+}
@@ -4,6 +4,7 @@
 // ---------------------------------------------------------------------
 #pragma once
 
+#include <atomic>
 #include <jni.h>
 #include <string>
 
@@ -24,6 +25,28 @@ class GenieWrapper
     std::string m_user_name;
     AppUtils::PromptHandler prompt_handler;
 
+    // false once a stand-alone request replaced the chat history in the dialog
+    bool m_chat_active = true;
+
+    // Dialog state saved right after the shared prefix of stand-alone requests
+    std::string m_snapshot_path;
+    std::string m_snapshot_instructions;
+    bool m_snapshot_valid = false;
+    bool m_snapshot_supported = true;
+
+    // Set by Abort() from another thread; cleared when the next query starts
+    std::atomic<bool> m_abort_requested{false};
+
+    /**
+     * RestoreInstructionState: Puts dialog at the state right after the shared prefix for instructions
+     *    - first use of instructions prefills the prefix once and saves the dialog state
+     *    - later uses restore the saved state instead of prefilling again
+     *
+     * @param instructions: instruction block shared by requests
+     * @return false if dialog state could not be saved/restored; caller must prefill the full prompt
+     */
+    bool RestoreInstructionState(const std::string& instructions);
+
   public:
     /**
      * GenieWrapper: Initializes GenieWrapper
@@ -55,12 +78,52 @@ class GenieWrapper
      * @param user_prompt: User prompt provided by user
      * @param env: JNIEnv required to create intermediate output to pass via callback
      * @param callback: callback object
-     * @param onNewStringMethod callback method to tunnel intermediate output string
+     * @param onNewStringMethod callback method to tunnel intermediate output string and its sentence code
+     * @param onGenerationEndMethod callback method invoked once generation has ended, with the final sentence code
+     * @param flush_interval_ms generated tokens are batched and passed to Java at most this often
+     *                          (sooner once enough bytes are pending), always at a UTF-8 character boundary
      *
      * @throws on failure to query model response during chat
      *
      */
-    std::string
-    GetResponseForPrompt(const std::string& user_prompt, JNIEnv* env, jobject callback, jmethodID onNewStringMethod);
+    std::string GetResponseForPrompt(const std::string& user_prompt,
+                                     JNIEnv* env,
+                                     jobject callback,
+                                     jmethodID onNewStringMethod,
+                                     jmethodID onGenerationEndMethod,
+                                     int flush_interval_ms);
+
+    /**
+     * GetResponseForInstructedPrompt: Gets response for a stand-alone request made of a fixed instruction block
+     * followed by request-specific text
+     *    - no chat history: every request starts from the same dialog state
+     *    - only user_prompt is prefilled when the state after instructions is already saved
+     *
+     * @param instructions: instruction block shared by requests (e.g. call analysis instructions)
+     * @param user_prompt: request-specific text that follows instructions
+     * @param env: JNIEnv required to create intermediate output to pass via callback
+     * @param callback: callback object
+     * @param onNewStringMethod callback method to tunnel intermediate output string and its sentence code
+     * @param onGenerationEndMethod callback method invoked once generation has ended, with the final sentence code
+     * @param flush_interval_ms generated tokens are batched and passed to Java at most this often
+     *
+     * @throws on failure to query model response
+     *
+     */
+    std::string GetResponseForInstructedPrompt(const std::string& instructions,
+                                               const std::string& user_prompt,
+                                               JNIEnv* env,
+                                               jobject callback,
+                                               jmethodID onNewStringMethod,
+                                               jmethodID onGenerationEndMethod,
+                                               int flush_interval_ms);
+
+    /**
+     * Abort: Stops the response currently being generated
+     *    - safe to call from any thread while GetResponseForPrompt/GetResponseForInstructedPrompt runs
+     *    - the running query returns as soon as Genie stops and reports SENTENCE_ABORT as end of generation
+     *    - no-op when nothing is being generated
+     */
+    void Abort();
 };
 } // namespace App
@@ -33,3 +33,19 @@ std::string PromptHandler::GetPromptWithTag(const std::string& user_prompt)
     }
     return std::string(c_prompt_prefix) + user_prompt.data() + c_end_of_prompt.data() + c_assistant_header.data();
 }
+
+std::string PromptHandler::GetInstructionPrefix(const std::string& instructions)
+{
+    return std::string(c_first_prompt_prefix_part_1) + c_bot_name.data() + c_first_prompt_prefix_part_2.data() +
+           c_prompt_prefix.data() + instructions;
+}
+
+std::string PromptHandler::GetInstructionSuffix(const std::string& user_prompt)
+{
+    return user_prompt + c_end_of_prompt.data() + c_assistant_header.data();
+}
+
+void PromptHandler::Reset()
+{
+    m_is_first_prompt = true;
+}
@@ -21,6 +21,23 @@ class PromptHandler
   public:
     PromptHandler();
     std::string GetPromptWithTag(const std::string& user_prompt);
+
+    /**
+     * GetInstructionPrefix: Start of a stand-alone request that is shared by every request with the same
+     * instructions (system prompt, user header and instruction block). Its dialog state can be snapshotted.
+     */
+    std::string GetInstructionPrefix(const std::string& instructions);
+
+    /**
+     * GetInstructionSuffix: Request-specific rest of a stand-alone request; closes the user turn and
+     * opens the assistant turn
+     */
+    std::string GetInstructionSuffix(const std::string& user_prompt);
+
+    /**
+     * Reset: Start a new conversation, the next GetPromptWithTag includes the system prompt again
+     */
+    void Reset();
 };
 
 } // namespace AppUtils
@@ -0,0 +1,138 @@
+// ---------------------------------------------------------------------
+// Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+// SPDX-License-Identifier: BSD-3-Clause
+// ---------------------------------------------------------------------
+package com.quicinc.chatapp;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * AnalysisQueue: Bounded priority queue of pending LLM requests
+ *  - lower priority value is served first, FIFO within the same priority
+ *  - requests past their queue deadline are handed back to be failed, never run
+ *  - when full, a new request may only displace a queued request of lower priority
+ */
+class AnalysisQueue {
+
+    /**
+     * Request: One queued analysis request
+     */
+    static class Request {
+        final long id;       // increasing, so also the FIFO order within a priority
+        final String instructions; // null for chat requests
+        final String text;
+        final boolean structured; // stop at the end of the first JSON object in the response
+        final int priority;
+        final long deadline; // SystemClock.elapsedRealtime() deadline, 0 for none
+        final IAnalysisCallback callback;
+        int lastReportedPosition = -1;
+        volatile boolean cancelled = false;
+
+        Request(long id, String instructions, String text, boolean structured, int priority, long deadline,
+                IAnalysisCallback callback) {
+            this.id = id;
+            this.instructions = instructions;
+            this.text = text;
+            this.structured = structured;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.callback = callback;
+        }
+
+        boolean isExpired(long now) {
+            return deadline > 0 && now >= deadline;
+        }
+    }
+
+    private static final Comparator<Request> ORDER =
+            Comparator.<Request>comparingInt(r -> r.priority).thenComparingLong(r -> r.id);
+
+    private final PriorityQueue<Request> queue = new PriorityQueue<>(ORDER);
+    private final int capacity;
+
+    AnalysisQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * offer: Adds request to queue
+     *
+     * @param request request to add
+     * @return request that must be failed as shed: request itself if queue is full of equal or higher
+     *         priority work, the displaced lowest-priority request otherwise, null if nothing was shed
+     */
+    synchronized Request offer(Request request) {
+        if (queue.size() < capacity) {
+            queue.add(request);
+            return null;
+        }
+
+        Request lowest = null;
+        for (Request queued : queue) {
+            if (lowest == null || ORDER.compare(queued, lowest) > 0) {
+                lowest = queued;
+            }
+        }
+        if (lowest == null || lowest.priority <= request.priority) {
+            return request;
+        }
+        queue.remove(lowest);
+        queue.add(request);
+        return lowest;
+    }
+
+    /**
+     * poll: Removes next request to run
+     *
+     * @param now current SystemClock.elapsedRealtime()
+     * @param expired receives requests dropped because their deadline passed
+     * @return next request to run, null if queue is empty
+     */
+    synchronized Request poll(long now, List<Request> expired) {
+        Request next;
+        while ((next = queue.poll()) != null) {
+            if (!next.isExpired(now)) {
+                return next;
+            }
+            expired.add(next);
+        }
+        return null;
+    }
+
+    /**
+     * remove: Removes a queued request
+     *
+     * @param id id of request to remove
+     * @return removed request, null if no queued request has this id
+     */
+    synchronized Request remove(long id) {
+        for (Request queued : queue) {
+            if (queued.id == id) {
+                queue.remove(queued);
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * inOrder: Snapshot of queued requests in serving order (index = queue position)
+     */
+    synchronized List<Request> inOrder() {
+        List<Request> ordered = new ArrayList<>(queue);
+        ordered.sort(ORDER);
+        return ordered;
+    }
+
+    /**
+     * drain: Removes and returns every queued request
+     */
+    synchronized List<Request> drain() {
+        List<Request> drained = new ArrayList<>(queue);
+        queue.clear();
+        return drained;
+    }
+}
@@ -0,0 +1,526 @@
+// ---------------------------------------------------------------------
+// Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+// SPDX-License-Identifier: BSD-3-Clause
+// ---------------------------------------------------------------------
+package com.quicinc.chatapp;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * AssetInstaller: Installs model assets (models/, htp_config/) from the APK into an output directory
+ *  - driven by asset_manifest.json (path, size, sha256 per file) generated at build time, falls back to walking
+ *    the asset tree when the manifest is missing
+ *  - each file is copied into "<name>.part" and committed by atomic rename only after its size and checksum
+ *    are verified, so a crash never leaves a truncated file that looks installed
+ *  - an interrupted copy resumes from the end of its .part file
+ *  - files are copied in parallel, largest first, through large direct buffers (uncompressed assets are read
+ *    straight from the APK file descriptor)
+ *  - the result is recorded in a state file; isInstalled() only compares that state with the APK and the file
+ *    sizes on disk, so a warm start does no AssetManager.list and no hashing
+ */
+class AssetInstaller {
+
+    static final String MANIFEST_ASSET = "asset_manifest.json";
+
+    private static final String TAG = "AssetInstaller";
+    private static final String STATE_FILE = ".asset_install_state.json";
+    private static final String PART_SUFFIX = ".part";
+    private static final int BUFFER_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_PARALLEL_COPIES = 4;
+
+    // Service and activity run in the same process and install into the same directory
+    private static final Object INSTALL_LOCK = new Object();
+
+    /**
+     * Entry: One installed file
+     */
+    private static class Entry {
+        final String path;  // relative to asset root and output directory
+        final long size;    // -1 if unknown
+        final String sha256; // null if unknown
+
+        Entry(String path, long size, String sha256) {
+            this.path = path;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+    }
+
+    private final Context context;
+    private final AssetManager assets;
+    private final File outputDir;
+    private final String[] roots;
+
+    /**
+     * AssetInstaller: Creates installer
+     *
+     * @param context   context whose APK assets are installed
+     * @param outputDir directory to install into, asset paths are kept relative to it
+     * @param roots     asset directories to install when there is no manifest
+     */
+    AssetInstaller(Context context, File outputDir, String... roots) {
+        this.context = context;
+        this.assets = context.getAssets();
+        this.outputDir = outputDir;
+        this.roots = roots;
+    }
+
+    /**
+     * isInstalled: Fast-path check against the recorded install state
+     *
+     * @return true if the APK has not changed since the last complete install and every recorded file is on
+     *         disk with its recorded size
+     */
+    boolean isInstalled() {
+        JSONObject state = readState();
+        if (state == null || !apkFingerprint().equals(state.optString("fingerprint"))) {
+            return false;
+        }
+        JSONArray files = state.optJSONArray("files");
+        if (files == null) {
+            return false;
+        }
+        for (int i = 0; i < files.length(); i++) {
+            JSONObject file = files.optJSONObject(i);
+            if (file == null) {
+                return false;
+            }
+            File target = new File(outputDir, file.optString("path"));
+            if (!target.isFile() || target.length() != file.optLong("size", -1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * install: Installs every asset that is missing, incomplete or out of date
+     *
+     * @throws IOException if an asset could not be copied or failed verification
+     */
+    void install() throws IOException {
+        synchronized (INSTALL_LOCK) {
+            if (isInstalled()) {
+                Log.d(TAG, "Assets already installed in " + outputDir);
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            List<Entry> manifest = loadManifest();
+            JSONObject state = readState();
+            boolean sameApk = state != null && apkFingerprint().equals(state.optString("fingerprint"));
+            Map<String, Entry> previous = previousEntries(state);
+
+            List<Entry> toCopy = new ArrayList<>();
+            List<Entry> installed = new ArrayList<>();
+            for (Entry entry : manifest) {
+                Entry existing = checkExisting(entry, previous.get(entry.path), sameApk);
+                if (existing != null) {
+                    installed.add(existing);
+                } else {
+                    toCopy.add(entry);
+                }
+            }
+
+            // Largest first so the longest copy starts right away
+            toCopy.sort((a, b) -> Long.compare(b.size, a.size));
+            installed.addAll(copyAll(toCopy));
+
+            writeState(installed);
+            Log.i(TAG, "Installed " + toCopy.size() + "/" + manifest.size() + " assets in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * checkExisting: Decides whether an installed file can be kept
+     *
+     * @return entry describing the kept file, null if it has to be copied
+     */
+    private Entry checkExisting(Entry entry, Entry previous, boolean sameApk) throws IOException {
+        File target = new File(outputDir, entry.path);
+        if (!target.isFile() || (entry.size >= 0 && target.length() != entry.size)) {
+            return null;
+        }
+
+        // Verified by an earlier install: same content if the checksum (or, without one, the APK) is unchanged
+        if (previous != null && previous.size == target.length() && previous.sha256 != null) {
+            if (entry.sha256 != null ? entry.sha256.equals(previous.sha256) : sameApk) {
+                return previous;
+            }
+        }
+
+        // Installed by an older version without state: keep it only if it matches the manifest checksum
+        if (entry.sha256 != null && entry.sha256.equals(hashFile(target))) {
+            return entry;
+        }
+        return null;
+    }
+
+    private List<Entry> copyAll(List<Entry> toCopy) throws IOException {
+        List<Entry> copied = new ArrayList<>();
+        if (toCopy.isEmpty()) {
+            return copied;
+        }
+
+        int threads = Math.min(toCopy.size(),
+                Math.min(MAX_PARALLEL_COPIES, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Entry>> results = new ArrayList<>();
+            for (Entry entry : toCopy) {
+                results.add(pool.submit(() -> copy(entry)));
+            }
+            for (Future<Entry> result : results) {
+                copied.add(result.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Asset install interrupted", e);
+        } finally {
+            // Copies still running finish their current buffer and stop; their .part files are resumed next time
+            pool.shutdownNow();
+        }
+        return copied;
+    }
+
+    /**
+     * copy: Copies one asset into its .part file (resuming if present), verifies it and renames it into place
+     *
+     * @return entry with the verified size and checksum
+     */
+    private Entry copy(Entry entry) throws IOException {
+        File target = new File(outputDir, entry.path);
+        File part = new File(target.getPath() + PART_SUFFIX);
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+
+        // Without a checksum a stale .part (e.g. from an older APK) could not be told apart, so start over
+        long resumeFrom = part.isFile() && entry.sha256 != null ? part.length() : 0;
+        if (entry.size >= 0 && resumeFrom > entry.size) {
+            resumeFrom = 0;
+        }
+
+        Entry result = copyFrom(entry, part, resumeFrom);
+        if (result == null && resumeFrom > 0) {
+            // The partial file itself was bad, start over once
+            Log.w(TAG, "Resumed copy of " + entry.path + " failed verification, copying again");
+            result = copyFrom(entry, part, 0);
+        }
+        if (result == null) {
+            part.delete();
+            throw new IOException("Verification failed for " + entry.path);
+        }
+
+        Files.move(part.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        return result;
+    }
+
+    /**
+     * copyFrom: Appends asset bytes from offset to the .part file and hashes the whole file
+     *
+     * @return verified entry, null if size or checksum do not match the manifest
+     */
+    private Entry copyFrom(Entry entry, File part, long offset) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        if (offset > 0) {
+            Log.d(TAG, "Resuming " + entry.path + " at " + offset + " bytes");
+            try (FileChannel existing = new FileInputStream(part).getChannel()) {
+                digestChannel(existing, offset, digest, buffer);
+            }
+        }
+
+        long total = offset;
+        try (FileChannel out = new FileOutputStream(part, offset > 0).getChannel()) {
+            AssetFileDescriptor fd = openFd(entry.path);
+            if (fd != null) {
+                // Uncompressed asset: positional reads straight from the APK
+                long base = fd.getStartOffset();
+                long length = fd.getLength();
+                try (FileInputStream apk = fd.createInputStream();
+                     FileChannel in = apk.getChannel()) {
+                    while (total < length) {
+                        checkInterrupted();
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), length - total));
+                        int read = in.read(buffer, base + total);
+                        if (read < 0) {
+                            break;
+                        }
+                        total += writeAndDigest(buffer, out, digest);
+                    }
+                }
+            } else {
+                try (InputStream stream = assets.open(entry.path, AssetManager.ACCESS_STREAMING);
+                     ReadableByteChannel in = Channels.newChannel(stream)) {
+                    skipFully(stream, offset);
+                    while (true) {
+                        checkInterrupted();
+                        buffer.clear();
+                        if (in.read(buffer) < 0) {
+                            break;
+                        }
+                        total += writeAndDigest(buffer, out, digest);
+                    }
+                }
+            }
+            out.force(false);
+        }
+
+        String sha256 = toHex(digest.digest());
+        if ((entry.size >= 0 && total != entry.size) || (entry.sha256 != null && !entry.sha256.equals(sha256))) {
+            return null;
+        }
+        return new Entry(entry.path, total, sha256);
+    }
+
+    private static int writeAndDigest(ByteBuffer buffer, FileChannel out, MessageDigest digest) throws IOException {
+        buffer.flip();
+        int count = buffer.remaining();
+        buffer.mark();
+        digest.update(buffer);
+        buffer.reset();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return count;
+    }
+
+    private static void digestChannel(FileChannel in, long length, MessageDigest digest, ByteBuffer buffer)
+            throws IOException {
+        long position = 0;
+        while (position < length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - position));
+            int read = in.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file while hashing");
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+
+    private static String hashFile(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel in = new FileInputStream(file).getChannel()) {
+            digestChannel(in, in.size(), digest, ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void skipFully(InputStream stream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = stream.skip(count);
+            if (skipped <= 0) {
+                if (stream.read() < 0) {
+                    throw new IOException("Asset shorter than partial copy");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void checkInterrupted() throws IOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new IOException("Asset copy interrupted");
+        }
+    }
+
+    // null if the asset is compressed in the APK and has to be streamed
+    private AssetFileDescriptor openFd(String path) {
+        try {
+            return assets.openFd(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * loadManifest: Reads asset_manifest.json, or lists the asset roots if the APK has no manifest
+     */
+    private List<Entry> loadManifest() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        String text;
+        try {
+            text = readAssetText(MANIFEST_ASSET);
+        } catch (FileNotFoundException e) {
+            Log.w(TAG, MANIFEST_ASSET + " not found, listing assets instead (no checksum verification)");
+            for (String root : roots) {
+                listAssets(root, entries);
+            }
+            return entries;
+        }
+
+        try {
+            JSONArray files = new JSONObject(text).getJSONArray("files");
+            for (int i = 0; i < files.length(); i++) {
+                JSONObject file = files.getJSONObject(i);
+                entries.add(new Entry(file.getString("path"), file.getLong("size"),
+                        file.optString("sha256", null)));
+            }
+        } catch (JSONException e) {
+            throw new IOException("Invalid " + MANIFEST_ASSET, e);
+        }
+        return entries;
+    }
+
+    private void listAssets(String path, List<Entry> entries) throws IOException {
+        String[] children = assets.list(path);
+        if (children == null || children.length == 0) {
+            long size = -1;
+            AssetFileDescriptor fd = openFd(path);
+            if (fd != null) {
+                size = fd.getLength();
+                fd.close();
+            }
+            entries.add(new Entry(path, size, null));
+            return;
+        }
+        for (String child : children) {
+            listAssets(path + "/" + child, entries);
+        }
+    }
+
+    private String readAssetText(String path) throws IOException {
+        StringBuilder text = new StringBuilder();
+        try (Reader reader = new InputStreamReader(assets.open(path), StandardCharsets.UTF_8)) {
+            char[] chars = new char[8192];
+            int read;
+            while ((read = reader.read(chars)) != -1) {
+                text.append(chars, 0, read);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * apkFingerprint: Changes whenever the installed APK (and so its assets) changes
+     */
+    private String apkFingerprint() {
+        try {
+            return String.valueOf(context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime);
+        } catch (PackageManager.NameNotFoundException e) {
+            return "";
+        }
+    }
+
+    private JSONObject readState() {
+        File stateFile = new File(outputDir, STATE_FILE);
+        if (!stateFile.isFile()) {
+            return null;
+        }
+        try {
+            return new JSONObject(new String(Files.readAllBytes(stateFile.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Ignoring unreadable install state: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * previousEntries: Files verified by the last install, by path
+     */
+    private static Map<String, Entry> previousEntries(JSONObject state) {
+        Map<String, Entry> entries = new HashMap<>();
+        if (state == null) {
+            return entries;
+        }
+        JSONArray files = state.optJSONArray("files");
+        for (int i = 0; files != null && i < files.length(); i++) {
+            JSONObject file = files.optJSONObject(i);
+            if (file != null) {
+                String path = file.optString("path");
+                entries.put(path, new Entry(path, file.optLong("size", -1), file.optString("sha256", null)));
+            }
+        }
+        return entries;
+    }
+
+    private void writeState(List<Entry> installed) throws IOException {
+        JSONObject state = new JSONObject();
+        JSONArray files = new JSONArray();
+        try {
+            state.put("fingerprint", apkFingerprint());
+            for (Entry entry : installed) {
+                files.put(new JSONObject()
+                        .put("path", entry.path)
+                        .put("size", entry.size)
+                        .put("sha256", entry.sha256));
+            }
+            state.put("files", files);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+
+        File stateFile = new File(outputDir, STATE_FILE);
+        File temp = new File(outputDir, STATE_FILE + PART_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(state.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), stateFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
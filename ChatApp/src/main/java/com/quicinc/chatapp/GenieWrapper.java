@@ -8,6 +8,9 @@ package com.quicinc.chatapp;
  * GenieWrapper: Class to connect JNI GenieWrapper and Java code
  */
 public class GenieWrapper {
+    // Pass every generated character as soon as it is complete
+    public static final int DEFAULT_FLUSH_INTERVAL_MS = 0;
+
     long genieWrapperNativeHandle;
 
     /**
@@ -24,18 +27,86 @@ public class GenieWrapper {
      * getResponseForPrompt: Generates response for provided user input
      *
      * @param userInput user input to generate response for
-     * @param callback callback to tunnel each generated token to
+     * @param callback callback to tunnel each generated token to; onGenerationEnd is invoked
+     *                 before this method returns, as soon as Genie finishes the query
      */
     public void getResponseForPrompt(String userInput, StringCallback callback) {
-        getResponseForPrompt(genieWrapperNativeHandle, userInput, callback);
+        getResponseForPrompt(userInput, DEFAULT_FLUSH_INTERVAL_MS, callback);
+    }
+
+    /**
+     * getResponseForPrompt: Generates response for provided user input, batching generated tokens
+     *
+     * @param userInput user input to generate response for
+     * @param flushIntervalMs tokens are batched natively and passed to callback at most this often
+     *                        (sooner once enough text is pending), never splitting a character
+     * @param callback callback to tunnel generated text to
+     */
+    public void getResponseForPrompt(String userInput, int flushIntervalMs, StringCallback callback) {
+        getResponseForPrompt(loadedHandle(), userInput, flushIntervalMs, callback);
+    }
+
+    /**
+     * getResponseForPrompt: Generates response for a stand-alone request outside of the chat history
+     * Dialog state after the instructions is cached, so only userInput is processed when the same
+     * instructions were used before.
+     *
+     * @param instructions instruction block shared by requests, placed before userInput
+     * @param userInput request-specific text
+     * @param callback callback to tunnel each generated token to
+     */
+    public void getResponseForPrompt(String instructions, String userInput, StringCallback callback) {
+        getResponseForPrompt(instructions, userInput, DEFAULT_FLUSH_INTERVAL_MS, callback);
+    }
+
+    /**
+     * getResponseForPrompt: Generates response for a stand-alone request, batching generated tokens
+     *
+     * @param instructions instruction block shared by requests, placed before userInput
+     * @param userInput request-specific text
+     * @param flushIntervalMs tokens are batched natively and passed to callback at most this often
+     * @param callback callback to tunnel generated text to
+     */
+    public void getResponseForPrompt(String instructions, String userInput, int flushIntervalMs, StringCallback callback) {
+        getResponseForInstructedPrompt(loadedHandle(), instructions, userInput, flushIntervalMs, callback);
+    }
+
+    /**
+     * abort: Stops the response currently being generated
+     * May be called from any thread; the running getResponseForPrompt call returns shortly after and
+     * reports StringCallback.SENTENCE_ABORT through onGenerationEnd. No-op when nothing is generated
+     * or the model was already released.
+     */
+    public synchronized void abort() {
+        if (genieWrapperNativeHandle != 0) {
+            abortGeneration(genieWrapperNativeHandle);
+        }
+    }
+
+    /**
+     * release: Frees the loaded model; later abort calls are no-ops and queries throw
+     * Must not be called while a response is being generated.
+     */
+    public synchronized void release() {
+        if (genieWrapperNativeHandle != 0) {
+            freeModel(genieWrapperNativeHandle);
+            genieWrapperNativeHandle = 0;
+        }
     }
 
     /**
-     * finalize: Free previously loaded model
+     * finalize: Free previously loaded model if release was not called
      */
     @Override
     protected void finalize() {
-        freeModel(genieWrapperNativeHandle);
+        release();
+    }
+
+    private synchronized long loadedHandle() {
+        if (genieWrapperNativeHandle == 0) {
+            throw new IllegalStateException("Model was released");
+        }
+        return genieWrapperNativeHandle;
     }
 
     /**
@@ -52,9 +123,28 @@ public class GenieWrapper {
      *
      * @param nativeHandle native handle captured before with LoadModel
      * @param userInput user input to generate response for
-     * @param callback callback to tunnel each generated token to
+     * @param flushIntervalMs minimum time between callbacks while tokens are batched
+     * @param callback callback to tunnel generated text to
+     */
+    private native void getResponseForPrompt(long nativeHandle, String userInput, int flushIntervalMs, StringCallback callback);
+
+    /**
+     * getResponseForInstructedPrompt: JNI method to generate response for a stand-alone request
+     *
+     * @param nativeHandle native handle captured before with LoadModel
+     * @param instructions instruction block shared by requests
+     * @param userInput request-specific text
+     * @param flushIntervalMs minimum time between callbacks while tokens are batched
+     * @param callback callback to tunnel generated text to
+     */
+    private native void getResponseForInstructedPrompt(long nativeHandle, String instructions, String userInput, int flushIntervalMs, StringCallback callback);
+
+    /**
+     * abortGeneration: JNI method to abort the running response
+     *
+     * @param nativeHandle native handle captured before with LoadModel
      */
-    private native void getResponseForPrompt(long nativeHandle, String userInput, StringCallback callback);
+    private native void abortGeneration(long nativeHandle);
 
     /**
      * FreeModel: JNI method to free previously loaded model
@@ -4,26 +4,30 @@ import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.system.Os;
 import android.util.Log;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LlamaAnalysisService extends Service {
 
     private static final String TAG = "LlamaAnalysisService";
 
-    // GenieWrapper instance
+    // GenieWrapper instance (guarded by runningLock; null before initialization and after onDestroy)
     private GenieWrapper genieWrapper;
     private boolean isInitialized = false;
     private ExecutorService executorService;
@@ -35,6 +39,32 @@ public class LlamaAnalysisService extends Service {
     private volatile boolean isProcessing = false;
     private Thread currentTimeoutThread = null;
 
+    // 🆕 생성 중인 요청 (cancel()이 네이티브 중단을 걸 대상)
+    private final Object runningLock = new Object();
+    private AnalysisQueue.Request runningRequest = null;
+    private static final String CANCELLED_MESSAGE = "요청이 취소되었습니다.";
+
+    // 🆕 진행 중인 배치 (배치 ID → 실행 상태), 배치 ID는 요청 ID와 같은 번호 공간 사용
+    private final Map<Long, BatchRun> batches = new ConcurrentHashMap<>();
+
+    // 생성 종료 신호(onGenerationEnd)를 받지 못했을 때만 쓰는 안전망
+    private static final long GENERATION_TIMEOUT_MS = 60000;
+
+    // onDestroy 후 모델을 해제하기 전에 실행 중인 작업(초기화/생성)이 끝나기를 기다리는 최대 시간
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000;
+
+    // 🆕 스트리밍 프레임: 이 글자 수가 모이거나 이 시간이 지나면 전송
+    private static final int FRAME_MAX_CHARS = 64;
+    // 네이티브 토큰 묶음 주기도 같은 값 사용 (JNI 호출 수 감소)
+    private static final int FRAME_INTERVAL_MS = 50;
+
+    // 🆕 우선순위 대기열: 대화형 요청이 백그라운드 통화 분석보다 먼저 처리됨
+    private static final int MAX_QUEUED_REQUESTS = 8;
+    private final AnalysisQueue requestQueue = new AnalysisQueue(MAX_QUEUED_REQUESTS);
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+    // 요청별 마지막으로 알린 대기 위치(lastReportedPosition) 보호
+    private final Object queueReportLock = new Object();
+
     static {
         System.loadLibrary("chatapp");
     }
@@ -44,7 +74,7 @@ public class LlamaAnalysisService extends Service {
         @Override
         public void analyzeText(String text, IAnalysisCallback callback) throws RemoteException {
             Log.d(TAG, "AIDL analyzeText called with: " + text);
-            analyzeTextInternal(text, callback);
+            submitRequest(null, text, false, ILlamaAnalysisService.PRIORITY_INTERACTIVE, 0, callback);
         }
 
         @Override
@@ -56,6 +86,36 @@ public class LlamaAnalysisService extends Service {
         public boolean isServiceInitializing() throws RemoteException {
             return isInitializing;
         }
+
+        @Override
+        public long submitAnalysis(String text, int priority, long queueTimeoutMs, IAnalysisCallback callback) throws RemoteException {
+            Log.d(TAG, "AIDL submitAnalysis called, priority: " + priority + ", queue timeout: " + queueTimeoutMs);
+            return submitRequest(null, text, false, priority, queueTimeoutMs, callback);
+        }
+
+        @Override
+        public long submitAnalysisWithInstructions(String instructions, String text, int priority, long queueTimeoutMs, IAnalysisCallback callback) throws RemoteException {
+            Log.d(TAG, "AIDL submitAnalysisWithInstructions called, priority: " + priority);
+            return submitRequest(instructions, text, false, priority, queueTimeoutMs, callback);
+        }
+
+        @Override
+        public long submitStructuredAnalysis(String instructions, String text, int priority, long queueTimeoutMs, IAnalysisCallback callback) throws RemoteException {
+            Log.d(TAG, "AIDL submitStructuredAnalysis called, priority: " + priority);
+            return submitRequest(instructions, text, true, priority, queueTimeoutMs, callback);
+        }
+
+        @Override
+        public long analyzeBatch(List<AnalysisRequest> requests, IBatchCallback callback) throws RemoteException {
+            Log.d(TAG, "AIDL analyzeBatch called with " + (requests == null ? 0 : requests.size()) + " items");
+            return startBatch(requests, callback);
+        }
+
+        @Override
+        public boolean cancel(long requestId) throws RemoteException {
+            Log.d(TAG, "AIDL cancel called for request " + requestId);
+            return cancelRequest(requestId);
+        }
     };
 
     @Override
@@ -85,129 +145,598 @@ public class LlamaAnalysisService extends Service {
         super.onDestroy();
         Log.d(TAG, "LlamaAnalysisService destroyed");
 
+        // 🆕 타임아웃 스레드 정리
+        if (currentTimeoutThread != null && !currentTimeoutThread.isInterrupted()) {
+            currentTimeoutThread.interrupt();
+        }
+
+        // 🆕 배치는 다음 항목을 올리지 않도록 먼저 취소
+        for (BatchRun batch : batches.values()) {
+            batch.cancel();
+        }
+
+        // 🆕 대기 중인 요청도 모두 알림
+        for (AnalysisQueue.Request request : requestQueue.drain()) {
+            invokeErrorCallback(request.callback, "서비스가 종료되어 요청이 취소되었습니다.");
+        }
+
+        // 🆕 생성 중인 요청을 중단하고, executor가 끝난 뒤에만 모델 해제 (실행 중인 네이티브 호출이 해제된 모델을 쓰지 않도록)
+        synchronized (runningLock) {
+            if (runningRequest != null) {
+                runningRequest.cancelled = true;
+            }
+        }
+        abortGeneration();
         if (executorService != null) {
             executorService.shutdown();
+            Thread releaseThread = new Thread(this::releaseModelWhenIdle, "genie-release");
+            releaseThread.setDaemon(true);
+            releaseThread.start();
         }
+    }
 
-        // 🆕 타임아웃 스레드 정리
-        if (currentTimeoutThread != null && !currentTimeoutThread.isInterrupted()) {
-            currentTimeoutThread.interrupt();
+    // executor 종료를 기다린 뒤 모델 해제 (메인 스레드를 막지 않도록 별도 스레드에서 실행)
+    private void releaseModelWhenIdle() {
+        try {
+            if (!executorService.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                // 네이티브 호출이 아직 모델을 쓰는 중이면 해제하지 않음 (누수가 use-after-free보다 나음)
+                Log.e(TAG, "Executor still running after " + SHUTDOWN_TIMEOUT_MS + "ms, model not released");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
         }
 
-        genieWrapper = null;
+        GenieWrapper wrapper;
+        synchronized (runningLock) {
+            wrapper = genieWrapper;
+            genieWrapper = null;
+            isInitialized = false;
+        }
+        if (wrapper != null) {
+            wrapper.release();
+            Log.d(TAG, "GenieWrapper released");
+        }
     }
 
-    private void analyzeTextInternal(String inputText, IAnalysisCallback callback) {
-        if (!isInitialized) {
+    // 생성 중인 응답 중단 (모델이 없거나 이미 해제됐으면 아무것도 안 함)
+    private void abortGeneration() {
+        GenieWrapper wrapper;
+        synchronized (runningLock) {
+            wrapper = genieWrapper;
+        }
+        if (wrapper != null) {
+            wrapper.abort();
+        }
+    }
+
+    /**
+     * 요청을 우선순위 대기열에 추가
+     * 대기열이 가득 차면 더 낮은 우선순위 요청을 밀어내거나 새 요청을 거부하고, 어느 쪽이든 onError로 알림
+     *
+     * @param instructions 고정 지시문 (null이면 대화 기록에 이어지는 일반 요청)
+     * @param structured true면 응답의 첫 JSON 객체가 닫히는 즉시 생성 중단 (onStructuredResult로 결과 전달)
+     * @return 요청 ID (입력 오류로 받지 않은 경우 -1)
+     */
+    private long submitRequest(String instructions, String inputText, boolean structured, int priority, long queueTimeoutMs, IAnalysisCallback callback) {
+        if (!isInitialized && !isInitializing) {
+            invokeErrorCallback(callback, "서비스 초기화에 실패했습니다.");
+            return -1;
+        }
+
+        if (inputText == null || inputText.trim().isEmpty()) {
+            invokeErrorCallback(callback, "입력 텍스트가 비어있습니다.");
+            return -1;
+        }
+
+        if (executorService.isShutdown()) {
+            invokeErrorCallback(callback, "서비스가 종료되었습니다.");
+            return -1;
+        }
+
+        long requestId = nextRequestId.getAndIncrement();
+        long deadline = queueTimeoutMs > 0 ? SystemClock.elapsedRealtime() + queueTimeoutMs : 0;
+        AnalysisQueue.Request request = new AnalysisQueue.Request(requestId, instructions, inputText.trim(), structured, priority, deadline, callback);
+
+        AnalysisQueue.Request shed = requestQueue.offer(request);
+        if (shed != null) {
+            Log.w(TAG, "🚫 Request " + shed.id + " shed: queue full");
+            invokeErrorCallback(shed.callback, "대기 중인 요청이 너무 많습니다. 잠시 후 다시 시도해주세요.");
+        }
+        if (shed != request) {
+            Log.d(TAG, "📥 Request " + requestId + " queued, priority: " + priority);
+            // 초기화가 끝나지 않았으면 초기화 작업 뒤에 실행됨 (단일 스레드)
             try {
-                if (isInitializing) {
-                    callback.onError("서비스가 초기화 중입니다. 잠시 후 다시 시도해주세요.");
+                executorService.execute(this::runNextRequest);
+            } catch (RejectedExecutionException e) {
+                // onDestroy와 겹친 경우: 대기열에 남아 있으면 여기서 알림 (이미 drain됐으면 거기서 알림)
+                if (requestQueue.remove(requestId) != null) {
+                    invokeErrorCallback(callback, "서비스가 종료되었습니다.");
+                }
+                return requestId;
+            }
+        }
+        reportQueuePositions();
+        return requestId;
+    }
+
+    /**
+     * 요청 취소 (binder 스레드)
+     * 대기 중이면 대기열에서 제거, 생성 중이면 Genie에 중단 신호를 보내 NPU를 바로 비움
+     * 어느 경우든 클라이언트에는 onError로 알림
+     *
+     * @return 취소했으면 true, 이미 끝났거나 없는 요청이면 false
+     */
+    private boolean cancelRequest(long requestId) {
+        BatchRun batch = batches.get(requestId);
+        if (batch != null) {
+            batch.cancel();
+            return true;
+        }
+
+        AnalysisQueue.Request queued = requestQueue.remove(requestId);
+        if (queued != null) {
+            queued.cancelled = true;
+            Log.d(TAG, "🛑 Request " + requestId + " cancelled while queued");
+            invokeErrorCallback(queued.callback, CANCELLED_MESSAGE);
+            reportQueuePositions();
+            return true;
+        }
+
+        synchronized (runningLock) {
+            if (runningRequest == null || runningRequest.id != requestId || runningRequest.cancelled) {
+                return false;
+            }
+            runningRequest.cancelled = true;
+            Log.d(TAG, "🛑 Request " + requestId + " cancelled while generating, aborting");
+            if (genieWrapper != null) {
+                genieWrapper.abort();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 배치 시작: 항목을 하나씩 백그라운드 우선순위로 대기열에 올림
+     *
+     * @return 배치 ID (cancel()로 남은 항목 전체 취소)
+     */
+    private long startBatch(List<AnalysisRequest> requests, IBatchCallback callback) {
+        long batchId = nextRequestId.getAndIncrement();
+        BatchRun batch = new BatchRun(batchId, requests == null ? new ArrayList<>() : new ArrayList<>(requests), callback);
+        batches.put(batchId, batch);
+        Log.d(TAG, "📦 Batch " + batchId + " started with " + batch.items.size() + " items");
+        batch.submitNext();
+        return batchId;
+    }
+
+    /**
+     * BatchRun: 배치 하나의 실행 상태
+     * 항목은 한 번에 하나만 대기열에 올리고, 끝나면 바로 다음 항목을 올림
+     *  - 같은 단일 스레드 executor에서 이어서 실행되므로 모델 상태(같은 instructions의 캐시)가 계속 재사용됨
+     *  - 대기열에는 배치당 최대 한 항목만 있으므로 대화형 요청이 항목 사이에 먼저 처리될 수 있음
+     * 요청 콜백을 그대로 받아 itemId를 붙여 IBatchCallback으로 전달 (같은 프로세스 안의 Stub이라 직접 호출됨)
+     */
+    private class BatchRun extends IAnalysisCallback.Stub {
+        final long batchId;
+        final List<AnalysisRequest> items;
+        final IBatchCallback batchCallback;
+        final long startTime = SystemClock.elapsedRealtime();
+
+        private int next = 0;
+        private AnalysisRequest current;
+        private long currentRequestId = -1;
+        private long itemStartTime;
+        private boolean itemDone;
+        private boolean submitting;
+        private boolean cancelled;
+        private int succeeded = 0;
+        private int failed = 0;
+        private long generatedChars = 0;
+
+        BatchRun(long batchId, List<AnalysisRequest> items, IBatchCallback batchCallback) {
+            this.batchId = batchId;
+            this.items = items;
+            this.batchCallback = batchCallback;
+        }
+
+        /**
+         * 다음 항목을 대기열에 올림. 올리자마자 실패한 항목(입력 오류, 대기열 가득)은 건너뛰고 계속
+         */
+        void submitNext() {
+            while (true) {
+                AnalysisRequest item;
+                synchronized (this) {
+                    if (cancelled || next >= items.size()) {
+                        break;
+                    }
+                    item = items.get(next++);
+                    current = item;
+                    currentRequestId = -1;
+                    itemDone = false;
+                    submitting = true;
+                }
+
+                submitRequest(item.instructions, item.text, item.structured,
+                        ILlamaAnalysisService.PRIORITY_BACKGROUND, 0, this);
+
+                synchronized (this) {
+                    submitting = false;
+                    if (!itemDone) {
+                        // 결과는 콜백(finishItem)에서 처리하고 거기서 다음 항목을 올림
+                        return;
+                    }
+                }
+            }
+            complete();
+        }
+
+        /**
+         * 남은 항목 전체 취소: 진행 중인 항목은 중단하고, 그 항목이 끝나면(finishItem) 나머지를 실패로 알리고 마무리
+         */
+        void cancel() {
+            boolean inFlight;
+            long requestId;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                inFlight = current != null && !itemDone;
+                requestId = currentRequestId;
+            }
+            Log.d(TAG, "🛑 Batch " + batchId + " cancelled");
+            if (!inFlight) {
+                complete();
+            } else if (requestId >= 0) {
+                cancelRequest(requestId);
+            }
+        }
+
+        private void finishItem(String response, Map<String, String> fields, String error) {
+            AnalysisRequest item;
+            long generationMs;
+            boolean continueNow;
+            synchronized (this) {
+                if (itemDone) {
+                    return;
+                }
+                itemDone = true;
+                item = current;
+                generationMs = itemStartTime > 0 ? SystemClock.elapsedRealtime() - itemStartTime : 0;
+                itemStartTime = 0;
+                if (error == null) {
+                    succeeded++;
+                    generatedChars += response.length();
                 } else {
-                    callback.onError("서비스 초기화에 실패했습니다.");
+                    failed++;
+                }
+                continueNow = !submitting;
+            }
+
+            try {
+                if (error == null) {
+                    batchCallback.onItemResult(item.itemId, response, fields, generationMs);
+                } else {
+                    batchCallback.onItemError(item.itemId, error);
                 }
             } catch (RemoteException e) {
-                Log.e(TAG, "Error calling callback: " + e.getMessage());
+                Log.e(TAG, "Batch " + batchId + " callback failed, cancelling: " + e.getMessage());
+                synchronized (this) {
+                    cancelled = true;
+                }
+            }
+
+            if (continueNow) {
+                submitNext();
             }
-            return;
         }
 
-        // 🆕 이전 요청이 처리 중이면 거부
-        if (isProcessing) {
+        private void complete() {
+            if (batches.remove(batchId) == null) {
+                return;
+            }
+            int skipped;
+            synchronized (this) {
+                skipped = items.size() - next;
+                failed += skipped;
+            }
+            // 취소로 시작하지 못한 항목도 실패로 알림
+            for (int i = items.size() - skipped; i < items.size(); i++) {
+                try {
+                    batchCallback.onItemError(items.get(i).itemId, CANCELLED_MESSAGE);
+                } catch (RemoteException e) {
+                    break;
+                }
+            }
+
+            long elapsedMs = SystemClock.elapsedRealtime() - startTime;
+            Log.d(TAG, "📦 Batch " + batchId + " done: " + succeeded + " ok, " + failed + " failed in " + elapsedMs
+                    + "ms (" + (elapsedMs > 0 ? generatedChars * 1000 / elapsedMs : 0) + " chars/s)");
             try {
-                callback.onError("이전 요청이 처리 중입니다. 잠시 후 다시 시도해주세요.");
-                Log.w(TAG, "Request rejected: Previous request still processing");
+                batchCallback.onBatchComplete(succeeded, failed, elapsedMs, generatedChars);
             } catch (RemoteException e) {
-                Log.e(TAG, "Error calling callback: " + e.getMessage());
+                Log.e(TAG, "Error calling onBatchComplete: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onQueued(long requestId, int position) throws RemoteException {
+            AnalysisRequest item;
+            synchronized (this) {
+                if (currentRequestId >= 0) {
+                    return;
+                }
+                currentRequestId = requestId;
+                item = current;
             }
+            batchCallback.onItemQueued(item.itemId, requestId);
+        }
+
+        @Override
+        public void onStarted(long requestId) throws RemoteException {
+            AnalysisRequest item;
+            synchronized (this) {
+                itemStartTime = SystemClock.elapsedRealtime();
+                item = current;
+            }
+            batchCallback.onItemStarted(item.itemId);
+        }
+
+        @Override
+        public void onResult(String result) {
+            finishItem(result, null, null);
+        }
+
+        @Override
+        public void onStructuredResult(long requestId, String response, Map fields) {
+            @SuppressWarnings("unchecked")
+            Map<String, String> parsed = (Map<String, String>) fields;
+            finishItem(response, parsed, null);
+        }
+
+        @Override
+        public void onNoResult() {
+            finishItem("", null, null);
+        }
+
+        @Override
+        public void onError(String error) {
+            finishItem(null, null, error == null ? "Unknown error" : error);
+        }
+
+        @Override
+        public void onPartialResult(String partialText) {
+        }
+
+        @Override
+        public void onPartialDelta(long requestId, int sequence, String delta) {
+        }
+    }
+
+    /**
+     * 대기열에서 가장 우선순위가 높은 요청 하나를 꺼내 처리 (executor 스레드)
+     * 기한이 지난 요청은 실행하지 않고 onError로 알림
+     */
+    private void runNextRequest() {
+        List<AnalysisQueue.Request> expired = new ArrayList<>();
+        AnalysisQueue.Request request = requestQueue.poll(SystemClock.elapsedRealtime(), expired);
+        for (AnalysisQueue.Request late : expired) {
+            Log.w(TAG, "⌛ Request " + late.id + " shed: queue deadline passed");
+            invokeErrorCallback(late.callback, "대기 시간이 초과되어 요청이 취소되었습니다.");
+        }
+        if (request == null) {
             return;
         }
+        reportQueuePositions();
 
-        if (inputText == null || inputText.trim().isEmpty()) {
+        if (!isInitialized) {
+            invokeErrorCallback(request.callback, "서비스 초기화에 실패했습니다.");
+            return;
+        }
+
+        try {
+            request.callback.onStarted(request.id);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Error calling onStarted: " + e.getMessage());
+        }
+        synchronized (runningLock) {
+            runningRequest = request;
+        }
+        try {
+            processRequest(request);
+        } finally {
+            synchronized (runningLock) {
+                runningRequest = null;
+            }
+        }
+    }
+
+    // 대기 순서가 바뀐 요청에만 현재 위치 전달 (0 = 다음 차례)
+    // 바뀐 위치만 잠금 안에서 모으고 콜백은 잠금 밖에서 호출 (느리거나 죽은 클라이언트가 submit/cancel을 막지 않도록)
+    private void reportQueuePositions() {
+        List<AnalysisQueue.Request> changed = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        synchronized (queueReportLock) {
+            List<AnalysisQueue.Request> ordered = requestQueue.inOrder();
+            for (int position = 0; position < ordered.size(); position++) {
+                AnalysisQueue.Request request = ordered.get(position);
+                if (request.lastReportedPosition == position) {
+                    continue;
+                }
+                request.lastReportedPosition = position;
+                changed.add(request);
+                positions.add(position);
+            }
+        }
+
+        for (int i = 0; i < changed.size(); i++) {
+            AnalysisQueue.Request request = changed.get(i);
             try {
-                callback.onError("입력 텍스트가 비어있습니다.");
+                request.callback.onQueued(request.id, positions.get(i));
             } catch (RemoteException e) {
-                Log.e(TAG, "Error calling callback: " + e.getMessage());
+                Log.e(TAG, "Error calling onQueued: " + e.getMessage());
             }
-            return;
         }
+    }
 
-        // 🆕 이전 타임아웃 스레드 정리
-        if (currentTimeoutThread != null && !currentTimeoutThread.isInterrupted()) {
-            currentTimeoutThread.interrupt();
-            Log.d(TAG, "Interrupted previous timeout thread");
-        }
+    private void processRequest(AnalysisQueue.Request request) {
+        final long requestId = request.id;
+        final String instructions = request.instructions;
+        final String inputText = request.text;
+        final IAnalysisCallback callback = request.callback;
 
-        executorService.execute(() -> {
-            // 🆕 처리 상태 설정
-            isProcessing = true;
+        // 🆕 처리 상태 설정
+        isProcessing = true;
 
-            final StringBuilder responseBuilder = new StringBuilder();
-            final AtomicBoolean callbackInvoked = new AtomicBoolean(false);
-            final long startTime = System.currentTimeMillis();
+        final StringBuilder responseBuilder = new StringBuilder();
+        final AtomicBoolean callbackInvoked = new AtomicBoolean(false);
+        final long startTime = System.currentTimeMillis();
 
+        // 🔧 단일 응답 수집기
+        final Object responseLock = new Object();
+
+        // 🆕 아직 보내지 않은 새 텍스트 (FRAME_MAX_CHARS 또는 FRAME_INTERVAL_MS마다 한 프레임으로 전송)
+        final StringBuilder frameBuilder = new StringBuilder();
+        final int[] frameSequence = {0};
+        final long[] lastFrameTime = {System.currentTimeMillis()};
+
+        // 🆕 구조화 출력: JSON 객체가 닫히면 나머지 생성은 버리고 중단
+        final StructuredOutputTracker tracker = request.structured ? new StructuredOutputTracker() : null;
+
+        // 🔧 안전망 타임아웃: 생성 종료 신호가 오지 않을 때만 지금까지의 응답으로 마무리
+        currentTimeoutThread = new Thread(() -> {
             try {
-                Log.d(TAG, "Processing query: " + inputText);
-
-                // 🔧 단일 응답 수집기
-                final Object responseLock = new Object();
-
-                genieWrapper.getResponseForPrompt(inputText.trim(), new StringCallback() {
-                    @Override
-                    public void onNewString(String response) {
-                        synchronized (responseLock) {
-                            responseBuilder.append(response);
-                            String currentResponse = responseBuilder.toString().trim();
-
-                            Log.d(TAG, "Response length: " + currentResponse.length() + ", content preview: " +
-                                    (currentResponse.length() > 50 ? currentResponse.substring(0, 50) + "..." : currentResponse));
-
-                            // 🆕 즉시 부분 결과 전송 (완료 조건 체크 없이)
-                            try {
-                                callback.onPartialResult(currentResponse);
-                                Log.d(TAG, "✅ Partial result sent, length: " + currentResponse.length());
-                            } catch (RemoteException e) {
-                                Log.e(TAG, "Error sending partial result: " + e.getMessage());
-                            }
+                Thread.sleep(GENERATION_TIMEOUT_MS);
 
-                            // 🔧 완료 조건 체크 완전히 제거 - 타임아웃에만 의존
-                            // (완료 조건이 문제를 일으키고 있으므로 비활성화)
+                if (callbackInvoked.compareAndSet(false, true)) {
+                    synchronized (responseLock) {
+                        String finalResponse = responseBuilder.toString().trim();
+                        Log.w(TAG, "⏰ Timeout reached without end of generation, sending: " + finalResponse.substring(0, Math.min(100, finalResponse.length())));
+                        invokeFinalCallback(callback, finalResponse.isEmpty() ? "Response timeout" : finalResponse);
+                    }
+                    isProcessing = false;
+                    // 응답은 이미 보냈으니 남은 생성은 중단해서 다음 요청이 기다리지 않게 함
+                    synchronized (runningLock) {
+                        if (runningRequest == request && genieWrapper != null) {
+                            genieWrapper.abort();
                         }
                     }
-                });
-
-                // 🔧 타임아웃 메커니즘 (20초로 증가)
-                currentTimeoutThread = new Thread(() -> {
-                    try {
-                        Thread.sleep(20000); // 20초 대기
-
-                        // 🔧 타임아웃 시에만 최종 콜백 호출
-                        if (callbackInvoked.compareAndSet(false, true)) {
-                            synchronized (responseLock) {
-                                String finalResponse = responseBuilder.toString().trim();
-                                Log.d(TAG, "⏰ Timeout reached, sending final response: " + finalResponse.substring(0, Math.min(100, finalResponse.length())));
-                                invokeFinalCallback(callback, finalResponse.isEmpty() ? "Response timeout" : finalResponse);
+                }
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Timeout thread interrupted - generation finished");
+            }
+        });
+        currentTimeoutThread.setDaemon(true); // 데몬 스레드로 설정
+        currentTimeoutThread.start();
+        final Thread timeoutThread = currentTimeoutThread;
+
+        try {
+            Log.d(TAG, "Processing query: " + inputText);
+
+            StringCallback responseCallback = new StringCallback() {
+                @Override
+                public void onNewString(String response) {
+                    if (request.cancelled) {
+                        // 🆕 중단 신호가 쿼리 시작 직전에 들어와 무시된 경우 다시 중단
+                        abortGeneration();
+                        return;
+                    }
+                    synchronized (responseLock) {
+                        if (tracker != null) {
+                            if (tracker.isComplete()) {
+                                // 중단 신호 전에 이미 생성된 토큰
+                                return;
+                            }
+                            int used = tracker.feed(response);
+                            if (used >= 0) {
+                                Log.d(TAG, "🧩 Structured output complete after "
+                                        + (System.currentTimeMillis() - startTime) + "ms, stopping generation");
+                                response = response.substring(0, used);
+                                abortGeneration();
                             }
                         }
-                    } catch (InterruptedException e) {
-                        Log.d(TAG, "Timeout thread interrupted - this is normal for new requests");
-                    } finally {
-                        // 🆕 처리 완료 표시
-                        isProcessing = false;
+                        responseBuilder.append(response);
+                        frameBuilder.append(response);
+
+                        // 🆕 토큰마다 보내지 않고 크기/시간 기준으로 묶어서 새 텍스트만 전송
+                        long now = System.currentTimeMillis();
+                        if (frameBuilder.length() >= FRAME_MAX_CHARS || now - lastFrameTime[0] >= FRAME_INTERVAL_MS) {
+                            sendFrame(requestId, callback, frameBuilder, frameSequence);
+                            lastFrameTime[0] = now;
+                        }
                     }
-                });
-                currentTimeoutThread.setDaemon(true); // 데몬 스레드로 설정
-                currentTimeoutThread.start();
+                }
 
-            } catch (Exception e) {
-                Log.e(TAG, "Error during query processing: " + e.toString());
-                // 🔧 예외 발생 시에도 한 번만 실행되도록 보장
-                if (callbackInvoked.compareAndSet(false, true)) {
-                    invokeErrorCallback(callback, "쿼리 처리 중 오류가 발생했습니다: " + e.getMessage());
+                @Override
+                public void onGenerationEnd(int sentenceCode) {
+                    // 🆕 Genie가 생성을 끝낸 즉시 최종 결과 전송
+                    if (!callbackInvoked.compareAndSet(false, true)) {
+                        return;
+                    }
+                    timeoutThread.interrupt();
+                    if (request.cancelled) {
+                        Log.d(TAG, "🛑 Generation aborted (code " + sentenceCode + ") in "
+                                + (System.currentTimeMillis() - startTime) + "ms");
+                        invokeErrorCallback(callback, CANCELLED_MESSAGE);
+                        isProcessing = false;
+                        return;
+                    }
+                    synchronized (responseLock) {
+                        // 남은 프레임을 먼저 보내고 최종 결과 전송
+                        sendFrame(requestId, callback, frameBuilder, frameSequence);
+                        String finalResponse = responseBuilder.toString().trim();
+                        Log.d(TAG, "🏁 Generation ended (code " + sentenceCode + ") in "
+                                + (System.currentTimeMillis() - startTime) + "ms, length: " + finalResponse.length());
+                        Map<String, String> fields = tracker != null ? tracker.fields() : null;
+                        if (fields != null) {
+                            invokeStructuredCallback(requestId, callback, finalResponse, fields);
+                        } else {
+                            invokeFinalCallback(callback, finalResponse);
+                        }
+                    }
+                    isProcessing = false;
                 }
-                // 🆕 처리 완료 표시
+            };
+
+            GenieWrapper wrapper;
+            synchronized (runningLock) {
+                wrapper = genieWrapper;
+            }
+            if (wrapper == null) {
+                throw new IllegalStateException("Model is not loaded");
+            }
+            if (instructions != null) {
+                // 🆕 단독 요청: 대화 기록 없이, 캐시된 지시문 상태에서 inputText만 처리
+                wrapper.getResponseForPrompt(instructions, inputText, FRAME_INTERVAL_MS, responseCallback);
+            } else {
+                wrapper.getResponseForPrompt(inputText.trim(), FRAME_INTERVAL_MS, responseCallback);
+            }
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error during query processing: " + e.toString());
+            // 🔧 예외 발생 시에도 한 번만 실행되도록 보장
+            if (callbackInvoked.compareAndSet(false, true)) {
+                timeoutThread.interrupt();
+                invokeErrorCallback(callback, "쿼리 처리 중 오류가 발생했습니다: " + e.getMessage());
                 isProcessing = false;
             }
-        });
+        }
+    }
+
+    // 🆕 모인 새 텍스트를 한 프레임으로 전송하고 비움
+    private void sendFrame(long requestId, IAnalysisCallback callback, StringBuilder frameBuilder, int[] frameSequence) {
+        if (frameBuilder.length() == 0) {
+            return;
+        }
+        String delta = frameBuilder.toString();
+        frameBuilder.setLength(0);
+        try {
+            callback.onPartialDelta(requestId, frameSequence[0]++, delta);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Error sending partial delta: " + e.getMessage());
+        }
     }
 
     // 🔧 안전한 최종 콜백 호출
@@ -224,6 +753,16 @@ public class LlamaAnalysisService extends Service {
         }
     }
 
+    // 🆕 구조화 출력 결과 전달 (클라이언트는 다시 파싱할 필요 없음)
+    private void invokeStructuredCallback(long requestId, IAnalysisCallback callback, String response, Map<String, String> fields) {
+        try {
+            callback.onStructuredResult(requestId, response, fields);
+            Log.d(TAG, "Structured callback invoked with fields: " + fields.keySet());
+        } catch (Exception e) {
+            Log.e(TAG, "Error invoking structured callback: " + e.getMessage());
+        }
+    }
+
     // 🔧 안전한 오류 콜백 호출
     private void invokeErrorCallback(IAnalysisCallback callback, String errorMessage) {
         try {
@@ -284,10 +823,14 @@ public class LlamaAnalysisService extends Service {
         return htpConfigPath.toString();
     }
 
+    // 매니페스트 기준으로 설치 상태만 확인하고, 없거나 중단된 파일만 복사 (이어받기 + 검증 후 rename)
     private void copyAssetsToCache() throws IOException {
-        String externalDir = getExternalCacheDir().getAbsolutePath();
-        copyAssetsDir("models", externalDir);
-        copyAssetsDir("htp_config", externalDir);
+        AssetInstaller installer = new AssetInstaller(this, getExternalCacheDir(), "models", "htp_config");
+        if (installer.isInstalled()) {
+            Log.d(TAG, "Assets already installed in external cache");
+            return;
+        }
+        installer.install();
         Log.d(TAG, "Assets copied to external cache");
     }
 
@@ -311,7 +854,10 @@ public class LlamaAnalysisService extends Service {
             Log.d(TAG, "Initializing GenieWrapper with model: " + modelDir);
             Log.d(TAG, "HTP config: " + htpConfigPath);
 
-            genieWrapper = new GenieWrapper(modelDir, htpConfigPath);
+            GenieWrapper wrapper = new GenieWrapper(modelDir, htpConfigPath);
+            synchronized (runningLock) {
+                genieWrapper = wrapper;
+            }
             Log.i(TAG, "GenieWrapper initialized successfully");
 
         } catch (Exception e) {
@@ -319,39 +865,4 @@ public class LlamaAnalysisService extends Service {
             throw new RuntimeException(e);
         }
     }
-
-    // 유틸리티 메서드들 (기존과 동일)
-    private void copyAssetsDir(String inputAssetRelPath, String outputPath) throws IOException {
-        File outputAssetPath = new File(Paths.get(outputPath, inputAssetRelPath).toString());
-
-        String[] subAssetList = getAssets().list(inputAssetRelPath);
-        if (subAssetList.length == 0) {
-            if (!outputAssetPath.exists()) {
-                copyFile(inputAssetRelPath, outputAssetPath);
-            }
-            return;
-        }
-
-        if (!outputAssetPath.exists()) {
-            outputAssetPath.mkdirs();
-        }
-        for (String subAssetName : subAssetList) {
-            String inputSubAssetPath = Paths.get(inputAssetRelPath, subAssetName).toString();
-            copyAssetsDir(inputSubAssetPath, outputPath);
-        }
-    }
-
-    private void copyFile(String inputFilePath, File outputAssetFile) throws IOException {
-        InputStream in = getAssets().open(inputFilePath);
-        OutputStream out = new FileOutputStream(outputAssetFile);
-
-        byte[] buffer = new byte[1024 * 1024];
-        int read;
-        while ((read = in.read(buffer)) != -1) {
-            out.write(buffer, 0, read);
-        }
-
-        in.close();
-        out.close();
-    }
 }
\ No newline at end of file
@@ -13,11 +13,7 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.Toast;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
@@ -31,56 +27,6 @@ public class MainActivity extends AppCompatActivity {
         System.loadLibrary("chatapp");
     }
 
-    /**
-     * copyAssetsDir: Copies provided assets to output path
-     *
-     * @param inputAssetRelPath relative path to asset from asset root
-     * @param outputPath        output path to copy assets to
-     * @throws IOException
-     * @throws NullPointerException
-     */
-    void copyAssetsDir(String inputAssetRelPath, String outputPath) throws IOException, NullPointerException {
-        File outputAssetPath = new File(Paths.get(outputPath, inputAssetRelPath).toString());
-
-        String[] subAssetList = this.getAssets().list(inputAssetRelPath);
-        if (subAssetList.length == 0) {
-            // If file already present, skip copy.
-            if (!outputAssetPath.exists()) {
-                copyFile(inputAssetRelPath, outputAssetPath);
-            }
-            return;
-        }
-
-        // Input asset is a directory, create directory if not present already.
-        if (!outputAssetPath.exists()) {
-            outputAssetPath.mkdirs();
-        }
-        for (String subAssetName : subAssetList) {
-            // Copy content of sub-directory
-            String input_sub_asset_path = Paths.get(inputAssetRelPath, subAssetName).toString();
-            // NOTE: Not to modify output path, relative asset path is being updated.
-            copyAssetsDir(input_sub_asset_path, outputPath);
-        }
-    }
-
-    /**
-     * copyFile: Copies provided input file asset into output asset file
-     *
-     * @param inputFilePath   relative file path from asset root directory
-     * @param outputAssetFile output file to copy input asset file into
-     * @throws IOException
-     */
-    void copyFile(String inputFilePath, File outputAssetFile) throws IOException {
-        InputStream in = this.getAssets().open(inputFilePath);
-        OutputStream out = new FileOutputStream(outputAssetFile);
-
-        byte[] buffer = new byte[1024 * 1024];
-        int read;
-        while ((read = in.read(buffer)) != -1) {
-            out.write(buffer, 0, read);
-        }
-    }
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -108,9 +54,8 @@ public class MainActivity extends AppCompatActivity {
             //      - has SM8750.json and SM8650.json and picked up according to device SOC Model at runtime.
             String externalDir = getExternalCacheDir().getAbsolutePath();
             try {
-                // Copy assets to External cache if not already present
-                copyAssetsDir("models", externalDir.toString());
-                copyAssetsDir("htp_config", externalDir.toString());
+                // Copy assets to External cache if not already installed (see AssetInstaller)
+                new AssetInstaller(this, getExternalCacheDir(), "models", "htp_config").install();
             } catch (IOException e) {
                 String errorMsg = "Error during copying model asset to external storage: " + e.toString();
                 Log.e("ChatApp", errorMsg);
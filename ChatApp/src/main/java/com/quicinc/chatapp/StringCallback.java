@@ -8,5 +8,30 @@ package com.quicinc.chatapp;
  * StringCallBack - Callback to tunnel JNI output into Java
  */
 public interface StringCallback {
+    // Sentence codes, mirroring GenieDialog_SentenceCode_t
+    int SENTENCE_COMPLETE = 0;
+    int SENTENCE_BEGIN = 1;
+    int SENTENCE_CONTINUE = 2;
+    int SENTENCE_END = 3;
+    int SENTENCE_ABORT = 4;
+
     void onNewString(String str);
+
+    /**
+     * onNewString: Receives generated text along with the Genie sentence code for it
+     *
+     * @param str generated text
+     * @param sentenceCode one of the SENTENCE_* codes
+     */
+    default void onNewString(String str, int sentenceCode) {
+        onNewString(str);
+    }
+
+    /**
+     * onGenerationEnd: Called once when the model stopped generating for the prompt
+     *
+     * @param sentenceCode SENTENCE_END when the response finished, SENTENCE_ABORT when it was cut short
+     */
+    default void onGenerationEnd(int sentenceCode) {
+    }
 }
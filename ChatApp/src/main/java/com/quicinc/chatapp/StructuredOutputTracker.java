@@ -0,0 +1,133 @@
+// ---------------------------------------------------------------------
+// Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+// SPDX-License-Identifier: BSD-3-Clause
+// ---------------------------------------------------------------------
+package com.quicinc.chatapp;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * StructuredOutputTracker: Incremental brace/quote tracker for responses made of "Label: value" lines
+ * followed by one JSON object (e.g. "Summary: ..." then "Schedule: {...}")
+ *  - text is fed as it is generated; each character is scanned once
+ *  - braces inside JSON strings (and escaped quotes) are ignored, and so is a '{' in the leading text that is
+ *    not followed by a key
+ *  - reports completion as soon as the first top-level object closes, so generation can stop there
+ */
+class StructuredOutputTracker {
+
+    private static final Pattern LABEL_LINE = Pattern.compile("^\\s*([A-Za-z][\\w ]*?)\\s*:\\s*(.*?)\\s*$");
+
+    private final StringBuilder text = new StringBuilder();
+    private int objectStart = -1;
+    private int objectEnd = -1;
+    private int depth = 0;
+    // '{' seen but not yet followed by '"' or '}': may still be a brace in the prose before the object
+    private boolean startPending = false;
+    private boolean inString = false;
+    private boolean escaped = false;
+
+    /**
+     * feed: Scans newly generated text
+     *
+     * @param delta newly generated text
+     * @return number of leading characters of delta that belong to the response (up to and including the
+     *         closing brace) once the object is complete, -1 while the object is still open
+     */
+    int feed(String delta) {
+        if (isComplete()) {
+            return 0;
+        }
+        for (int i = 0; i < delta.length(); i++) {
+            char c = delta.charAt(i);
+            text.append(c);
+            if (startPending) {
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                startPending = false;
+                if (c != '"' && c != '}') {
+                    objectStart = -1;
+                    depth = 0;
+                }
+            }
+            if (objectStart < 0) {
+                if (c == '{') {
+                    objectStart = text.length() - 1;
+                    depth = 1;
+                    startPending = true;
+                }
+                continue;
+            }
+
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                objectEnd = text.length();
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    boolean isComplete() {
+        return objectEnd >= 0;
+    }
+
+    /**
+     * response: Text generated up to and including the closing brace
+     */
+    String response() {
+        return isComplete() ? text.substring(0, objectEnd) : text.toString();
+    }
+
+    /**
+     * fields: Parses the completed response
+     *  - "Label: value" lines before the object (e.g. Summary), label line of the object itself is skipped
+     *  - every top-level key of the object, nested values as JSON text and null as ""
+     *
+     * @return parsed fields, null if the object is not complete or is not valid JSON
+     */
+    Map<String, String> fields() {
+        if (!isComplete()) {
+            return null;
+        }
+
+        Map<String, String> fields = new HashMap<>();
+        for (String line : text.substring(0, objectStart).split("\n")) {
+            Matcher matcher = LABEL_LINE.matcher(line);
+            if (matcher.matches() && !matcher.group(2).isEmpty()) {
+                fields.put(matcher.group(1), matcher.group(2));
+            }
+        }
+
+        try {
+            JSONObject json = new JSONObject(text.substring(objectStart, objectEnd));
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                fields.put(key, json.isNull(key) ? "" : json.get(key).toString());
+            }
+        } catch (JSONException e) {
+            return null;
+        }
+        return fields;
+    }
+}
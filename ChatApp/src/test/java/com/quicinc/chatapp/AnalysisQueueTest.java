@@ -0,0 +1,101 @@
+// ---------------------------------------------------------------------
+// Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+// SPDX-License-Identifier: BSD-3-Clause
+// ---------------------------------------------------------------------
+package com.quicinc.chatapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AnalysisQueueTest {
+
+    private static final long NOW = 100_000L;
+
+    private static AnalysisQueue.Request request(long id, int priority, long deadline) {
+        return new AnalysisQueue.Request(id, null, "text " + id, false, priority, deadline, null);
+    }
+
+    private static List<Long> ids(List<AnalysisQueue.Request> requests) {
+        List<Long> ids = new ArrayList<>();
+        for (AnalysisQueue.Request request : requests) {
+            ids.add(request.id);
+        }
+        return ids;
+    }
+
+    private static List<Long> pollAll(AnalysisQueue queue, long now, List<AnalysisQueue.Request> expired) {
+        List<Long> served = new ArrayList<>();
+        AnalysisQueue.Request next;
+        while ((next = queue.poll(now, expired)) != null) {
+            served.add(next.id);
+        }
+        return served;
+    }
+
+    @Test
+    public void servesByPriorityThenArrival() {
+        AnalysisQueue queue = new AnalysisQueue(10);
+        queue.offer(request(1, 2, 0));
+        queue.offer(request(2, 0, 0));
+        queue.offer(request(3, 1, 0));
+        queue.offer(request(4, 0, 0));
+        queue.offer(request(5, 2, 0));
+
+        assertEquals(List.of(2L, 4L, 3L, 1L, 5L), ids(queue.inOrder()));
+
+        List<AnalysisQueue.Request> expired = new ArrayList<>();
+        assertEquals(List.of(2L, 4L, 3L, 1L, 5L), pollAll(queue, NOW, expired));
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void shedsExpiredRequestsWithoutServingThem() {
+        AnalysisQueue queue = new AnalysisQueue(10);
+        queue.offer(request(1, 0, NOW - 1));
+        queue.offer(request(2, 0, NOW + 1));
+        queue.offer(request(3, 1, NOW));
+        queue.offer(request(4, 1, 0));
+
+        List<AnalysisQueue.Request> expired = new ArrayList<>();
+        assertEquals(List.of(2L, 4L), pollAll(queue, NOW, expired));
+        assertEquals(List.of(1L, 3L), ids(expired));
+    }
+
+    @Test
+    public void fullQueueShedsLowestPriority() {
+        AnalysisQueue queue = new AnalysisQueue(3);
+        assertNull(queue.offer(request(1, 1, 0)));
+        assertNull(queue.offer(request(2, 2, 0)));
+        assertNull(queue.offer(request(3, 2, 0)));
+
+        // Equal priority never displaces queued work
+        AnalysisQueue.Request equal = request(4, 2, 0);
+        assertSame(equal, queue.offer(equal));
+
+        // Higher priority displaces the newest of the lowest priority
+        assertEquals(3L, queue.offer(request(5, 0, 0)).id);
+        assertEquals(List.of(5L, 1L, 2L), ids(queue.inOrder()));
+    }
+
+    @Test
+    public void removesAndDrains() {
+        AnalysisQueue queue = new AnalysisQueue(10);
+        queue.offer(request(1, 0, 0));
+        queue.offer(request(2, 1, 0));
+        queue.offer(request(3, 1, 0));
+
+        assertEquals(2L, queue.remove(2).id);
+        assertNull(queue.remove(2));
+        assertEquals(List.of(1L, 3L), ids(queue.inOrder()));
+
+        assertEquals(2, queue.drain().size());
+        assertNull(queue.poll(NOW, new ArrayList<>()));
+    }
+}
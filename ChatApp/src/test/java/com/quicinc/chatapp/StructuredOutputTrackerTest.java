@@ -0,0 +1,100 @@
+// ---------------------------------------------------------------------
+// Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+// SPDX-License-Identifier: BSD-3-Clause
+// ---------------------------------------------------------------------
+package com.quicinc.chatapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class StructuredOutputTrackerTest {
+
+    @Test
+    public void completesAfterNestedObject() throws Exception {
+        String response = "Summary: 병원 예약\n"
+                + "Schedule: {\"title\": \"진료\", \"when\": {\"date\": \"2026-10-20\", \"time\": \"10:00\"}, \"place\": \"병원\"}";
+        StructuredOutputTracker tracker = new StructuredOutputTracker();
+
+        int used = tracker.feed(response + "\nThe appointment is");
+
+        assertEquals(response.length(), used);
+        assertTrue(tracker.isComplete());
+        assertEquals(response, tracker.response());
+
+        Map<String, String> fields = tracker.fields();
+        assertEquals("병원 예약", fields.get("Summary"));
+        assertEquals("진료", fields.get("title"));
+        assertEquals("병원", fields.get("place"));
+        assertFalse(fields.containsKey("Schedule"));
+        JSONObject when = new JSONObject(fields.get("when"));
+        assertEquals("2026-10-20", when.getString("date"));
+        assertEquals("10:00", when.getString("time"));
+    }
+
+    @Test
+    public void ignoresBracesAndEscapedQuotesInStrings() {
+        String response = "Schedule: {\"title\": \"회의 {준비} \\\"중요\\\" }\", \"memo\": \"끝 \\\\\"}";
+        StructuredOutputTracker tracker = new StructuredOutputTracker();
+
+        assertEquals(response.length(), tracker.feed(response + " more"));
+
+        Map<String, String> fields = tracker.fields();
+        assertEquals("회의 {준비} \"중요\" }", fields.get("title"));
+        assertEquals("끝 \\", fields.get("memo"));
+    }
+
+    @Test
+    public void skipsStrayBraceInLeadingText() {
+        String response = "Summary: 일정 {없음} 확인\nSchedule: {\"title\": \"약 복용\"}";
+        StructuredOutputTracker tracker = new StructuredOutputTracker();
+
+        assertEquals(response.length(), tracker.feed(response));
+
+        Map<String, String> fields = tracker.fields();
+        assertEquals("일정 {없음} 확인", fields.get("Summary"));
+        assertEquals("약 복용", fields.get("title"));
+    }
+
+    @Test
+    public void tracksObjectSplitAcrossDeltas() {
+        // Splits right after the opening brace, inside an escape and between a string's braces
+        String[] deltas = {
+                "Summary: 통화\nSched", "ule: {", "\n  ", "\"title\": \"a \\", "\"{\\", "\"\", \"when\": {\"da",
+                "te\": \"x}\"", "}", "\n", "}", " trailing"
+        };
+        StructuredOutputTracker tracker = new StructuredOutputTracker();
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < deltas.length - 2; i++) {
+            assertEquals("delta " + i, -1, tracker.feed(deltas[i]));
+            assertFalse(tracker.isComplete());
+            assertNull(tracker.fields());
+            expected.append(deltas[i]);
+        }
+        assertEquals(1, tracker.feed(deltas[deltas.length - 2]));
+        expected.append(deltas[deltas.length - 2]);
+        assertEquals(0, tracker.feed(deltas[deltas.length - 1]));
+
+        assertEquals(expected.toString(), tracker.response());
+        Map<String, String> fields = tracker.fields();
+        assertEquals("통화", fields.get("Summary"));
+        assertEquals("a \"{\"", fields.get("title"));
+    }
+
+    @Test
+    public void reportsInvalidJson() {
+        String response = "Schedule: {\"a\" 1}";
+        StructuredOutputTracker tracker = new StructuredOutputTracker();
+
+        assertEquals(response.length(), tracker.feed(response));
+        assertTrue(tracker.isComplete());
+        assertNull(tracker.fields());
+    }
+}
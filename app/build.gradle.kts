@@ -1,3 +1,5 @@
+import groovy.json.JsonOutput
+import java.security.MessageDigest
 import java.util.Properties
 
 
@@ -16,6 +18,8 @@ val localIpAddress = localProperties.getProperty("SERVER_IP") ?: "127.0.0.1"
 
 val baseUrl = "http://$localIpAddress:8080"
 
+val assetManifestDir = layout.buildDirectory.dir("generated/assetManifest")
+
 plugins {
     alias(libs.plugins.android.application)
     alias(libs.plugins.kotlin.android)
@@ -78,6 +82,14 @@ android {
         aidl = true
     }
 
+    // 로컬 단위 테스트에서 android.util.Log 같은 플랫폼 호출은 예외 대신 기본값을 반환
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
+
+    // 빌드 때 생성되는 모델 asset 매니페스트 (ModelAssetInstaller가 사용)
+    sourceSets["main"].assets.srcDir(assetManifestDir)
+
     // KAPT 설정 (Hilt만을 위해)
     kapt {
         correctErrorTypes = true
@@ -93,6 +105,38 @@ android {
 
 }
 
+// Whisper 모델/어휘 asset의 경로, 크기, sha256을 asset_manifest.json으로 기록
+// ModelAssetInstaller가 이 값으로 복사를 검증하고, 중단된 복사를 이어받고, 이미 설치된 파일을 건너뜀
+val generateAssetManifest by tasks.registering {
+    val assetsDir = file("src/main/assets")
+    val modelAssets = fileTree(assetsDir) { include("*.tflite", "filters_vocab_*.bin") }
+    inputs.files(modelAssets)
+    outputs.dir(assetManifestDir)
+
+    doLast {
+        val entries = modelAssets.files.sortedBy { it.name }.map { asset ->
+            val digest = MessageDigest.getInstance("SHA-256")
+            asset.inputStream().use { input ->
+                val buffer = ByteArray(8 * 1024 * 1024)
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                }
+            }
+            mapOf(
+                "path" to asset.relativeTo(assetsDir).invariantSeparatorsPath,
+                "size" to asset.length(),
+                "sha256" to digest.digest().joinToString("") { "%02x".format(it) }
+            )
+        }
+        val manifest = assetManifestDir.get().file("asset_manifest.json").asFile
+        manifest.parentFile.mkdirs()
+        manifest.writeText(JsonOutput.prettyPrint(JsonOutput.toJson(mapOf("files" to entries))))
+    }
+}
+tasks.named("preBuild") { dependsOn(generateAssetManifest) }
+
 // android 블록 아래에 추가
 configurations.all {
     resolutionStrategy {
@@ -0,0 +1,153 @@
+package com.example.domentiacare
+
+import android.content.Context
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import com.example.domentiacare.data.util.M4aPcmSource
+import com.example.domentiacare.service.whisper.VoiceActivityDetector
+import com.example.domentiacare.service.whisper.WaveUtil
+import com.example.domentiacare.service.whisper.WhisperUtil
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import kotlin.math.PI
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * VAD 단계 벤치마크: 통화 녹음 fixture마다 Whisper 추론 횟수(30초 창) 전/후와 VAD 처리 시간 기록
+ * - fixture: assets 음성 파일을 통화 형태(대기음/무음/보류)로 감싼 합성 통화 + 기기의 실제 통화 녹음(/sdcard/Recordings/Call)
+ * - 결과는 logcat "VoiceActivityBenchmark" 태그로 확인
+ */
+class VoiceActivityBenchmark {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+
+    @Test
+    fun vad_reduces_inference_windows_on_call_fixtures() {
+        val fixtures = syntheticCalls() + recordedCalls()
+        var totalBefore = 0
+        var totalAfter = 0
+
+        for ((name, samples) in fixtures) {
+            val vad = VoiceActivityDetector()
+            val startTime = System.nanoTime()
+            val packed = vad.pack(samples)
+            val elapsedMs = (System.nanoTime() - startTime) / 1_000_000
+
+            val before = windows(samples.size)
+            val after = if (packed.isEmpty()) 0 else windows(packed.size)
+            totalBefore += before
+            totalAfter += after
+            Log.d(
+                TAG,
+                "$name: ${seconds(samples.size)}s → ${seconds(packed.size)}s, " +
+                    "세그먼트 ${vad.segments.size}개, 추론 $before → $after 회, VAD ${elapsedMs}ms"
+            )
+            assertTrue("$name: 추론 횟수가 늘어남", after <= before)
+        }
+
+        Log.d(TAG, "전체: 추론 $totalBefore → $totalAfter 회 (fixture ${fixtures.size}개)")
+    }
+
+    @Test
+    fun ring_back_and_silence_only_call_needs_no_inference() {
+        val random = Random(1)
+        val call = noise(3.0, random) + ringBack(30.0, random) + noise(20.0, random)
+
+        assertEquals(0, VoiceActivityDetector().pack(call).size)
+    }
+
+    @Test
+    fun speech_is_kept() {
+        for ((name, speech) in speechAssets()) {
+            val vad = VoiceActivityDetector()
+            val packed = vad.pack(speech)
+
+            assertTrue("$name: 음성 구간 없음", vad.segments.isNotEmpty())
+            assertTrue("$name: 음성이 너무 많이 잘림", packed.size >= speech.size / 2)
+        }
+    }
+
+    // 대기음 → 통화 → 보류(무음) → 통화 → 종료 후 무음
+    private fun syntheticCalls(): List<Pair<String, FloatArray>> {
+        val random = Random(1)
+        return speechAssets().map { (name, speech) ->
+            val call = noise(3.0, random) + ringBack(24.0, random) +
+                withNoise(speech, random) + noise(45.0, random) +
+                withNoise(speech, random) + noise(10.0, random)
+            "합성 통화($name)" to call
+        }
+    }
+
+    // 기기에 있는 실제 통화 녹음 (없으면 건너뜀)
+    private fun recordedCalls(): List<Pair<String, FloatArray>> {
+        val files = File("/sdcard/Recordings/Call/").listFiles { file ->
+            file.isFile && file.extension.equals("m4a", true)
+        } ?: return emptyList()
+
+        return files.sortedBy { it.name }.take(MAX_RECORDED_CALLS).mapNotNull { file ->
+            try {
+                file.name to decode(file)
+            } catch (e: Exception) {
+                Log.w(TAG, "⚠️ 통화 녹음 디코딩 실패: ${file.name}", e)
+                null
+            }
+        }
+    }
+
+    private fun decode(file: File): FloatArray {
+        var samples = FloatArray(WhisperUtil.WHISPER_SAMPLE_RATE * 60)
+        var size = 0
+        M4aPcmSource(file).use { source ->
+            while (true) {
+                if (size == samples.size) samples = samples.copyOf(samples.size * 2)
+                val count = source.read(samples, size, samples.size - size)
+                if (count < 0) break
+                size += count
+            }
+        }
+        return samples.copyOf(size)
+    }
+
+    private fun speechAssets(): List<Pair<String, FloatArray>> =
+        SPEECH_ASSETS.map { name ->
+            val file = File(context.cacheDir, name)
+            context.assets.open(name).use { input -> file.outputStream().use { input.copyTo(it) } }
+            name to WaveUtil.getSamples(file.absolutePath)
+        }
+
+    // 배경 잡음 (-65 dBFS)
+    private fun noise(seconds: Double, random: Random) =
+        FloatArray((seconds * WhisperUtil.WHISPER_SAMPLE_RATE).toInt()) { (random.nextFloat() - 0.5f) * NOISE_AMPLITUDE }
+
+    private fun withNoise(speech: FloatArray, random: Random) =
+        FloatArray(speech.size) { speech[it] + (random.nextFloat() - 0.5f) * NOISE_AMPLITUDE }
+
+    // 통화 연결음: 440 + 480 Hz, 2초 울림 / 4초 쉼
+    private fun ringBack(seconds: Double, random: Random): FloatArray {
+        val rate = WhisperUtil.WHISPER_SAMPLE_RATE
+        return FloatArray((seconds * rate).toInt()) { i ->
+            val t = i.toDouble() / rate
+            val ringing = (t % 6.0) < 2.0
+            val tone = if (ringing) 0.1 * (sin(2 * PI * 440 * t) + sin(2 * PI * 480 * t)) else 0.0
+            tone.toFloat() + (random.nextFloat() - 0.5f) * NOISE_AMPLITUDE
+        }
+    }
+
+    private fun windows(samples: Int): Int {
+        val window = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE
+        val stride = window - WhisperUtil.WHISPER_SAMPLE_RATE * 2 // 기본 2초 겹침
+        return if (samples <= window) 1 else 1 + (samples - window + stride - 1) / stride
+    }
+
+    private fun seconds(samples: Int) = "%.1f".format(samples.toFloat() / WhisperUtil.WHISPER_SAMPLE_RATE)
+
+    companion object {
+        private const val TAG = "VoiceActivityBenchmark"
+        private const val MAX_RECORDED_CALLS = 20
+        private const val NOISE_AMPLITUDE = 0.002f
+        private val SPEECH_ASSETS = listOf("test.wav", "english_test1.wav", "english_test_3_bili.wav")
+    }
+}
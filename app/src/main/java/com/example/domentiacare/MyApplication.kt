@@ -7,6 +7,7 @@ import android.util.Base64
 import android.util.Log
 import com.example.domentiacare.data.local.TokenManager
 import com.example.domentiacare.service.llama.LlamaServiceManager
+import com.example.domentiacare.service.whisper.WhisperEngineRegistry
 import com.kakao.sdk.common.KakaoSdk
 import dagger.hilt.android.HiltAndroidApp
 import kotlinx.coroutines.*
@@ -195,6 +196,14 @@ class MyApplication : Application() {
         }
     }
 
+    // 🆕 메모리 부족 시 사용하지 않는 Whisper 모델 해제
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            WhisperEngineRegistry.unloadIfIdle()
+        }
+    }
+
     // 🆕 앱 종료시 리소스 정리
     override fun onTerminate() {
         super.onTerminate()
@@ -202,6 +211,7 @@ class MyApplication : Application() {
 
         // 리소스 정리
         applicationScope.cancel()
+        WhisperEngineRegistry.shutdown()
         try {
             llamaServiceManager.disconnect(this)
         } catch (e: UninitializedPropertyAccessException) {
@@ -22,6 +22,8 @@ import com.example.domentiacare.data.local.CurrentUser
 import com.example.domentiacare.data.remote.RetrofitClient
 import com.example.domentiacare.data.remote.dto.Patient
 import com.example.domentiacare.service.androidtts.TTSServiceManager
+import com.example.domentiacare.service.llama.LlamaServiceManager
+import com.quicinc.chatapp.ILlamaAnalysisService
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -371,7 +373,12 @@ class AIAssistant(
                     return@launch
                 }
 
-                val llamaResponse = llamaManager.sendQueryBlocking(prompt)
+                // suspend 호출: forceStop()으로 Job이 취소되면 서비스의 생성도 같이 중단됨
+                val llamaResponse = llamaManager.sendQuery(
+                    prompt,
+                    priority = ILlamaAnalysisService.PRIORITY_INTERACTIVE,
+                    queueTimeoutMs = LlamaServiceManager.INTERACTIVE_QUEUE_TIMEOUT
+                )
                 Log.d("AIAssistant", "🔤 Llama keyword response: '$llamaResponse'")
 
                 if (isActive && !isForceStopping && !isDestroyed) {
@@ -3,34 +3,40 @@ package com.example.domentiacare.data.local
 
 import android.content.Context
 import android.content.SharedPreferences
-import com.example.domentiacare.data.model.Record
+import android.util.Log
+import androidx.sqlite.db.SimpleSQLiteQuery
+import com.example.domentiacare.data.local.record.RecordConverters
+import com.example.domentiacare.data.local.record.RecordDao
+import com.example.domentiacare.data.local.record.RecordDatabaseProvider
+import com.example.domentiacare.data.local.record.RecordJournal
+import com.example.domentiacare.data.local.record.RecordPatch
 import com.example.domentiacare.data.model.ProcessStatus
+import com.example.domentiacare.data.model.Record
 import com.google.gson.Gson
 import com.google.gson.reflect.TypeToken
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 
+/**
+ * Record 저장소 (Room record 테이블)
+ * 조회는 localId/상태/userId 인덱스를 사용
+ * 쓰기는 모두 RecordJournal(단일 writer)을 거치므로 여러 파이프라인이 동시에 돌아도 변경이 섞이지 않음
+ * 상태/결과 업데이트는 저널에 합쳐졌다가 flush() 때 한 번에 커밋되고, 그 전에도 조회 결과에는 반영됨
+ */
 class RecordStorage(private val context: Context) {
-    private val prefs: SharedPreferences = context.getSharedPreferences("records", Context.MODE_PRIVATE)
-    private val gson = Gson()
+    private val dao: RecordDao = RecordDatabaseProvider.getDatabase(context).recordDao()
+    private val journal: RecordJournal = RecordDatabaseProvider.getJournal(context)
 
-    // Record 저장
+    // Record 저장 (즉시 커밋)
     suspend fun saveRecord(record: Record): Result<Record> = withContext(Dispatchers.IO) {
         try {
-            val records = getAllRecords().toMutableList()
-            val existingIndex = records.indexOfFirst { it.localId == record.localId }
-
-            if (existingIndex != -1) {
-                // 기존 레코드 업데이트
-                records[existingIndex] = record.copy(updatedAt = System.currentTimeMillis())
-            } else {
-                // 새 레코드 추가
-                records.add(record)
-            }
-
-            val json = gson.toJson(records)
-            prefs.edit().putString("records_list", json).apply()
-
+            migrateFromPreferences()
+            journal.save(record)
             Result.success(record)
         } catch (e: Exception) {
             Result.failure(e)
@@ -40,17 +46,42 @@ class RecordStorage(private val context: Context) {
     // 모든 Record 조회
     suspend fun getAllRecords(): List<Record> = withContext(Dispatchers.IO) {
         try {
-            val json = prefs.getString("records_list", "[]") ?: "[]"
-            val type = object : TypeToken<List<Record>>() {}.type
-            gson.fromJson(json, type) ?: emptyList()
+            migrateFromPreferences()
+            val patches = journal.pendingSnapshot()
+            dao.getAllRecords().map { journal.overlay(it, patches) }
         } catch (e: Exception) {
+            Log.e(TAG, "❌ Record 조회 실패", e)
             emptyList()
         }
     }
 
+    // 모든 Record 관찰 (변경될 때마다 새 목록 전달)
+    fun observeAllRecords(): Flow<List<Record>> =
+        combine(dao.getAllRecordsFlow(), journal.version) { records, _ ->
+            val patches = journal.pendingSnapshot()
+            records.map { journal.overlay(it, patches) }
+        }
+
+    // Record 하나 관찰
+    fun observeRecord(localId: String): Flow<Record?> =
+        combine(dao.getRecordByIdFlow(localId), journal.version) { record, _ ->
+            val patch = journal.pendingPatch(localId)
+            record?.let { if (patch != null) journal.overlay(it, mapOf(localId to patch)) else it }
+        }
+
     // Record ID로 조회
     suspend fun getRecordById(localId: String): Record? = withContext(Dispatchers.IO) {
-        getAllRecords().find { it.localId == localId }
+        migrateFromPreferences()
+        val patch = journal.pendingPatch(localId)
+        val record = dao.getRecordById(localId)
+        if (record != null && patch != null) journal.overlay(record, mapOf(localId to patch)) else record
+    }
+
+    // 사용자별 Record 조회
+    suspend fun getRecordsByUser(userId: Long): List<Record> = withContext(Dispatchers.IO) {
+        migrateFromPreferences()
+        val patches = journal.pendingSnapshot()
+        dao.getRecordsByUser(userId).map { journal.overlay(it, patches) }
     }
 
     // 처리 상태별 Record 조회
@@ -59,58 +90,58 @@ class RecordStorage(private val context: Context) {
         analysisStatus: ProcessStatus? = null,
         parseStatus: ProcessStatus? = null
     ): List<Record> = withContext(Dispatchers.IO) {
-        getAllRecords().filter { record ->
-            (transcriptStatus == null || record.transcriptStatus == transcriptStatus) &&
-                    (analysisStatus == null || record.analysisStatus == analysisStatus) &&
-                    (parseStatus == null || record.parseStatus == parseStatus)
+        migrateFromPreferences()
+        val patches = journal.pendingSnapshot()
+
+        // 지정된 상태만 조건으로 넣어 해당 컬럼 인덱스를 사용
+        val conditions = mutableListOf<String>()
+        val args = mutableListOf<Any>()
+        transcriptStatus?.let { conditions.add("transcriptStatus = ?"); args.add(it.name) }
+        analysisStatus?.let { conditions.add("analysisStatus = ?"); args.add(it.name) }
+        parseStatus?.let { conditions.add("parseStatus = ?"); args.add(it.name) }
+
+        val where = if (conditions.isEmpty()) "" else " WHERE " + conditions.joinToString(" AND ")
+        val matched = dao.getRecordsByQuery(SimpleSQLiteQuery("SELECT * FROM record$where ORDER BY createdAt", args.toTypedArray()))
+        if (patches.isEmpty()) return@withContext matched
+
+        // 아직 커밋 안 된 상태 변경이 있는 Record는 반영한 뒤 다시 걸러냄
+        val candidates = LinkedHashMap<String, Record>()
+        matched.forEach { candidates[it.localId] = it }
+        patches.keys.forEach { id ->
+            if (id !in candidates) dao.getRecordById(id)?.let { candidates[id] = it }
         }
+        candidates.values
+            .map { journal.overlay(it, patches) }
+            .filter {
+                (transcriptStatus == null || it.transcriptStatus == transcriptStatus) &&
+                    (analysisStatus == null || it.analysisStatus == analysisStatus) &&
+                    (parseStatus == null || it.parseStatus == parseStatus)
+            }
+            .sortedBy { it.createdAt }
     }
 
     // Transcript 업데이트
     suspend fun updateTranscript(localId: String, transcript: String, status: ProcessStatus) = withContext(Dispatchers.IO) {
-        updateRecord(localId) { record ->
-            record.copy(
-                transcript = transcript,
-                transcriptStatus = status,
-                updatedAt = System.currentTimeMillis()
-            )
-        }
+        updateRecord(localId, RecordPatch(transcript = transcript, transcriptStatus = status))
     }
 
     // Llama 결과 업데이트
     suspend fun updateAnalysisResult(localId: String, result: String, status: ProcessStatus) = withContext(Dispatchers.IO) {
-        updateRecord(localId) { record ->
-            record.copy(
-                result = result,
-                analysisStatus = status,
-                updatedAt = System.currentTimeMillis()
-            )
-        }
+        updateRecord(localId, RecordPatch(result = result, analysisStatus = status))
     }
 
     // 추출된 일정 업데이트
     suspend fun updateExtractedSchedules(localId: String, schedules: List<SimpleSchedule>, status: ProcessStatus) = withContext(Dispatchers.IO) {
-        updateRecord(localId) { record ->
-            record.copy(
-                extractedSchedules = schedules,
-                parseStatus = status,
-                updatedAt = System.currentTimeMillis()
-            )
-        }
+        updateRecord(localId, RecordPatch(extractedSchedules = schedules, parseStatus = status))
     }
 
-    // Record 업데이트 헬퍼 함수
-    private suspend fun updateRecord(localId: String, updateFunction: (Record) -> Record) {
+    // Record 업데이트 헬퍼 함수 (저널에 합치고 커밋은 flush 때)
+    private suspend fun updateRecord(localId: String, patch: RecordPatch) {
         try {
-            val records = getAllRecords().toMutableList()
-            val index = records.indexOfFirst { it.localId == localId }
-            if (index != -1) {
-                records[index] = updateFunction(records[index])
-                val json = gson.toJson(records)
-                prefs.edit().putString("records_list", json).apply()
-            }
+            migrateFromPreferences()
+            journal.stage(localId, patch)
         } catch (e: Exception) {
-            // 로그만 출력
+            Log.e(TAG, "❌ Record 업데이트 실패: $localId", e)
         }
     }
 
@@ -121,20 +152,75 @@ class RecordStorage(private val context: Context) {
         analysisStatus: ProcessStatus? = null,
         parseStatus: ProcessStatus? = null
     ) = withContext(Dispatchers.IO) {
-        updateRecord(localId) { record ->
-            record.copy(
-                transcriptStatus = transcriptStatus ?: record.transcriptStatus,
-                analysisStatus = analysisStatus ?: record.analysisStatus,
-                parseStatus = parseStatus ?: record.parseStatus,
-                updatedAt = System.currentTimeMillis()
-            )
+        updateRecord(
+            localId,
+            RecordPatch(transcriptStatus = transcriptStatus, analysisStatus = analysisStatus, parseStatus = parseStatus)
+        )
+    }
+
+    /**
+     * 저널에 쌓인 변경을 DB에 커밋 (localId가 null이면 전체)
+     * 파이프라인 한 번이 끝날 때 호출하면 단계별 상태 변경이 한 트랜잭션으로 기록됨
+     */
+    suspend fun flush(localId: String? = null) = withContext(Dispatchers.IO) {
+        try {
+            journal.flush(localId)
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.e(TAG, "❌ Record 커밋 실패: ${localId ?: "전체"}", e)
         }
     }
 
     // 모든 추출된 일정들 조회 (모든 Record에서)
     suspend fun getAllExtractedSchedules(): List<SimpleSchedule> = withContext(Dispatchers.IO) {
-        getAllRecords()
-            .mapNotNull { it.extractedSchedules }
+        migrateFromPreferences()
+        val patches = journal.pendingSnapshot()
+        if (patches.values.any { it.extractedSchedules != null }) {
+            // 커밋 전 일정이 있으면 Record 단위로 반영해서 모음
+            return@withContext dao.getAllRecords()
+                .map { journal.overlay(it, patches) }
+                .flatMap { it.extractedSchedules ?: emptyList() }
+        }
+        dao.getAllExtractedSchedulesJson()
+            .mapNotNull { RecordConverters.jsonToSchedules(it) }
             .flatten()
     }
-}
\ No newline at end of file
+
+    /**
+     * 예전 SharedPreferences("records")의 JSON 목록을 한 번만 테이블로 옮김
+     */
+    private suspend fun migrateFromPreferences() {
+        if (migrated) return
+        migrationLock.withLock {
+            if (migrated) return
+            val prefs: SharedPreferences = context.getSharedPreferences(LEGACY_PREFS, Context.MODE_PRIVATE)
+            val json = prefs.getString(LEGACY_KEY, null)
+            if (json != null) {
+                try {
+                    val type = object : TypeToken<List<Record>>() {}.type
+                    val records: List<Record> = Gson().fromJson(json, type) ?: emptyList()
+                    dao.insertRecords(records)
+                    // 테이블에 들어간 뒤에만 예전 목록 삭제
+                    prefs.edit().remove(LEGACY_KEY).apply()
+                    Log.d(TAG, "✅ SharedPreferences Record ${records.size}개 이전 완료")
+                } catch (e: Exception) {
+                    // 키와 migrated=false를 그대로 두어 다음 접근 때 다시 시도
+                    Log.e(TAG, "❌ SharedPreferences Record 이전 실패 (다음에 다시 시도)", e)
+                    return
+                }
+            }
+            migrated = true
+        }
+    }
+
+    companion object {
+        private const val TAG = "RecordStorage"
+        private const val LEGACY_PREFS = "records"
+        private const val LEGACY_KEY = "records_list"
+
+        @Volatile
+        private var migrated = false
+        private val migrationLock = Mutex()
+    }
+}
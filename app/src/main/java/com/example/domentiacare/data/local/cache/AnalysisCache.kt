@@ -0,0 +1,159 @@
+package com.example.domentiacare.data.local.cache
+
+import android.util.Log
+import androidx.room.withTransaction
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 캐시 적중/실패 횟수 (프로세스 시작 이후)
+ */
+data class AnalysisCacheStats(
+    val transcriptHits: Long,
+    val transcriptMisses: Long,
+    val analysisHits: Long,
+    val analysisMisses: Long
+)
+
+/**
+ * 내용 기반 분석 캐시 (Room analysis_cache 테이블)
+ * - 전사: 오디오 파일 내용 해시 + Whisper 모델 식별자 → transcript
+ * - LLM 분석: transcript 해시 + 프롬프트 템플릿 → 응답
+ * 같은 녹음을 다시 처리하거나 다시 가져와도(파일 이름/Record ID가 달라도) 추론 없이 결과를 재사용
+ * 전체 크기가 maxBytes를 넘으면 가장 오래 안 쓴 항목부터 삭제 (LRU)
+ */
+class AnalysisCache(
+    private val db: AnalysisCacheDatabase,
+    private val maxBytes: Long = MAX_CACHE_BYTES
+) {
+    private val dao = db.analysisCacheDao()
+
+    private val transcriptHits = AtomicLong()
+    private val transcriptMisses = AtomicLong()
+    private val analysisHits = AtomicLong()
+    private val analysisMisses = AtomicLong()
+
+    suspend fun getTranscript(audioHash: String, modelId: String): String? =
+        get(transcriptKey(audioHash, modelId), transcriptHits, transcriptMisses)
+
+    suspend fun putTranscript(audioHash: String, modelId: String, transcript: String) =
+        put(transcriptKey(audioHash, modelId), KIND_TRANSCRIPT, transcript)
+
+    suspend fun getAnalysis(transcript: String, promptTemplate: String): String? =
+        get(analysisKey(transcript, promptTemplate), analysisHits, analysisMisses)
+
+    suspend fun putAnalysis(transcript: String, promptTemplate: String, result: String) =
+        put(analysisKey(transcript, promptTemplate), KIND_ANALYSIS, result)
+
+    fun stats() = AnalysisCacheStats(
+        transcriptHits = transcriptHits.get(),
+        transcriptMisses = transcriptMisses.get(),
+        analysisHits = analysisHits.get(),
+        analysisMisses = analysisMisses.get()
+    )
+
+    suspend fun clear() = withContext(Dispatchers.IO) {
+        dao.deleteAll()
+    }
+
+    private suspend fun get(cacheKey: String, hits: AtomicLong, misses: AtomicLong): String? = withContext(Dispatchers.IO) {
+        val entry = try {
+            dao.get(cacheKey)
+        } catch (e: Exception) {
+            Log.e(TAG, "❌ 캐시 조회 실패", e)
+            null
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet()
+            Log.d(TAG, "📦 캐시 없음 (${cacheKey.substringBefore(':')}) - ${stats()}")
+            return@withContext null
+        }
+
+        hits.incrementAndGet()
+        Log.d(TAG, "📦 캐시 적중 (${entry.kind}) - ${stats()}")
+        try {
+            dao.touch(cacheKey, System.currentTimeMillis())
+        } catch (e: Exception) {
+            Log.w(TAG, "⚠️ 캐시 사용 시각 갱신 실패", e)
+        }
+        entry.value
+    }
+
+    private suspend fun put(cacheKey: String, kind: String, value: String) = withContext(Dispatchers.IO) {
+        try {
+            db.withTransaction {
+                dao.put(AnalysisCacheEntry(cacheKey, kind, value, value.toByteArray(Charsets.UTF_8).size))
+                evictIfNeeded()
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "❌ 캐시 저장 실패", e)
+        }
+    }
+
+    // 총 크기가 maxBytes 이하가 될 때까지 가장 오래 안 쓴 항목부터 삭제
+    private suspend fun evictIfNeeded() {
+        var total = dao.totalSize()
+        while (total > maxBytes) {
+            val victims = dao.getLeastRecentlyUsed(EVICTION_BATCH)
+            if (victims.isEmpty()) return
+
+            val keys = mutableListOf<String>()
+            for (victim in victims) {
+                if (total <= maxBytes) break
+                keys.add(victim.cacheKey)
+                total -= victim.sizeBytes
+            }
+            dao.delete(keys)
+            Log.d(TAG, "🗑️ 캐시 ${keys.size}건 삭제 (LRU), 남은 크기: $total bytes")
+        }
+    }
+
+    companion object {
+        private const val TAG = "AnalysisCache"
+
+        // 전사/분석 결과는 텍스트라 이 정도면 수천 건
+        private const val MAX_CACHE_BYTES = 8L * 1024 * 1024
+        private const val EVICTION_BATCH = 32
+
+        private const val KIND_TRANSCRIPT = "transcript"
+        private const val KIND_ANALYSIS = "analysis"
+
+        private fun transcriptKey(audioHash: String, modelId: String) = "$KIND_TRANSCRIPT:$audioHash:$modelId"
+
+        private fun analysisKey(transcript: String, promptTemplate: String) =
+            "$KIND_ANALYSIS:${hashText(promptTemplate, transcript)}"
+
+        /**
+         * 파일 내용의 SHA-256 (이름/경로와 무관)
+         */
+        fun hashFile(file: File): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            val buffer = ByteArray(64 * 1024)
+            file.inputStream().use { input ->
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                }
+            }
+            return digest.digest().toHex()
+        }
+
+        // 각 부분의 길이를 앞에 붙여 경계가 달라도 같은 해시가 나오지 않게 함
+        private fun hashText(vararg parts: String): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            for (part in parts) {
+                val bytes = part.toByteArray(Charsets.UTF_8)
+                digest.update("${bytes.size}:".toByteArray(Charsets.UTF_8))
+                digest.update(bytes)
+            }
+            return digest.digest().toHex()
+        }
+
+        private fun ByteArray.toHex(): String = joinToString("") { "%02x".format(it) }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.domentiacare.data.local.cache
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+
+@Dao
+interface AnalysisCacheDao {
+
+    @Query("SELECT * FROM analysis_cache WHERE cacheKey = :cacheKey")
+    suspend fun get(cacheKey: String): AnalysisCacheEntry?
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun put(entry: AnalysisCacheEntry)
+
+    @Query("UPDATE analysis_cache SET lastAccessedAt = :accessedAt WHERE cacheKey = :cacheKey")
+    suspend fun touch(cacheKey: String, accessedAt: Long)
+
+    @Query("SELECT COALESCE(SUM(sizeBytes), 0) FROM analysis_cache")
+    suspend fun totalSize(): Long
+
+    @Query("SELECT COUNT(*) FROM analysis_cache")
+    suspend fun count(): Int
+
+    // 가장 오래 안 쓴 항목부터
+    @Query("SELECT cacheKey, sizeBytes FROM analysis_cache ORDER BY lastAccessedAt ASC LIMIT :limit")
+    suspend fun getLeastRecentlyUsed(limit: Int): List<CacheKeySize>
+
+    @Query("DELETE FROM analysis_cache WHERE cacheKey IN (:cacheKeys)")
+    suspend fun delete(cacheKeys: List<String>)
+
+    @Query("DELETE FROM analysis_cache")
+    suspend fun deleteAll()
+}
+
+data class CacheKeySize(
+    val cacheKey: String,
+    val sizeBytes: Int
+)
@@ -0,0 +1,10 @@
+package com.example.domentiacare.data.local.cache
+
+import androidx.room.Database
+import androidx.room.RoomDatabase
+
+// 언제든 지워도 되는 캐시라 스키마 이력을 남기지 않음 (버전이 바뀌면 통째로 재생성)
+@Database(entities = [AnalysisCacheEntry::class], version = 1, exportSchema = false)
+abstract class AnalysisCacheDatabase : RoomDatabase() {
+    abstract fun analysisCacheDao(): AnalysisCacheDao
+}
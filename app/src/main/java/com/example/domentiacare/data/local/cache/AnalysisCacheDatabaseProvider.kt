@@ -0,0 +1,30 @@
+package com.example.domentiacare.data.local.cache
+
+import android.content.Context
+import androidx.room.Room
+
+object AnalysisCacheDatabaseProvider {
+    @Volatile
+    private var INSTANCE: AnalysisCacheDatabase? = null
+
+    @Volatile
+    private var CACHE: AnalysisCache? = null
+
+    fun getDatabase(context: Context): AnalysisCacheDatabase {
+        return INSTANCE ?: synchronized(this) {
+            // 캐시는 언제든 다시 만들 수 있으므로 스키마가 바뀌면 비우고 새로 시작
+            INSTANCE ?: Room.databaseBuilder(
+                context.applicationContext,
+                AnalysisCacheDatabase::class.java,
+                "analysis-cache-db"
+            ).fallbackToDestructiveMigration(dropAllTables = true).build().also { INSTANCE = it }
+        }
+    }
+
+    // 카운터를 프로세스 전체에서 공유하도록 하나만 생성
+    fun getCache(context: Context): AnalysisCache {
+        return CACHE ?: synchronized(this) {
+            CACHE ?: AnalysisCache(getDatabase(context)).also { CACHE = it }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.domentiacare.data.local.cache
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * 분석 결과 캐시 항목
+ * cacheKey는 입력 내용의 해시 + 모델/프롬프트 식별자 (AnalysisCache 참고)
+ */
+@Entity(
+    tableName = "analysis_cache",
+    indices = [Index("lastAccessedAt")]
+)
+data class AnalysisCacheEntry(
+    @PrimaryKey
+    val cacheKey: String,
+
+    val kind: String,        // "transcript" 또는 "analysis"
+    val value: String,
+    val sizeBytes: Int,      // LRU 용량 계산용 (value의 UTF-8 길이)
+
+    val createdAt: Long = System.currentTimeMillis(),
+    val lastAccessedAt: Long = System.currentTimeMillis()
+)
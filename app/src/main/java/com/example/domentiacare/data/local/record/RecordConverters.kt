@@ -0,0 +1,22 @@
+package com.example.domentiacare.data.local.record
+
+import androidx.room.TypeConverter
+import com.example.domentiacare.data.local.SimpleSchedule
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+
+// 추출된 일정 목록은 기존 SharedPreferences 저장 형식과 같은 JSON 문자열로 저장
+object RecordConverters {
+    private val gson = Gson()
+    private val scheduleListType = object : TypeToken<List<SimpleSchedule>>() {}.type
+
+    @TypeConverter
+    @JvmStatic
+    fun schedulesToJson(schedules: List<SimpleSchedule>?): String? =
+        schedules?.let { gson.toJson(it) }
+
+    @TypeConverter
+    @JvmStatic
+    fun jsonToSchedules(json: String?): List<SimpleSchedule>? =
+        json?.let { gson.fromJson(it, scheduleListType) }
+}
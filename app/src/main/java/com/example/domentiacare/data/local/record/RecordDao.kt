@@ -0,0 +1,74 @@
+package com.example.domentiacare.data.local.record
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import androidx.room.RawQuery
+import androidx.room.Upsert
+import androidx.sqlite.db.SupportSQLiteQuery
+import com.example.domentiacare.data.model.ProcessStatus
+import com.example.domentiacare.data.model.Record
+import kotlinx.coroutines.flow.Flow
+
+@Dao
+interface RecordDao {
+
+    // 있으면 UPDATE, 없으면 INSERT (REPLACE처럼 행을 지웠다 다시 넣지 않음)
+    @Upsert
+    suspend fun upsertRecord(record: Record)
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertRecords(records: List<Record>)
+
+    @Query("SELECT * FROM record ORDER BY createdAt")
+    suspend fun getAllRecords(): List<Record>
+
+    //db에서 바뀌면 자동으로 다시 가져오게함
+    @Query("SELECT * FROM record ORDER BY createdAt")
+    fun getAllRecordsFlow(): Flow<List<Record>>
+
+    @Query("SELECT * FROM record WHERE localId = :localId")
+    suspend fun getRecordById(localId: String): Record?
+
+    @Query("SELECT * FROM record WHERE localId = :localId")
+    fun getRecordByIdFlow(localId: String): Flow<Record?>
+
+    @Query("SELECT * FROM record WHERE userId = :userId ORDER BY createdAt")
+    suspend fun getRecordsByUser(userId: Long): List<Record>
+
+    @Query("SELECT EXISTS(SELECT 1 FROM record WHERE localId = :localId)")
+    suspend fun exists(localId: String): Boolean
+
+    // 상태 조건은 지정된 컬럼만 WHERE에 넣어야 인덱스를 탐 (RecordStorage에서 쿼리 생성)
+    @RawQuery(observedEntities = [Record::class])
+    suspend fun getRecordsByQuery(query: SupportSQLiteQuery): List<Record>
+
+    // 저널 커밋: null인 컬럼은 기존 값 유지 (행 전체를 다시 쓰지 않으므로 다른 컬럼 변경을 덮어쓰지 않음)
+    @Query(
+        """
+        UPDATE record SET
+            transcript = COALESCE(:transcript, transcript),
+            result = COALESCE(:result, result),
+            extractedSchedules = COALESCE(:schedulesJson, extractedSchedules),
+            transcriptStatus = COALESCE(:transcriptStatus, transcriptStatus),
+            analysisStatus = COALESCE(:analysisStatus, analysisStatus),
+            parseStatus = COALESCE(:parseStatus, parseStatus),
+            updatedAt = :updatedAt
+        WHERE localId = :localId
+        """
+    )
+    suspend fun updateRecord(
+        localId: String,
+        transcript: String?,
+        result: String?,
+        schedulesJson: String?,
+        transcriptStatus: ProcessStatus?,
+        analysisStatus: ProcessStatus?,
+        parseStatus: ProcessStatus?,
+        updatedAt: Long
+    ): Int
+
+    @Query("SELECT extractedSchedules FROM record WHERE extractedSchedules IS NOT NULL ORDER BY createdAt")
+    suspend fun getAllExtractedSchedulesJson(): List<String>
+}
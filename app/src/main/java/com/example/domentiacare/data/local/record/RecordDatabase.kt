@@ -0,0 +1,12 @@
+package com.example.domentiacare.data.local.record
+
+import androidx.room.Database
+import androidx.room.RoomDatabase
+import androidx.room.TypeConverters
+import com.example.domentiacare.data.model.Record
+
+@Database(entities = [Record::class], version = 1)
+@TypeConverters(RecordConverters::class)
+abstract class RecordDatabase : RoomDatabase() {
+    abstract fun recordDao(): RecordDao
+}
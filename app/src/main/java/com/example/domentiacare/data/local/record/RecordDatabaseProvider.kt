@@ -0,0 +1,29 @@
+package com.example.domentiacare.data.local.record
+
+import android.content.Context
+import androidx.room.Room
+
+object RecordDatabaseProvider {
+    @Volatile
+    private var INSTANCE: RecordDatabase? = null
+
+    @Volatile
+    private var JOURNAL: RecordJournal? = null
+
+    fun getDatabase(context: Context): RecordDatabase {
+        return INSTANCE ?: synchronized(this) {
+            INSTANCE ?: Room.databaseBuilder(
+                context.applicationContext,
+                RecordDatabase::class.java,
+                "record-db"
+            ).build().also { INSTANCE = it }
+        }
+    }
+
+    // record 테이블의 유일한 writer (프로세스당 하나)
+    fun getJournal(context: Context): RecordJournal {
+        return JOURNAL ?: synchronized(this) {
+            JOURNAL ?: RecordJournal(getDatabase(context)).also { JOURNAL = it }
+        }
+    }
+}
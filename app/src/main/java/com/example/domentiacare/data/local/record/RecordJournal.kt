@@ -0,0 +1,237 @@
+package com.example.domentiacare.data.local.record
+
+import android.util.Log
+import androidx.room.withTransaction
+import com.example.domentiacare.data.local.SimpleSchedule
+import com.example.domentiacare.data.model.ProcessStatus
+import com.example.domentiacare.data.model.Record
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.selects.onTimeout
+import kotlinx.coroutines.selects.select
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Record 한 건에 대한 부분 변경 (null인 필드는 그대로 둠)
+ * 같은 Record에 대한 변경은 merge()로 하나로 합쳐짐
+ */
+data class RecordPatch(
+    val transcript: String? = null,
+    val result: String? = null,
+    val extractedSchedules: List<SimpleSchedule>? = null,
+    val transcriptStatus: ProcessStatus? = null,
+    val analysisStatus: ProcessStatus? = null,
+    val parseStatus: ProcessStatus? = null,
+    val updatedAt: Long = System.currentTimeMillis()
+) {
+    // 나중 변경(newer)이 우선
+    fun merge(newer: RecordPatch) = RecordPatch(
+        transcript = newer.transcript ?: transcript,
+        result = newer.result ?: result,
+        extractedSchedules = newer.extractedSchedules ?: extractedSchedules,
+        transcriptStatus = newer.transcriptStatus ?: transcriptStatus,
+        analysisStatus = newer.analysisStatus ?: analysisStatus,
+        parseStatus = newer.parseStatus ?: parseStatus,
+        updatedAt = maxOf(updatedAt, newer.updatedAt)
+    )
+
+    fun applyTo(record: Record) = record.copy(
+        transcript = transcript ?: record.transcript,
+        result = result ?: record.result,
+        extractedSchedules = extractedSchedules ?: record.extractedSchedules,
+        transcriptStatus = transcriptStatus ?: record.transcriptStatus,
+        analysisStatus = analysisStatus ?: record.analysisStatus,
+        parseStatus = parseStatus ?: record.parseStatus,
+        updatedAt = updatedAt
+    )
+
+    // 완료/실패 상태나 결과 텍스트처럼 잃으면 다시 처리해야 하는 변경
+    val isTerminal: Boolean
+        get() = transcript != null || result != null || extractedSchedules != null ||
+            listOf(transcriptStatus, analysisStatus, parseStatus).any {
+                it == ProcessStatus.COMPLETED || it == ProcessStatus.FAILED
+            }
+}
+
+/**
+ * record 테이블의 단일 writer + write-behind 저널
+ * - 모든 쓰기는 writer 코루틴 하나에서 순서대로 실행되므로 동시 파이프라인끼리 변경을 잃지 않음
+ * - 중간 상태(PROCESSING 등) 변경은 Record별로 합쳐 두었다가 flush() 또는 FLUSH_DELAY_MS 후 한 트랜잭션으로 커밋
+ * - 완료/실패 상태와 결과 텍스트는 프로세스가 죽어도 남도록 stage 즉시 커밋
+ * - 커밋 전 변경은 overlay()로 읽기 결과에 반영되므로 호출자는 항상 자기 쓰기를 볼 수 있음
+ */
+class RecordJournal(private val db: RecordDatabase) {
+    private val dao = db.recordDao()
+
+    // 커밋 대기 중인 변경 (stage는 호출 스레드에서, 제거는 커밋 후 writer에서)
+    private val pending = ConcurrentHashMap<String, RecordPatch>()
+
+    // pending이 바뀔 때마다 증가 (Flow 관찰자가 overlay를 다시 적용하도록)
+    private val _version = MutableStateFlow(0L)
+    val version: StateFlow<Long> = _version
+
+    private sealed class Command {
+        object Staged : Command()
+        class Commit(val localId: String) : Command()
+        class Flush(val localId: String?, val done: CompletableDeferred<Unit>) : Command()
+        class Save(val record: Record, val done: CompletableDeferred<Unit>) : Command()
+    }
+
+    private val commands = Channel<Command>(Channel.UNLIMITED)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    init {
+        scope.launch { writerLoop() }
+    }
+
+    /**
+     * 변경을 저널에 기록 (중간 상태는 나중에 합쳐서, 최종 상태는 바로 커밋)
+     */
+    fun stage(localId: String, patch: RecordPatch) {
+        pending.merge(localId, patch) { old, new -> old.merge(new) }
+        _version.update { it + 1 }
+        commands.trySend(if (patch.isTerminal) Command.Commit(localId) else Command.Staged)
+    }
+
+    /**
+     * Record 전체 저장 (즉시 커밋). 같은 Record의 대기 중 변경보다 우선
+     */
+    suspend fun save(record: Record) {
+        val done = CompletableDeferred<Unit>()
+        commands.send(Command.Save(record, done))
+        done.await()
+    }
+
+    /**
+     * 대기 중인 변경을 커밋 (localId가 null이면 전체)
+     */
+    suspend fun flush(localId: String? = null) {
+        val done = CompletableDeferred<Unit>()
+        commands.send(Command.Flush(localId, done))
+        done.await()
+    }
+
+    fun pendingPatch(localId: String): RecordPatch? = pending[localId]
+
+    fun pendingSnapshot(): Map<String, RecordPatch> = HashMap(pending)
+
+    /**
+     * 커밋 전 변경을 반영한 Record
+     * patches는 DB 조회 전에 잡아둔 스냅샷이어도 됨: 그 사이 더 새 값이 커밋됐으면 updatedAt으로 걸러짐
+     */
+    fun overlay(record: Record, patches: Map<String, RecordPatch>): Record {
+        val patch = patches[record.localId] ?: return record
+        return if (patch.updatedAt >= record.updatedAt) patch.applyTo(record) else record
+    }
+
+    @OptIn(ExperimentalCoroutinesApi::class) // select의 onTimeout
+    private suspend fun writerLoop() {
+        var deadline = NO_DEADLINE
+        while (true) {
+            val command = if (deadline == NO_DEADLINE) {
+                commands.receive()
+            } else {
+                val wait = deadline - System.currentTimeMillis()
+                // withTimeoutOrNull은 받은 직후 타임아웃이 나면 명령을 버릴 수 있어 select로 받음
+                if (wait > 0) {
+                    select<Command?> {
+                        commands.onReceive { it }
+                        onTimeout(wait) { null }
+                    }
+                } else {
+                    null
+                }
+            }
+
+            try {
+                when (command) {
+                    null -> commit(null)
+                    is Command.Staged -> {}
+                    is Command.Commit -> commit(command.localId)
+                    is Command.Flush -> {
+                        commit(command.localId)
+                        command.done.complete(Unit)
+                    }
+                    is Command.Save -> {
+                        saveNow(command.record)
+                        command.done.complete(Unit)
+                    }
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "❌ Record 저널 커밋 실패", e)
+                when (command) {
+                    is Command.Flush -> command.done.completeExceptionally(e)
+                    is Command.Save -> command.done.completeExceptionally(e)
+                    else -> {}
+                }
+            }
+
+            // 처음 stage된 시점부터 FLUSH_DELAY_MS 안에 커밋 (실패하면 다시 기다렸다 재시도)
+            deadline = when {
+                pending.isEmpty() -> NO_DEADLINE
+                command == null || deadline == NO_DEADLINE -> System.currentTimeMillis() + FLUSH_DELAY_MS
+                else -> deadline
+            }
+        }
+    }
+
+    private suspend fun saveNow(record: Record) {
+        pending.remove(record.localId)
+        if (dao.exists(record.localId)) {
+            // 기존 레코드 업데이트
+            dao.upsertRecord(record.copy(updatedAt = System.currentTimeMillis()))
+        } else {
+            dao.upsertRecord(record)
+        }
+        _version.update { it + 1 }
+    }
+
+    private suspend fun commit(localId: String?) {
+        val snapshot: Map<String, RecordPatch> = if (localId == null) {
+            HashMap(pending)
+        } else {
+            pending[localId]?.let { mapOf(localId to it) } ?: emptyMap()
+        }
+        if (snapshot.isEmpty()) return
+
+        // 합쳐진 변경의 컬럼만 UPDATE (읽고 다시 쓰지 않으므로 그 사이 다른 쓰기를 덮지 않음)
+        db.withTransaction {
+            for ((id, patch) in snapshot) {
+                val updated = dao.updateRecord(
+                    localId = id,
+                    transcript = patch.transcript,
+                    result = patch.result,
+                    schedulesJson = RecordConverters.schedulesToJson(patch.extractedSchedules),
+                    transcriptStatus = patch.transcriptStatus,
+                    analysisStatus = patch.analysisStatus,
+                    parseStatus = patch.parseStatus,
+                    updatedAt = patch.updatedAt
+                )
+                if (updated == 0) {
+                    Log.w(TAG, "⚠️ 업데이트할 Record 없음: $id")
+                }
+            }
+        }
+
+        // 커밋 중에 새로 합쳐진 변경은 다음 커밋까지 남겨둠
+        snapshot.forEach { (id, patch) -> pending.remove(id, patch) }
+        _version.update { it + 1 }
+        Log.d(TAG, "💾 Record 변경 ${snapshot.size}건 커밋")
+    }
+
+    companion object {
+        private const val TAG = "RecordJournal"
+
+        // 마지막 flush 이후 변경을 최대 이만큼 모아서 커밋
+        private const val FLUSH_DELAY_MS = 10_000L
+        private const val NO_DEADLINE = Long.MAX_VALUE
+    }
+}
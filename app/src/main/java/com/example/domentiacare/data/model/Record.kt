@@ -1,12 +1,25 @@
 // data/model/Record.kt
 package com.example.domentiacare.data.model
 
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
 import com.example.domentiacare.data.local.SimpleSchedule
 import com.google.gson.Gson
 import com.google.gson.reflect.TypeToken
 
-// 통화 녹음 + AI 처리 결과를 통합한 레코드
+// 통화 녹음 + AI 처리 결과를 통합한 레코드 (RecordDatabase의 record 테이블)
+@Entity(
+    tableName = "record",
+    indices = [
+        Index("userId"),
+        Index("transcriptStatus"),
+        Index("analysisStatus"),
+        Index("parseStatus")
+    ]
+)
 data class Record(
+    @PrimaryKey
     val localId: String,
     val userId: Long,
 
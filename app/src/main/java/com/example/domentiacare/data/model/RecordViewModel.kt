@@ -2,12 +2,15 @@
 package com.example.domentiacare.data.model
 
 import android.app.Application
+import android.content.Intent
 import android.util.Log
+import androidx.core.content.ContextCompat
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.viewModelScope
 import com.example.domentiacare.data.local.RecordStorage
 import com.example.domentiacare.data.local.SimpleLocalStorage
 import com.example.domentiacare.data.local.SimpleSchedule
+import com.example.domentiacare.service.CallRecordAnalyzeService
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.launch
@@ -26,6 +29,11 @@ class RecordViewModel(application: Application) : AndroidViewModel(application)
 
     init {
         loadAllData()
+
+        // 저장소가 바뀌면 목록 자동 갱신
+        viewModelScope.launch {
+            recordStorage.observeAllRecords().collect { _records.value = it }
+        }
     }
 
     // 모든 데이터 로드
@@ -103,6 +111,13 @@ class RecordViewModel(application: Application) : AndroidViewModel(application)
                     }
                 }
 
+                // 가져온 녹음은 서비스가 한 번의 배치로 전사/분석
+                if (newRecordings.isNotEmpty()) {
+                    val intent = Intent(getApplication(), CallRecordAnalyzeService::class.java)
+                        .setAction(CallRecordAnalyzeService.ACTION_ANALYZE_BACKLOG)
+                    ContextCompat.startForegroundService(getApplication(), intent)
+                }
+
                 loadAllData()
             } else {
                 Log.w("RecordViewModel", "⚠️ 디렉토리가 존재하지 않음: ${dir.absolutePath}")
@@ -190,6 +205,7 @@ class RecordViewModel(application: Application) : AndroidViewModel(application)
                     parseStatus = ProcessStatus.FAILED
                 )
             } finally {
+                recordStorage.flush(recordId)
                 _isProcessing.value = false
                 loadAllData()
                 Log.d("RecordViewModel", "=== 전체 파이프라인 종료 ===")
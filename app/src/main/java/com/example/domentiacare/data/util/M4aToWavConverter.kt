@@ -3,192 +3,197 @@ package com.example.domentiacare.data.util
 import android.media.MediaCodec
 import android.media.MediaExtractor
 import android.media.MediaFormat
+import java.io.Closeable
 import java.io.File
 import kotlin.math.roundToInt
 
 fun convertM4aToWavForWhisper(inputFile: File, outputFile: File) {
-    val extractor = MediaExtractor()
-    extractor.setDataSource(inputFile.absolutePath)
-
-    var format: MediaFormat? = null
-    var trackIndex = -1
-
-    for (i in 0 until extractor.trackCount) {
-        val trackFormat = extractor.getTrackFormat(i)
-        val mime = trackFormat.getString(MediaFormat.KEY_MIME)
-        if (mime?.startsWith("audio/") == true) {
-            format = trackFormat
-            trackIndex = i
-            break
+    M4aPcmSource(inputFile, outputFile).use { source ->
+        val buffer = FloatArray(4096)
+        while (source.read(buffer, 0, buffer.size) >= 0) {
+            // WAV는 source가 디코딩하면서 기록
         }
     }
+}
 
-    if (format == null || trackIndex == -1) throw RuntimeException("No audio track found")
-
-    extractor.selectTrack(trackIndex)
-
-    val codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME)!!)
-    codec.configure(format, null, null, 0)
-    codec.start()
-
-    val bufferInfo = MediaCodec.BufferInfo()
-
-    // 원본 오디오 정보
-    val originalSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE)
-    val originalChannelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+/**
+ * M4A(AAC) → Whisper용 PCM (16kHz, 모노, float) 스트리밍 디코더
+ * read()가 요청한 만큼만 MediaCodec에서 디코딩하므로 파일 전체를 메모리/디스크에 올리지 않음
+ * wavOutput을 주면 같은 디코딩 결과를 16비트 WAV로도 기록 (업로드가 필요할 때만)
+ */
+class M4aPcmSource(inputFile: File, wavOutput: File? = null) : Closeable {
 
     // Whisper 요구사항: 16kHz, 모노채널, 16비트 PCM
-    val targetSampleRate = 16000
-    val targetChannelCount = 1
-    val targetBitDepth = 16
-
-    val wavWriter = WhisperWavWriter(
-        outputFile,
-        targetSampleRate,
-        targetChannelCount,
-        targetBitDepth
-    )
-    wavWriter.writeHeader()
-
-    var sawInputEOS = false
-    var sawOutputEOS = false
-
-    // 리샘플링을 위한 변수들
-    val resampleRatio = originalSampleRate.toDouble() / targetSampleRate.toDouble()
-    var inputSampleIndex = 0.0
-
-    while (!sawOutputEOS) {
-        if (!sawInputEOS) {
-            val inputBufferIndex = codec.dequeueInputBuffer(10000)
-            if (inputBufferIndex >= 0) {
-                val inputBuffer = codec.getInputBuffer(inputBufferIndex)!!
-                val sampleSize = extractor.readSampleData(inputBuffer, 0)
-
-                if (sampleSize < 0) {
-                    codec.queueInputBuffer(inputBufferIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM)
-                    sawInputEOS = true
-                } else {
-                    val presentationTimeUs = extractor.sampleTime
-                    codec.queueInputBuffer(inputBufferIndex, 0, sampleSize, presentationTimeUs, 0)
-                    extractor.advance()
+    private val targetSampleRate = 16000
+    private val targetChannelCount = 1
+
+    private val extractor = MediaExtractor()
+    private val codec: MediaCodec
+    private val bufferInfo = MediaCodec.BufferInfo()
+
+    // 원본 오디오 정보 (디코더 출력 형식이 바뀌면 갱신)
+    private var sourceSampleRate: Int
+    private var sourceChannelCount: Int
+
+    private val wavWriter: WhisperWavWriter?
+
+    private var sawInputEOS = false
+    private var sawOutputEOS = false
+
+    // 디코더 출력 → 모노 → 16kHz (버퍼 경계를 넘어 상태 유지, 출력 버퍼 재사용)
+    private var downmixer: PcmDownmixer
+    private var resampler: PcmResampler?
+
+    // 변환됐지만 아직 read()로 넘기지 않은 샘플 (downmixer/resampler의 출력 버퍼)
+    private var pending = FloatArray(0)
+    private var pendingLen = 0
+    private var pendingPos = 0
+
+    init {
+        // 생성 도중 실패하면 이미 만든 extractor/codec/WAV 파일을 정리하고 다시 던짐 (close()가 불리지 않으므로)
+        var decoder: MediaCodec? = null
+        var writer: WhisperWavWriter? = null
+        try {
+            extractor.setDataSource(inputFile.absolutePath)
+
+            var format: MediaFormat? = null
+            for (i in 0 until extractor.trackCount) {
+                val trackFormat = extractor.getTrackFormat(i)
+                val mime = trackFormat.getString(MediaFormat.KEY_MIME)
+                if (mime?.startsWith("audio/") == true) {
+                    format = trackFormat
+                    extractor.selectTrack(i)
+                    break
                 }
             }
-        }
 
-        val outputBufferIndex = codec.dequeueOutputBuffer(bufferInfo, 10000)
-        if (outputBufferIndex >= 0) {
-            val outputBuffer = codec.getOutputBuffer(outputBufferIndex)!!
-            val chunk = ByteArray(bufferInfo.size)
-            outputBuffer.get(chunk)
-            outputBuffer.clear()
-
-            // PCM 데이터를 Whisper 형식으로 변환
-            val convertedData = convertAudioForWhisper(
-                chunk,
-                originalSampleRate,
-                originalChannelCount,
-                targetSampleRate,
-                targetChannelCount
-            )
-
-            wavWriter.writeData(convertedData)
-            codec.releaseOutputBuffer(outputBufferIndex, false)
-
-            if (bufferInfo.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0) {
-                sawOutputEOS = true
+            if (format == null) {
+                throw RuntimeException("No audio track found")
             }
-        }
-    }
 
-    codec.stop()
-    codec.release()
-    extractor.release()
+            sourceSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+            sourceChannelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
 
-    wavWriter.finish()
-}
+            downmixer = PcmDownmixer(sourceChannelCount)
+            resampler = createResampler(sourceSampleRate)
 
-/**
- * PCM 오디오 데이터를 Whisper 요구사항에 맞게 변환
- * 16kHz, 모노채널, 16비트로 변환
- */
-private fun convertAudioForWhisper(
-    inputData: ByteArray,
-    originalSampleRate: Int,
-    originalChannelCount: Int,
-    targetSampleRate: Int,
-    targetChannelCount: Int
-): ByteArray {
-    // 16비트 PCM 데이터로 변환 (Little Endian)
-    val samples = ShortArray(inputData.size / 2)
-    for (i in samples.indices) {
-        samples[i] = ((inputData[i * 2].toInt() and 0xFF) or
-                (inputData[i * 2 + 1].toInt() shl 8)).toShort()
-    }
-
-    // 스테레오에서 모노로 변환 (필요한 경우)
-    val monoSamples = if (originalChannelCount > 1) {
-        convertToMono(samples, originalChannelCount)
-    } else {
-        samples
-    }
-
-    // 샘플링 레이트 변환 (필요한 경우)
-    val resampledSamples = if (originalSampleRate != targetSampleRate) {
-        resample(monoSamples, originalSampleRate, targetSampleRate)
-    } else {
-        monoSamples
-    }
+            decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME)!!)
+            decoder.configure(format, null, null, 0)
+            decoder.start()
+            codec = decoder
 
-    // 다시 바이트 배열로 변환
-    val outputData = ByteArray(resampledSamples.size * 2)
-    for (i in resampledSamples.indices) {
-        val sample = resampledSamples[i].toInt()
-        outputData[i * 2] = (sample and 0xFF).toByte()
-        outputData[i * 2 + 1] = (sample shr 8 and 0xFF).toByte()
+            wavWriter = wavOutput?.let {
+                WhisperWavWriter(it, targetSampleRate, targetChannelCount, 16).also { created ->
+                    writer = created
+                    created.writeHeader()
+                }
+            }
+        } catch (e: Exception) {
+            writer?.discard()
+            decoder?.release()
+            extractor.release()
+            throw e
+        }
     }
 
-    return outputData
-}
-
-/**
- * 멀티채널 오디오를 모노채널로 변환
- */
-private fun convertToMono(samples: ShortArray, channelCount: Int): ShortArray {
-    val monoSamples = ShortArray(samples.size / channelCount)
+    /**
+     * 최대 length개의 샘플을 dst에 채움
+     * @return 읽은 샘플 수, 스트림 끝이면 -1
+     */
+    fun read(dst: FloatArray, offset: Int, length: Int): Int {
+        var written = 0
+        while (written < length) {
+            if (pendingPos >= pendingLen) {
+                if (!decodeNextBuffer()) break
+                continue
+            }
 
-    for (i in monoSamples.indices) {
-        var sum = 0L
-        for (ch in 0 until channelCount) {
-            sum += samples[i * channelCount + ch]
+            val count = minOf(length - written, pendingLen - pendingPos)
+            System.arraycopy(pending, pendingPos, dst, offset + written, count)
+            pendingPos += count
+            written += count
         }
-        monoSamples[i] = (sum / channelCount).toShort()
+        return if (written == 0 && length > 0) -1 else written
     }
 
-    return monoSamples
-}
+    /**
+     * 출력 버퍼 하나가 나올 때까지 디코딩
+     * @return 스트림이 끝났으면 false
+     */
+    private fun decodeNextBuffer(): Boolean {
+        while (!sawOutputEOS) {
+            if (!sawInputEOS) {
+                val inputBufferIndex = codec.dequeueInputBuffer(10000)
+                if (inputBufferIndex >= 0) {
+                    val inputBuffer = codec.getInputBuffer(inputBufferIndex)!!
+                    val sampleSize = extractor.readSampleData(inputBuffer, 0)
+
+                    if (sampleSize < 0) {
+                        codec.queueInputBuffer(inputBufferIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM)
+                        sawInputEOS = true
+                    } else {
+                        val presentationTimeUs = extractor.sampleTime
+                        codec.queueInputBuffer(inputBufferIndex, 0, sampleSize, presentationTimeUs, 0)
+                        extractor.advance()
+                    }
+                }
+            }
 
-/**
- * 단순 리샘플링 (Linear Interpolation)
- */
-private fun resample(samples: ShortArray, originalRate: Int, targetRate: Int): ShortArray {
-    if (originalRate == targetRate) return samples
+            val outputBufferIndex = codec.dequeueOutputBuffer(bufferInfo, 10000)
+            if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                val outputFormat = codec.outputFormat
+                val sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+                val channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+                if (sampleRate != sourceSampleRate || channelCount != sourceChannelCount) {
+                    sourceSampleRate = sampleRate
+                    sourceChannelCount = channelCount
+                    downmixer = PcmDownmixer(channelCount)
+                    resampler = createResampler(sampleRate)
+                }
+            } else if (outputBufferIndex >= 0) {
+                val outputBuffer = codec.getOutputBuffer(outputBufferIndex)!!
+                outputBuffer.position(bufferInfo.offset)
+                outputBuffer.limit(bufferInfo.offset + bufferInfo.size)
 
-    val ratio = originalRate.toDouble() / targetRate.toDouble()
-    val outputLength = (samples.size / ratio).roundToInt()
-    val resampled = ShortArray(outputLength)
+                // PCM 데이터를 Whisper 형식으로 변환 (코덱 버퍼에서 바로 읽음)
+                val frames = downmixer.process(outputBuffer)
+                codec.releaseOutputBuffer(outputBufferIndex, false)
 
-    for (i in resampled.indices) {
-        val srcIndex = i * ratio
-        val srcIndexInt = srcIndex.toInt()
-        val fraction = srcIndex - srcIndexInt
+                if (bufferInfo.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0) {
+                    sawOutputEOS = true
+                }
 
-        val sample1 = if (srcIndexInt < samples.size) samples[srcIndexInt] else 0
-        val sample2 = if (srcIndexInt + 1 < samples.size) samples[srcIndexInt + 1] else sample1
+                val currentResampler = resampler
+                if (currentResampler != null) {
+                    pendingLen = currentResampler.process(downmixer.output, 0, frames, sawOutputEOS)
+                    pending = currentResampler.output
+                } else {
+                    pendingLen = frames
+                    pending = downmixer.output
+                }
+                pendingPos = 0
+                wavWriter?.writeSamples(pending, pendingLen)
 
-        resampled[i] = (sample1 + fraction * (sample2 - sample1)).roundToInt().toShort()
+                if (pendingLen > 0) {
+                    return true
+                }
+            }
+        }
+        return false
     }
 
-    return resampled
+    private fun createResampler(sampleRate: Int): PcmResampler? =
+        if (sampleRate == targetSampleRate) null else PcmResampler(sampleRate, targetSampleRate)
+
+    override fun close() {
+        try {
+            codec.stop()
+        } finally {
+            codec.release()
+            extractor.release()
+            wavWriter?.finish()
+        }
+    }
 }
 
 /**
@@ -201,8 +206,9 @@ class WhisperWavWriter(
     private val channels: Int = 1,
     private val bitsPerSample: Int = 16
 ) {
-    private val outputStream = file.outputStream()
+    private val outputStream = file.outputStream().buffered()
     private var dataSize = 0
+    private var sampleBytes = ByteArray(0)
 
     fun writeHeader() {
         // WAV 헤더 작성 (44바이트)
@@ -236,6 +242,29 @@ class WhisperWavWriter(
         dataSize += data.size
     }
 
+    // float 샘플(-1..1)을 16비트로 변환해 기록 (변환 버퍼 재사용)
+    fun writeSamples(samples: FloatArray, count: Int) {
+        if (sampleBytes.size < count * 2) {
+            sampleBytes = ByteArray(count * 2)
+        }
+        for (i in 0 until count) {
+            val sample = (samples[i] * 32768.0f).roundToInt().coerceIn(-32768, 32767)
+            sampleBytes[i * 2] = (sample and 0xFF).toByte()
+            sampleBytes[i * 2 + 1] = (sample shr 8 and 0xFF).toByte()
+        }
+        outputStream.write(sampleBytes, 0, count * 2)
+        dataSize += count * 2
+    }
+
+    // 기록을 중단하고 만들던 파일 삭제
+    fun discard() {
+        try {
+            outputStream.close()
+        } finally {
+            file.delete()
+        }
+    }
+
     fun finish() {
         // 파일 크기 정보 업데이트
         outputStream.close()
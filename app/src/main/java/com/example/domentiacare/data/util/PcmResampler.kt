@@ -0,0 +1,221 @@
+package com.example.domentiacare.data.util
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.sin
+
+/**
+ * 16비트 인터리브 PCM → 모노 float 변환기
+ * 디코더 출력 버퍼가 프레임 중간에서 끊겨도 남은 바이트를 다음 버퍼로 이어서 처리
+ * 결과는 재사용 버퍼(output)에 기록
+ */
+class PcmDownmixer(private val channelCount: Int) {
+    private val frameBytes = channelCount * 2
+    private val carry = ByteArray(frameBytes)
+    private var carryLen = 0
+
+    var output = FloatArray(4096)
+        private set
+
+    /**
+     * buffer의 position..limit 구간을 모두 소비
+     * @return output에 기록된 모노 샘플 수
+     */
+    fun process(buffer: ByteBuffer): Int {
+        buffer.order(ByteOrder.nativeOrder())
+        val maxFrames = (carryLen + buffer.remaining()) / frameBytes
+        if (output.size < maxFrames) {
+            output = FloatArray(maxFrames)
+        }
+
+        var frames = 0
+
+        // 이전 버퍼에서 넘어온 불완전 프레임 완성
+        if (carryLen > 0) {
+            while (carryLen < frameBytes && buffer.hasRemaining()) {
+                carry[carryLen++] = buffer.get()
+            }
+            if (carryLen < frameBytes) return 0
+            var sum = 0
+            for (ch in 0 until channelCount) {
+                sum += ((carry[ch * 2].toInt() and 0xFF) or (carry[ch * 2 + 1].toInt() shl 8)).toShort().toInt()
+            }
+            output[frames++] = sum / (32768.0f * channelCount)
+            carryLen = 0
+        }
+
+        val shorts = buffer.asShortBuffer()
+        val whole = shorts.remaining() / channelCount
+        if (channelCount == 1) {
+            for (i in 0 until whole) {
+                output[frames++] = shorts.get(i) / 32768.0f
+            }
+        } else {
+            val scale = 1.0f / (32768.0f * channelCount)
+            var s = 0
+            for (i in 0 until whole) {
+                var sum = 0
+                for (ch in 0 until channelCount) {
+                    sum += shorts.get(s++)
+                }
+                output[frames++] = sum * scale
+            }
+        }
+        buffer.position(buffer.position() + whole * frameBytes)
+
+        // 남은 바이트는 다음 버퍼에서 이어서 처리
+        while (buffer.hasRemaining()) {
+            carry[carryLen++] = buffer.get()
+        }
+        return frames
+    }
+}
+
+/**
+ * 상태를 유지하는 polyphase windowed-sinc 리샘플러
+ * - 48kHz/32kHz → 16kHz: 정수 비율 decimation 전용 루프
+ * - 44.1kHz → 16kHz (160/441) 등 유리수 비율: 위상별 계수 테이블 + 위상/입력 이동 테이블
+ * 위상과 필터 히스토리를 버퍼 사이에 이어가므로 경계에서 클릭이나 길이 오차가 생기지 않음
+ * 결과는 재사용 버퍼(output)에 기록
+ */
+class PcmResampler(inputRate: Int, outputRate: Int) {
+    private val up: Int
+    private val down: Int
+    private val taps: Int
+
+    // 위상 p의 계수는 coefs[p * taps until (p + 1) * taps], 입력 순서대로(시간 역순) 저장
+    private val coefs: FloatArray
+
+    // 현재 위상에서 다음 출력으로 갈 때의 입력 이동량과 다음 위상
+    private val advance: IntArray
+    private val nextPhase: IntArray
+
+    // 아직 필요한 입력 (앞쪽 taps - 1개는 히스토리)
+    private var input: FloatArray
+    private var inputLen: Int
+    private var base = 0
+    private var phase = 0
+
+    var output = FloatArray(4096)
+        private set
+
+    init {
+        val g = gcd(inputRate, outputRate)
+        up = outputRate / g
+        down = inputRate / g
+
+        // 필터 길이는 대역폭이 좁아지는 비율에 비례 (홀수 탭이라 지연이 정수 샘플)
+        val factor = maxOf(up, down)
+        taps = TAPS_PER_RATIO * ((down + up - 1) / up).coerceAtLeast(1) + 1
+        val length = up * taps
+        val cutoff = CUTOFF_RATIO * 0.5 / factor
+        val center = (length - up) / 2.0
+        val windowWidth = (length + up).toDouble()
+
+        coefs = FloatArray(length)
+        for (p in 0 until up) {
+            for (k in 0 until taps) {
+                val j = p + k * up
+                val t = j - center
+                val sinc = if (t == 0.0) 2 * cutoff else sin(2 * PI * cutoff * t) / (PI * t)
+                val window = 0.42 + 0.5 * cos(2 * PI * t / windowWidth) + 0.08 * cos(4 * PI * t / windowWidth)
+                // 업샘플링으로 줄어든 이득(1/up) 보정
+                coefs[p * taps + (taps - 1 - k)] = (up * sinc * window).toFloat()
+            }
+        }
+
+        advance = IntArray(up) { p -> (p + down) / up }
+        nextPhase = IntArray(up) { p -> (p + down) % up }
+
+        // 필터 중심이 첫 샘플에 오도록 (taps - 1) / 2개의 0으로 채워 시작
+        input = FloatArray(maxOf(4096, taps * 2))
+        inputLen = taps / 2
+    }
+
+    /**
+     * 모노 샘플을 추가하고 만들 수 있는 출력을 모두 계산
+     * endOfStream이면 필터에 남은 꼬리까지 내보냄
+     * @return output에 기록된 샘플 수
+     */
+    fun process(src: FloatArray, offset: Int, count: Int, endOfStream: Boolean = false): Int {
+        val tail = if (endOfStream) taps / 2 else 0
+        ensureInput(inputLen + count + tail)
+        System.arraycopy(src, offset, input, inputLen, count)
+        inputLen += count
+        if (tail > 0) {
+            input.fill(0.0f, inputLen, inputLen + tail)
+            inputLen += tail
+        }
+
+        val maxOut = ((inputLen - base).toLong() * up / down + 1).toInt()
+        if (output.size < maxOut) {
+            output = FloatArray(maxOut)
+        }
+
+        val produced = if (up == 1) decimate() else polyphase()
+
+        // 소비한 입력 버림 (히스토리는 유지)
+        val remain = inputLen - base
+        System.arraycopy(input, base, input, 0, remain)
+        inputLen = remain
+        base = 0
+        return produced
+    }
+
+    // up == 1: 위상이 하나뿐인 정수 비율 decimation
+    private fun decimate(): Int {
+        val x = input
+        val h = coefs
+        var n = 0
+        var b = base
+        while (b + taps <= inputLen) {
+            var acc = 0.0f
+            for (k in 0 until taps) {
+                acc += h[k] * x[b + k]
+            }
+            output[n++] = acc
+            b += down
+        }
+        base = b
+        return n
+    }
+
+    private fun polyphase(): Int {
+        val x = input
+        val h = coefs
+        var n = 0
+        var b = base
+        var p = phase
+        while (b + taps <= inputLen) {
+            val c = p * taps
+            var acc = 0.0f
+            for (k in 0 until taps) {
+                acc += h[c + k] * x[b + k]
+            }
+            output[n++] = acc
+            b += advance[p]
+            p = nextPhase[p]
+        }
+        base = b
+        phase = p
+        return n
+    }
+
+    private fun ensureInput(size: Int) {
+        if (input.size < size) {
+            input = input.copyOf(maxOf(size, input.size * 2))
+        }
+    }
+
+    private fun gcd(a: Int, b: Int): Int = if (b == 0) a else gcd(b, a % b)
+
+    companion object {
+        // 위상당 탭 수 (decimation 비율 1배 기준)
+        private const val TAPS_PER_RATIO = 16
+
+        // 출력 나이퀴스트 대비 차단 주파수
+        private const val CUTOFF_RATIO = 0.92
+    }
+}
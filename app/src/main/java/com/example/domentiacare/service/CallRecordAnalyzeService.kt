@@ -18,6 +18,8 @@ import com.example.domentiacare.MyApplication
 import com.example.domentiacare.R
 import com.example.domentiacare.data.local.RecordStorage
 import com.example.domentiacare.data.local.SimpleLocalStorage
+import com.example.domentiacare.data.local.cache.AnalysisCache
+import com.example.domentiacare.data.local.cache.AnalysisCacheDatabaseProvider
 import com.example.domentiacare.data.model.ProcessStatus
 import com.example.domentiacare.data.model.Record
 import com.example.domentiacare.data.model.RecordingFile
@@ -26,16 +28,26 @@ import com.example.domentiacare.data.model.toRecord
 import com.example.domentiacare.data.util.UserPreferences
 import com.example.domentiacare.data.util.convertM4aToWavForWhisper
 import com.example.domentiacare.network.RecordApiService
+import com.example.domentiacare.service.llama.BatchItemResult
+import com.example.domentiacare.service.llama.LlamaResponse
+import com.example.domentiacare.service.llama.LlamaServiceManager
 import com.example.domentiacare.service.watch.WatchMessageHelper
-import com.example.domentiacare.service.whisper.WhisperWrapper
+import com.example.domentiacare.service.whisper.WhisperEngineRegistry
+import com.quicinc.chatapp.AnalysisRequest
+import com.quicinc.chatapp.ILlamaAnalysisService
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.random.Random
 import com.example.domentiacare.ui.screen.call.utils.parseLlamaScheduleResponseFull as parseForNotification
 //import com.example.domentiacare.data.model.parseLlamaScheduleResponseFull as parseForNotification
@@ -46,10 +58,44 @@ class CallRecordAnalyzeService : Service() {
     private var fileObserver: FileObserver? = null
     private val recordDir = "/sdcard/Recordings/Call/"
     private lateinit var recordStorage: RecordStorage
+    private lateinit var analysisCache: AnalysisCache
     private val serviceScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val backlogRunning = AtomicBoolean(false)
+
+    companion object {
+        // 밀린 Record(가져온 녹음 등)를 일괄 처리하라는 요청
+        const val ACTION_ANALYZE_BACKLOG = "com.example.domentiacare.action.ANALYZE_BACKLOG"
+
+        // 통화 분석 프롬프트의 고정 부분 (뒤에 "통화 내용"이 붙음)
+        // 매 요청 같은 문자열이어야 LLM 서비스가 이 부분까지의 모델 상태를 재사용함
+        private val SCHEDULE_INSTRUCTIONS = """
+            Please analyze the following phone conversation and extract schedule information.
+            Output only two sections in the following format. . **Do NOT use Markdown or any formatting.**
+            Summary: [A representative title for the schedule, extracted from the conversation.]
+            Schedule: {"date": "YYYY-MM-DD or day description", "time": "HH:MM", "place": "location name"}
+    
+            Instructions:
+            1. Extract a representative title for this conversation that can be used as a schedule title. Output as 'Summary'.
+            2. Extract schedule information in JSON format with exactly these keys: "date", "time", "place".
+            3. If multiple times are mentioned, prioritize the main event time.
+            4. Output only the summary and JSON, nothing else.
+            
+            Phone conversation:
+        """.trimIndent() + "\n"
+
+        // 구조화 출력 응답에 있어야 하는 필드 (Summary 줄 + Schedule JSON 키)
+        private val REQUIRED_FIELDS = listOf("Summary", "date", "time", "place")
+    }
 
     override fun onBind(intent: Intent?): IBinder? = null
 
+    override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
+        if (intent?.action == ACTION_ANALYZE_BACKLOG) {
+            serviceScope.launch { analyzeBacklog() }
+        }
+        return super.onStartCommand(intent, flags, startId)
+    }
+
     override fun onCreate() {
         super.onCreate()
         Log.d("CallRecordAnalyzeService", "=== 서비스 시작 ===")
@@ -57,6 +103,7 @@ class CallRecordAnalyzeService : Service() {
 
         // Record 저장소 초기화
         recordStorage = RecordStorage(applicationContext)
+        analysisCache = AnalysisCacheDatabaseProvider.getCache(applicationContext)
 
         startForegroundWithNotification("통화 녹음 감시중", "새 통화 녹음을 자동 분석합니다.")
 
@@ -87,6 +134,8 @@ class CallRecordAnalyzeService : Service() {
         Log.d("CallRecordAnalyzeService", "=== 서비스 종료 ===")
         fileObserver?.stopWatching()
         serviceScope.cancel()
+        // 진행 중인 작업이 없으면 Whisper 모델 해제
+        WhisperEngineRegistry.unloadIfIdle()
     }
 
     private fun startForegroundWithNotification(title: String, content: String) {
@@ -256,6 +305,11 @@ class CallRecordAnalyzeService : Service() {
                 showErrorNotification("시스템 오류", e.message ?: "알 수 없는 오류")
             }
 
+            // Whisper 단계에서 남겨둔 WAV 정리 (업로드 후이거나 업로드가 필요 없는 경우)
+            if (filePath.endsWith(".m4a", ignoreCase = true)) {
+                deleteWavFile(File(applicationContext.cacheDir, File(filePath).nameWithoutExtension + ".wav"))
+            }
+
             Log.d("CallRecordAnalyzeService", "=== Record 시스템 통합 처리 완료 ===")
         }
     }
@@ -402,13 +456,18 @@ class CallRecordAnalyzeService : Service() {
                 parseStatus = ProcessStatus.FAILED
             )
             false
+        } finally {
+            // 단계별 상태/결과 변경을 한 트랜잭션으로 커밋
+            recordStorage.flush(recordId)
         }
     }
 
     /**
      * Whisper 처리
+     * keepWavFile: M4A를 디코딩하면서 업로드용 WAV(cacheDir/<이름>.wav)도 기록하고 업로드함
+     * 성공 시 WAV는 남겨 두므로 호출한 쪽(최종 업로드 후)에서 지워야 함
      */
-    private suspend fun processWithWhisper(recordId: String): Boolean = withContext(Dispatchers.IO) {
+    private suspend fun processWithWhisper(recordId: String, keepWavFile: Boolean = true): Boolean = withContext(Dispatchers.IO) {
         Log.d("CallRecordAnalyzeService", "🎙️ Whisper 처리 시작: $recordId")
 
         val record = recordStorage.getRecordById(recordId) ?: run {
@@ -417,43 +476,48 @@ class CallRecordAnalyzeService : Service() {
         }
 
         var outputWavFile: File? = null
+        var wavHandedOff = false
 
         try {
-            var audioPath = record.path
+            val audioPath = record.path
 
-            // M4A → WAV 변환 (필요시)
-            if (audioPath.endsWith(".m4a", ignoreCase = true)) {
-                val m4aFile = File(audioPath)
-                outputWavFile = File(applicationContext.cacheDir, m4aFile.nameWithoutExtension + ".wav")
+            // 같은 오디오 내용 + 같은 모델로 전사한 적이 있으면 Whisper를 건너뜀 (다시 가져온 녹음 포함)
+            val audioHash = AnalysisCache.hashFile(File(audioPath))
+            val modelId = WhisperEngineRegistry.modelId(applicationContext)
+            val cachedTranscript = analysisCache.getTranscript(audioHash, modelId)
 
-                Log.d("CallRecordAnalyzeService", "🔄 M4A → WAV 변환 시작")
-                convertM4aToWavForWhisper(m4aFile, outputWavFile)
+            // Whisper 실행 (공유 엔진, 모델은 한 번만 로드)
+            val transcript = cachedTranscript ?: if (audioPath.endsWith(".m4a", ignoreCase = true)) {
+                // M4A는 WAV 파일을 거치지 않고 디코딩하면서 바로 전사
+                // 업로드용 WAV는 같은 디코딩 결과로 함께 기록
+                val m4aFile = File(audioPath)
+                val wavFile = if (keepWavFile) File(applicationContext.cacheDir, m4aFile.nameWithoutExtension + ".wav") else null
+                outputWavFile = wavFile
 
-                if (!outputWavFile.exists() || outputWavFile.length() == 0L) {
-                    Log.e("CallRecordAnalyzeService", "❌ WAV 변환 실패")
-                    return@withContext false
+                Log.d("CallRecordAnalyzeService", "🔄 M4A 스트리밍 디코딩 + Whisper 시작")
+                WhisperEngineRegistry.use(applicationContext) { whisper ->
+                    whisper.transcribeM4aBlocking(m4aFile, wavFile)
                 }
+            } else {
+                WhisperEngineRegistry.use(applicationContext) { whisper ->
+                    whisper.transcribeBlocking(audioPath)
+                }
+            }
 
-                audioPath = outputWavFile.absolutePath
-                Log.d("CallRecordAnalyzeService", "✅ WAV 변환 완료: ${outputWavFile.length()} bytes")
-
-                // 파일 전송
-                if (outputWavFile != null && outputWavFile.exists()) {
-                    val uploadResult = RecordApiService.uploadAudioFile(record.localId, outputWavFile)
+            // 파일 전송
+            outputWavFile?.let { wavFile ->
+                if (wavFile.exists() && wavFile.length() > 0L) {
+                    Log.d("CallRecordAnalyzeService", "✅ WAV 기록 완료: ${wavFile.length()} bytes")
+                    val uploadResult = RecordApiService.uploadAudioFile(record.localId, wavFile)
                     if (uploadResult.isSuccess) {
                         Log.d("AudioUpload", "WAV 파일 업로드 성공")
                     } else {
                         Log.e("AudioUpload", "WAV 파일 업로드 실패: ${uploadResult.exceptionOrNull()}")
                     }
+                } else {
+                    Log.e("CallRecordAnalyzeService", "❌ WAV 기록 실패")
                 }
             }
-
-            // Whisper 실행
-            val whisper = WhisperWrapper(applicationContext)
-            whisper.copyModelFiles()
-            whisper.initModel()
-
-            val transcript = whisper.transcribeBlocking(audioPath)
             Log.d("CallRecordAnalyzeService", "📝 Whisper 결과: ${transcript.take(100)}...")
 
             if (transcript.isBlank()) {
@@ -464,8 +528,13 @@ class CallRecordAnalyzeService : Service() {
 
             // 결과 저장
             recordStorage.updateTranscript(recordId, transcript, ProcessStatus.COMPLETED)
-            Log.d("CallRecordAnalyzeService", "✅ Whisper 처리 완료 및 저장")
+            if (cachedTranscript == null) {
+                analysisCache.putTranscript(audioHash, modelId, transcript)
+            }
+            Log.d("CallRecordAnalyzeService", "✅ Whisper 처리 완료 및 저장${if (cachedTranscript != null) " (캐시)" else ""}")
 
+            // 최종 업로드(uploadAudioFileToServer)에서 다시 디코딩하지 않도록 WAV 유지
+            wavHandedOff = true
             true
 
         } catch (e: Exception) {
@@ -473,8 +542,10 @@ class CallRecordAnalyzeService : Service() {
             recordStorage.updateProcessStatus(recordId, transcriptStatus = ProcessStatus.FAILED)
             false
         } finally {
-            // WAV 파일 정리
-            outputWavFile?.let { deleteWavFile(it) }
+            // WAV 파일 정리 (성공 시에는 파이프라인 종료 후 정리)
+            if (!wavHandedOff) {
+                outputWavFile?.let { deleteWavFile(it) }
+            }
         }
     }
 
@@ -496,37 +567,27 @@ class CallRecordAnalyzeService : Service() {
         }
 
         try {
-            val llamaManager = MyApplication.llamaServiceManager
-            val prompt = """
-                Please analyze the following phone conversation and extract schedule information.
-                Output only two sections in the following format. . **Do NOT use Markdown or any formatting.**
-                Summary: [A representative title for the schedule, extracted from the conversation.]
-                Schedule: {"date": "YYYY-MM-DD or day description", "time": "HH:MM", "place": "location name"}
-        
-                Instructions:
-                1. Extract a representative title for this conversation that can be used as a schedule title. Output as 'Summary'.
-                2. Extract schedule information in JSON format with exactly these keys: "date", "time", "place".
-                3. If multiple times are mentioned, prioritize the main event time.
-                4. Output only the summary and JSON, nothing else.
-                
-                Phone conversation:
-                "${record.transcript}"
-            """.trimIndent()
-
-            val result = llamaManager.sendQueryBlocking(prompt)
-            Log.d("CallRecordAnalyzeService", "🧠 Llama 결과: $result")
-
-            if (!isValidLlamaResponse(result)) {
-                Log.e("CallRecordAnalyzeService", "❌ Llama 응답이 유효하지 않음")
-                recordStorage.updateProcessStatus(recordId, analysisStatus = ProcessStatus.FAILED)
-                return@withContext false
+            // 같은 transcript를 같은 프롬프트로 분석한 적이 있으면 LLM을 건너뜀 (유효한 결과만 캐시됨)
+            analysisCache.getAnalysis(record.transcript, SCHEDULE_INSTRUCTIONS)?.let { cachedResult ->
+                recordStorage.updateAnalysisResult(recordId, cachedResult, ProcessStatus.COMPLETED)
+                Log.d("CallRecordAnalyzeService", "✅ Llama 분석 완료 및 저장 (캐시)")
+                return@withContext true
             }
 
-            // 결과 저장
-            recordStorage.updateAnalysisResult(recordId, result, ProcessStatus.COMPLETED)
-            Log.d("CallRecordAnalyzeService", "✅ Llama 분석 완료 및 저장")
-
-            true
+            val llamaManager = MyApplication.llamaServiceManager
+            // 고정 지시문(SCHEDULE_INSTRUCTIONS)은 서비스가 캐시한 상태를 쓰고 통화 내용만 새로 처리
+            val prompt = "\"${record.transcript}\""
+
+            // 통화 분석은 백그라운드 우선순위 (비서 질의가 먼저 처리됨)
+            // 서비스가 종료되어 serviceScope가 취소되면 대기/생성 중인 요청도 취소됨
+            // 구조화 출력: Schedule JSON이 닫히는 즉시 생성을 멈추고 파싱된 필드를 받음
+            val response = llamaManager.sendStructuredQuery(
+                prompt,
+                instructions = SCHEDULE_INSTRUCTIONS,
+                priority = ILlamaAnalysisService.PRIORITY_BACKGROUND,
+                queueTimeoutMs = LlamaServiceManager.BACKGROUND_QUEUE_TIMEOUT
+            )
+            storeLlamaResponse(recordId, record.transcript, response)
 
         } catch (e: Exception) {
             Log.e("CallRecordAnalyzeService", "❌ Llama 분석 중 예외", e)
@@ -535,6 +596,147 @@ class CallRecordAnalyzeService : Service() {
         }
     }
 
+    /**
+     * Llama 응답 검증 후 저장 (유효한 결과만 캐시)
+     */
+    private suspend fun storeLlamaResponse(recordId: String, transcript: String, response: LlamaResponse): Boolean {
+        val result = response.text
+        Log.d("CallRecordAnalyzeService", "🧠 Llama 결과: $result")
+
+        val valid = response.fields?.let { fields -> REQUIRED_FIELDS.all { it in fields } }
+            ?: isValidLlamaResponse(result)
+        if (!valid) {
+            Log.e("CallRecordAnalyzeService", "❌ Llama 응답이 유효하지 않음")
+            recordStorage.updateProcessStatus(recordId, analysisStatus = ProcessStatus.FAILED)
+            return false
+        }
+
+        // 결과 저장
+        recordStorage.updateAnalysisResult(recordId, result, ProcessStatus.COMPLETED)
+        analysisCache.putAnalysis(transcript, SCHEDULE_INSTRUCTIONS, result)
+        Log.d("CallRecordAnalyzeService", "✅ Llama 분석 완료 및 저장")
+        return true
+    }
+
+    /**
+     * 🆕 밀린 Record 일괄 처리 (녹음 가져오기/동기화 후)
+     * 전사가 안 된 Record는 하나씩 Whisper 처리한 뒤, 분석이 필요한 Record는 한 번의 배치 요청으로 Llama 분석
+     * 배치 항목 결과가 오는 대로 저장하고 일정 파싱까지 진행
+     */
+    private suspend fun analyzeBacklog() = withContext(Dispatchers.IO) {
+        if (!backlogRunning.compareAndSet(false, true)) {
+            Log.d("CallRecordAnalyzeService", "⏳ 밀린 Record 처리가 이미 진행 중")
+            return@withContext
+        }
+
+        // PROCESSING으로 바꿔 놓고 아직 결과를 저장하지 못한 Record (예외/취소/배치 실패 시 PENDING으로 되돌림)
+        val unfinishedTranscripts = ConcurrentHashMap.newKeySet<String>()
+        val unfinishedAnalyses = ConcurrentHashMap.newKeySet<String>()
+
+        try {
+            // 1. 전사
+            val untranscribed = recordStorage.getRecordsByStatus(transcriptStatus = ProcessStatus.PENDING)
+            Log.d("CallRecordAnalyzeService", "📚 밀린 Record 처리 시작: 전사 대기 ${untranscribed.size}개")
+            for (record in untranscribed) {
+                unfinishedTranscripts.add(record.localId)
+                recordStorage.updateProcessStatus(record.localId, transcriptStatus = ProcessStatus.PROCESSING)
+                // 밀린 Record는 업로드하지 않으므로 WAV를 만들지 않음 (남겨 두면 지울 곳이 없음)
+                processWithWhisper(record.localId, keepWavFile = false)
+                unfinishedTranscripts.remove(record.localId)
+            }
+
+            // 2. 분석 (캐시에 있는 것은 바로 저장, 나머지는 배치로)
+            val pending = recordStorage.getRecordsByStatus(
+                transcriptStatus = ProcessStatus.COMPLETED,
+                analysisStatus = ProcessStatus.PENDING
+            ).filter { !it.transcript.isNullOrEmpty() }
+
+            val requests = mutableListOf<AnalysisRequest>()
+            val transcripts = HashMap<String, String>()
+            for (record in pending) {
+                val transcript = record.transcript ?: continue
+                val cachedResult = analysisCache.getAnalysis(transcript, SCHEDULE_INSTRUCTIONS)
+                if (cachedResult != null) {
+                    recordStorage.updateAnalysisResult(record.localId, cachedResult, ProcessStatus.COMPLETED)
+                    parseScheduleFromResult(record.localId)
+                    continue
+                }
+                unfinishedAnalyses.add(record.localId)
+                recordStorage.updateProcessStatus(record.localId, analysisStatus = ProcessStatus.PROCESSING)
+                transcripts[record.localId] = transcript
+                requests.add(AnalysisRequest().apply {
+                    itemId = record.localId
+                    instructions = SCHEDULE_INSTRUCTIONS
+                    text = "\"$transcript\""
+                    structured = true
+                })
+            }
+
+            if (requests.isNotEmpty()) {
+                // 항목 결과는 binder 스레드에서 오므로 저장/파싱은 채널로 넘겨 이 코루틴에서 순서대로 처리
+                val results = Channel<BatchItemResult>(Channel.UNLIMITED)
+                val consumer = launch {
+                    for (item in results) {
+                        unfinishedAnalyses.remove(item.itemId)
+                        val response = item.response
+                        if (response == null) {
+                            Log.e("CallRecordAnalyzeService", "❌ 배치 항목 실패: ${item.itemId} - ${item.error}")
+                            recordStorage.updateProcessStatus(item.itemId, analysisStatus = ProcessStatus.FAILED)
+                            continue
+                        }
+                        val transcript = transcripts[item.itemId] ?: continue
+                        if (storeLlamaResponse(item.itemId, transcript, response)) {
+                            recordStorage.updateProcessStatus(item.itemId, parseStatus = ProcessStatus.PROCESSING)
+                            parseScheduleFromResult(item.itemId)
+                        }
+                        recordStorage.flush(item.itemId)
+                    }
+                }
+
+                val summary = MyApplication.llamaServiceManager.analyzeBatch(requests) { results.trySend(it) }
+                results.close()
+                consumer.join()
+
+                if (summary == null) {
+                    // 결과를 받지 못한 항목은 finally에서 PENDING으로 되돌아가 다음 번에 다시 처리됨
+                    Log.e("CallRecordAnalyzeService", "❌ 배치 분석 실패 (서비스 미연결/종료/시간 초과), 남은 ${unfinishedAnalyses.size}개는 다음에 재시도")
+                } else {
+                    val charsPerSecond = if (summary.elapsedMs > 0) summary.generatedChars * 1000 / summary.elapsedMs else 0
+                    Log.d(
+                        "CallRecordAnalyzeService",
+                        "📚 배치 분석 완료: 성공 ${summary.succeeded}, 실패 ${summary.failed}, " +
+                            "${summary.elapsedMs}ms ($charsPerSecond chars/s)"
+                    )
+                }
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.e("CallRecordAnalyzeService", "❌ 밀린 Record 처리 중 예외", e)
+        } finally {
+            // 취소된 경우에도 상태 복구와 커밋은 끝까지 실행
+            try {
+                withContext(NonCancellable) {
+                    unfinishedTranscripts.forEach {
+                        recordStorage.updateProcessStatus(it, transcriptStatus = ProcessStatus.PENDING)
+                    }
+                    unfinishedAnalyses.forEach {
+                        recordStorage.updateProcessStatus(it, analysisStatus = ProcessStatus.PENDING)
+                    }
+                    if (unfinishedTranscripts.isNotEmpty() || unfinishedAnalyses.isNotEmpty()) {
+                        Log.w(
+                            "CallRecordAnalyzeService",
+                            "↩️ 처리 못 한 Record를 PENDING으로 복구: 전사 ${unfinishedTranscripts.size}개, 분석 ${unfinishedAnalyses.size}개"
+                        )
+                    }
+                    recordStorage.flush()
+                }
+            } finally {
+                backlogRunning.set(false)
+            }
+        }
+    }
+
     /**
      * 일정 파싱
      */
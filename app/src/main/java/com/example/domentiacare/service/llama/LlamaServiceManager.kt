@@ -7,13 +7,45 @@ import android.content.ServiceConnection
 import android.os.IBinder
 import android.os.RemoteException
 import android.util.Log
+import com.quicinc.chatapp.AnalysisRequest
 import com.quicinc.chatapp.IAnalysisCallback
+import com.quicinc.chatapp.IBatchCallback
 import com.quicinc.chatapp.ILlamaAnalysisService
 import kotlinx.coroutines.*
 import kotlin.coroutines.resume
 import kotlinx.coroutines.suspendCancellableCoroutine
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicBoolean
 
+/**
+ * LLM 응답
+ * fields: 구조화 출력 요청에서 서비스가 파싱한 필드 (Label 줄 + JSON 최상위 키), 그 외에는 null
+ */
+data class LlamaResponse(
+    val text: String,
+    val fields: Map<String, String>? = null
+)
+
+/**
+ * 배치 항목 하나의 결과 (response와 error 중 하나만 있음)
+ */
+data class BatchItemResult(
+    val itemId: String,
+    val response: LlamaResponse?,
+    val error: String?,
+    val generationMs: Long = 0
+)
+
+/**
+ * 배치 전체 결과: 처리량 = generatedChars / elapsedMs
+ */
+data class BatchSummary(
+    val succeeded: Int,
+    val failed: Int,
+    val elapsedMs: Long,
+    val generatedChars: Long
+)
+
 class LlamaServiceManager {
 
     companion object {
@@ -21,6 +53,14 @@ class LlamaServiceManager {
         private const val CHATAPP_PACKAGE = "com.quicinc.chatapp"
         private const val SERVICE_CLASS = "com.quicinc.chatapp.LlamaAnalysisService"
         private const val CONNECTION_TIMEOUT = 15000L
+        private const val GENERATION_TIMEOUT = 65000L
+        // 대기열 기한이 없는 요청도 제출 시점부터 이 안에는 끝냄 (대기 + 생성)
+        private const val QUERY_DEADLINE = 20000L + GENERATION_TIMEOUT
+        private const val RESPONSE_BUFFER_CAPACITY = 1024
+
+        // 대화형 요청은 오래 기다리게 하느니 빨리 실패시키고, 백그라운드 분석은 대기열이 빠질 때까지 기다림
+        const val INTERACTIVE_QUEUE_TIMEOUT = 30_000L
+        const val BACKGROUND_QUEUE_TIMEOUT = 10 * 60_000L
     }
 
     private var serviceConnection: ServiceConnection? = null
@@ -28,6 +68,17 @@ class LlamaServiceManager {
     private var isConnected = false
     private var isConnecting = false
 
+    // 응답을 기다리는 요청 (서비스 요청/배치 ID → 실패 처리), 서비스가 죽거나 끊기면 한꺼번에 실패시킴
+    private val pendingCalls = ConcurrentHashMap<Long, (String) -> Unit>()
+
+    // 요청별 타이머 (결과가 오면 바로 취소됨)
+    private val timerScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    private val deathRecipient = IBinder.DeathRecipient {
+        Log.e(TAG, "LlamaAnalysisService process died")
+        onServiceLost("Service process died")
+    }
+
     /**
      * ChatApp의 LlamaAnalysisService에 연결 (AIDL 방식)
      */
@@ -56,6 +107,13 @@ class LlamaServiceManager {
                             llamaService = ILlamaAnalysisService.Stub.asInterface(service)
 
                             if (llamaService != null) {
+                                // 서비스 프로세스가 죽으면 콜백이 다시 오지 않으므로 기다리던 요청을 바로 실패시킴
+                                try {
+                                    service?.linkToDeath(deathRecipient, 0)
+                                } catch (e: RemoteException) {
+                                    Log.e(TAG, "Service died before linkToDeath: ${e.message}")
+                                }
+
                                 isConnected = true
                                 isConnecting = false
                                 Log.i(TAG, "Successfully connected to LlamaAnalysisService via AIDL")
@@ -85,10 +143,8 @@ class LlamaServiceManager {
                     }
 
                     override fun onServiceDisconnected(name: ComponentName?) {
-                        llamaService = null
-                        isConnected = false
-                        isConnecting = false
                         Log.d(TAG, "Disconnected from LlamaAnalysisService")
+                        onServiceLost("Service disconnected")
                     }
                 }
 
@@ -123,29 +179,108 @@ class LlamaServiceManager {
 
     /**
      * 텍스트 쿼리 전송 (AIDL 방식) - 실시간 스트리밍 지원
+     * 서비스의 우선순위 대기열에 들어가며, 대화형(PRIORITY_INTERACTIVE) 요청이 백그라운드 분석보다 먼저 처리됨
+     * queueTimeoutMs 안에 시작하지 못하면 서비스가 요청을 취소하고 에러로 응답 (0 = 기한 없음)
+     * instructions를 주면 대화 기록 없는 단독 요청으로 처리 (instructions + query가 프롬프트,
+     * 같은 instructions의 모델 상태는 서비스가 캐시하므로 query 부분만 새로 처리됨)
      */
     suspend fun sendQuery(
         query: String,
+        instructions: String? = null,
+        priority: Int = ILlamaAnalysisService.PRIORITY_INTERACTIVE,
+        queueTimeoutMs: Long = 0,
+        onQueuePosition: ((Int) -> Unit)? = null,
         onPartialUpdate: ((String) -> Unit)? = null
     ): String {
-        if (!isConnected || llamaService == null) {
-            return "Error: Service not connected"
+        return submitQuery(query, instructions, false, priority, queueTimeoutMs, onQueuePosition, onPartialUpdate).text
+    }
+
+    /**
+     * 구조화 출력 쿼리: "Label: value" 줄들 뒤에 JSON 객체 하나가 오는 응답 (예: Summary + Schedule)
+     * 서비스가 JSON 객체가 닫히는 즉시 생성을 멈추고 파싱된 필드를 돌려주므로 클라이언트에서 다시 파싱할 필요 없음
+     * 객체가 완성되지 않았으면 fields는 null이고 text에 생성된 전체 응답이 담김
+     */
+    suspend fun sendStructuredQuery(
+        query: String,
+        instructions: String? = null,
+        priority: Int = ILlamaAnalysisService.PRIORITY_INTERACTIVE,
+        queueTimeoutMs: Long = 0
+    ): LlamaResponse {
+        return submitQuery(query, instructions, true, priority, queueTimeoutMs, null, null)
+    }
+
+    private suspend fun submitQuery(
+        query: String,
+        instructions: String?,
+        structured: Boolean,
+        priority: Int,
+        queueTimeoutMs: Long,
+        onQueuePosition: ((Int) -> Unit)?,
+        onPartialUpdate: ((String) -> Unit)?
+    ): LlamaResponse {
+        val service = llamaService
+        if (!isConnected || service == null) {
+            return LlamaResponse("Error: Service not connected")
         }
 
-        Log.d(TAG, "Sending query via AIDL: $query")
+        Log.d(TAG, "Sending query via AIDL (priority $priority${if (structured) ", structured" else ""}): $query")
 
         return suspendCancellableCoroutine { continuation ->
-            // 중복 응답 방지를 위한 AtomicBoolean
-            val responseCalled = AtomicBoolean(false)
-            var lastResponse = ""
+            val call = PendingQuery(service, continuation)
+
+            // 제출 시점부터의 전체 기한 (대기열 기한이 없어도 무한정 기다리지 않음)
+            val deadline = if (queueTimeoutMs > 0) queueTimeoutMs + GENERATION_TIMEOUT else QUERY_DEADLINE
+            call.startTimer(deadline, "Response timeout")
+
+            // 스트리밍 프레임을 이어 붙이는 버퍼 (요청 하나 동안 재사용)
+            val responseBuffer = call.buffer
+            var expectedSequence = 0
 
             try {
                 val callback = object : IAnalysisCallback.Stub() {
+                    override fun onQueued(requestId: Long, position: Int) {
+                        Log.d(TAG, "Request $requestId queued at position $position")
+                        try {
+                            onQueuePosition?.invoke(position)
+                        } catch (e: Exception) {
+                            Log.e(TAG, "Error in queue position callback: ${e.message}")
+                        }
+                    }
+
+                    override fun onStarted(requestId: Long) {
+                        Log.d(TAG, "Request $requestId started")
+
+                        // 생성 타임아웃은 대기열에서 꺼내진 뒤부터 계산 (서비스 안전망보다 약간 길게)
+                        call.startTimer(GENERATION_TIMEOUT, "Response timeout")
+                    }
+
+                    override fun onPartialDelta(requestId: Long, sequence: Int, delta: String?) {
+                        // 새 텍스트만 받아서 버퍼에 이어 붙임
+                        val partial = synchronized(responseBuffer) {
+                            if (sequence != expectedSequence) {
+                                Log.w(TAG, "Request $requestId: frame $sequence arrived, expected $expectedSequence")
+                            }
+                            expectedSequence = sequence + 1
+                            responseBuffer.append(delta ?: "")
+
+                            // 전체 텍스트는 화면 갱신이 필요할 때만 만듦
+                            if (onPartialUpdate != null) responseBuffer.trim().toString() else null
+                        } ?: return
+
+                        try {
+                            onPartialUpdate?.invoke(partial)
+                        } catch (e: Exception) {
+                            Log.e(TAG, "Error in partial update callback: ${e.message}")
+                        }
+                    }
+
                     override fun onPartialResult(partialText: String?) {
-                        // 실시간 부분 결과 처리
+                        // 이전 방식 서비스 호환: 누적 전체 텍스트로 버퍼를 교체
                         partialText?.let { partial ->
-                            Log.d(TAG, "Received partial result via AIDL, length: ${partial.length}")
-                            lastResponse = partial
+                            synchronized(responseBuffer) {
+                                responseBuffer.setLength(0)
+                                responseBuffer.append(partial)
+                            }
                             try {
                                 onPartialUpdate?.invoke(partial)
                             } catch (e: Exception) {
@@ -155,101 +290,318 @@ class LlamaServiceManager {
                     }
 
                     override fun onResult(result: String?) {
-                        result?.let {
-                            Log.d(TAG, "Received result via AIDL, length: ${it.length}, treating as partial")
-                            lastResponse = it
-
-                            try {
-                                onPartialUpdate?.invoke(it)
-                            } catch (e: Exception) {
-                                Log.e(TAG, "Error in result->partial update callback: ${e.message}")
-                            }
+                        // 서비스는 생성이 끝난 즉시 한 번만 onResult를 보냄
+                        if (call.finish(LlamaResponse(result ?: call.lastResponse()))) {
+                            Log.d(TAG, "Final result received via AIDL, length: ${result?.length ?: 0}")
                         }
+                    }
 
-                        // 수정된 최종 완료 조건: JSON이 완성되었을 때만 종료
-                        if (result != null && result.contains("Summary:") && result.contains("Schedule:") &&
-                            result.trim().endsWith("}") && result.length > 50) {
-
-                            // JSON 유효성 추가 검증
-                            try {
-                                val scheduleIndex = result.indexOf("Schedule:")
-                                if (scheduleIndex != -1) {
-                                    val jsonPart = result.substring(scheduleIndex + "Schedule:".length).trim()
-                                    org.json.JSONObject(jsonPart) // JSON 파싱 테스트
-
-                                    if (responseCalled.compareAndSet(false, true)) {
-                                        Log.d(TAG, "Final result accepted: $result")
-                                        continuation.resume(result)
-                                    }
-                                }
-                            } catch (e: Exception) {
-                                Log.d(TAG, "JSON incomplete, waiting for more: ${e.message}")
-                            }
+                    override fun onStructuredResult(requestId: Long, response: String?, fields: MutableMap<Any?, Any?>?) {
+                        val parsed = fields?.entries?.associate { (key, value) -> key.toString() to value.toString() }
+                        if (call.finish(LlamaResponse(response ?: "", parsed))) {
+                            Log.d(TAG, "Structured result received for request $requestId, fields: ${fields?.keys}")
                         }
                     }
 
                     override fun onError(error: String?) {
-                        if (responseCalled.compareAndSet(false, true)) {
+                        if (call.finish(LlamaResponse("Error: ${error ?: "Unknown error"}"))) {
                             Log.e(TAG, "Received error via AIDL: $error")
-                            continuation.resume("Error: ${error ?: "Unknown error"}")
                         } else {
                             Log.d(TAG, "Duplicate error ignored: $error")
                         }
                     }
 
                     override fun onNoResult() {
-                        if (responseCalled.compareAndSet(false, true)) {
+                        if (call.finish(LlamaResponse("No response generated"))) {
                             Log.d(TAG, "No result from LLaMA")
-                            continuation.resume("No response generated")
                         } else {
                             Log.d(TAG, "Duplicate no result ignored")
                         }
                     }
                 }
 
-                llamaService!!.analyzeText(query, callback)
-                Log.d(TAG, "Query sent to service successfully")
+                val requestId = if (structured) {
+                    service.submitStructuredAnalysis(instructions, query, priority, queueTimeoutMs, callback)
+                } else if (instructions != null) {
+                    service.submitAnalysisWithInstructions(instructions, query, priority, queueTimeoutMs, callback)
+                } else {
+                    service.submitAnalysis(query, priority, queueTimeoutMs, callback)
+                }
+                Log.d(TAG, "Query $requestId submitted to service successfully")
+                call.register(requestId)
 
-                // 타임아웃 처리 (20초)
-                CoroutineScope(Dispatchers.Main).launch {
-                    delay(20000)
-                    if (responseCalled.compareAndSet(false, true)) {
-                        Log.w(TAG, "Query timeout after 20 seconds, using last response")
-                        continuation.resume(if (lastResponse.isNotEmpty()) lastResponse else "Error: Response timeout")
-                    }
+                // 🆕 호출한 코루틴이 취소되면 (예: AIAssistant.forceStop) 서비스에서도 대기/생성을 바로 중단
+                continuation.invokeOnCancellation {
+                    if (!call.close()) return@invokeOnCancellation
+                    call.cancelInService("abandoned")
                 }
 
             } catch (e: RemoteException) {
-                if (responseCalled.compareAndSet(false, true)) {
+                if (call.finish(LlamaResponse("Error: Remote service error - ${e.message}"))) {
                     Log.e(TAG, "RemoteException while sending query: ${e.message}", e)
-                    continuation.resume("Error: Remote service error - ${e.message}")
                 }
             } catch (e: Exception) {
-                if (responseCalled.compareAndSet(false, true)) {
+                if (call.finish(LlamaResponse("Error: Failed to send query - ${e.message}"))) {
                     Log.e(TAG, "Error sending query: ${e.message}", e)
-                    continuation.resume("Error: Failed to send query - ${e.message}")
                 }
             }
         }
     }
 
-    fun sendQueryBlocking(prompt: String): String {
-        var result = ""
-        val latch = java.util.concurrent.CountDownLatch(1)
+    /**
+     * 응답을 기다리는 쿼리 하나
+     * 결과/에러/시간 초과/서비스 종료 중 먼저 온 하나로만 끝나고, 끝나면 타이머와 등록을 모두 정리
+     */
+    private inner class PendingQuery(
+        private val service: ILlamaAnalysisService,
+        private val continuation: CancellableContinuation<LlamaResponse>
+    ) {
+        val buffer = StringBuilder(RESPONSE_BUFFER_CAPACITY)
+
+        private val closed = AtomicBoolean(false)
+        private val timers = ArrayList<Job>(2)
+
+        @Volatile
+        private var requestId = -1L
+
+        fun lastResponse(): String = synchronized(buffer) { buffer.trim().toString() }
+
+        // timeoutMs 뒤에도 끝나지 않았으면 서비스의 요청을 취소하고 지금까지 받은 텍스트로 응답
+        fun startTimer(timeoutMs: Long, reason: String) {
+            val timer = timerScope.launch {
+                delay(timeoutMs)
+                if (fail(reason)) {
+                    Log.w(TAG, "Query timeout after ${timeoutMs}ms, using last response")
+                    cancelInService("timed out")
+                }
+            }
+            synchronized(timers) {
+                if (closed.get()) timer.cancel() else timers.add(timer)
+            }
+        }
+
+        // 서비스 요청 ID로 등록 (서비스가 죽으면 onServiceLost가 fail을 호출)
+        fun register(id: Long) {
+            requestId = id
+            if (id < 0) return
+            pendingCalls[id] = { reason -> fail(reason) }
+            if (closed.get()) pendingCalls.remove(id)
+        }
+
+        fun finish(response: LlamaResponse): Boolean {
+            if (!close()) return false
+            continuation.resume(response)
+            return true
+        }
+
+        // 받은 텍스트가 있으면 그것으로, 없으면 에러로 끝냄
+        fun fail(reason: String): Boolean {
+            val last = lastResponse()
+            return finish(LlamaResponse(if (last.isNotEmpty()) last else "Error: $reason"))
+        }
+
+        // 더 이상 응답을 전달하지 않도록 닫음 (처음 닫은 쪽만 true)
+        fun close(): Boolean {
+            if (!closed.compareAndSet(false, true)) return false
+            synchronized(timers) {
+                timers.forEach { it.cancel() }
+                timers.clear()
+            }
+            if (requestId >= 0) pendingCalls.remove(requestId)
+            return true
+        }
+
+        fun cancelInService(why: String) {
+            val id = requestId
+            if (id < 0) return
+            try {
+                val cancelled = service.cancel(id)
+                Log.d(TAG, "Query $id $why, cancelled in service: $cancelled")
+            } catch (e: RemoteException) {
+                Log.e(TAG, "Error cancelling query $id: ${e.message}")
+            }
+        }
+    }
+
+    /**
+     * 서비스 프로세스가 죽었거나 연결이 끊김: 기다리던 요청은 콜백을 받을 수 없으므로 모두 실패 처리
+     */
+    private fun onServiceLost(reason: String) {
+        llamaService = null
+        isConnected = false
+        isConnecting = false
+
+        val lost = pendingCalls.keys.toList()
+        for (id in lost) {
+            pendingCalls.remove(id)?.invoke(reason)
+        }
+        if (lost.isNotEmpty()) {
+            Log.w(TAG, "$reason, failed ${lost.size} pending request(s)")
+        }
+    }
+
+    /**
+     * 배치 분석: 여러 요청을 서비스에서 차례대로 처리 (백그라운드 우선순위)
+     * 항목마다 연결 확인을 따로 하지 않고, 모델과 같은 instructions의 캐시 상태를 계속 재사용
+     * 항목 결과는 끝나는 대로 onItemResult로 전달 (binder 스레드에서 호출됨)
+     * 호출한 코루틴이 취소되면 남은 항목도 서비스에서 취소됨
+     * 항목 하나가 시작 후 GENERATION_TIMEOUT 안에 끝나지 않거나 배치 전체 기한을 넘기면 남은 항목을 취소하고 실패 처리
+     *
+     * @return 배치 전체 결과, 서비스에 연결되지 않았거나 도중에 서비스가 죽거나 시간 초과면 null
+     *         (null이어도 그 전에 onItemResult로 전달된 항목은 유효함)
+     */
+    suspend fun analyzeBatch(
+        requests: List<AnalysisRequest>,
+        onItemResult: (BatchItemResult) -> Unit
+    ): BatchSummary? {
+        val service = llamaService
+        if (!isConnected || service == null) {
+            return null
+        }
+
+        Log.d(TAG, "Sending batch of ${requests.size} requests via AIDL")
+
+        return suspendCancellableCoroutine { continuation ->
+            val completed = AtomicBoolean(false)
+            var batchId = -1L
+            // [0] 배치 전체 기한, [1] 지금 생성 중인 항목의 기한
+            val timers = arrayOfNulls<Job>(2)
+
+            fun close(): Boolean {
+                if (!completed.compareAndSet(false, true)) return false
+                synchronized(timers) {
+                    timers.forEach { it?.cancel() }
+                }
+                pendingCalls.remove(batchId)
+                return true
+            }
+
+            fun fail(reason: String, cancelInService: Boolean) {
+                if (!close()) return
+                Log.e(TAG, "Batch $batchId failed: $reason")
+                if (cancelInService && batchId >= 0) {
+                    try {
+                        service.cancel(batchId)
+                    } catch (e: RemoteException) {
+                        Log.e(TAG, "Error cancelling batch $batchId: ${e.message}")
+                    }
+                }
+                continuation.resume(null)
+            }
+
+            fun startTimer(slot: Int, timeoutMs: Long, reason: String) {
+                synchronized(timers) {
+                    timers[slot]?.cancel()
+                    if (completed.get()) return
+                    timers[slot] = timerScope.launch {
+                        delay(timeoutMs)
+                        fail(reason, cancelInService = true)
+                    }
+                }
+            }
+
+            fun stopTimer(slot: Int) {
+                synchronized(timers) {
+                    timers[slot]?.cancel()
+                    timers[slot] = null
+                }
+            }
+
+            val callback = object : IBatchCallback.Stub() {
+                override fun onItemQueued(itemId: String?, requestId: Long) {
+                    Log.d(TAG, "Batch item $itemId queued as request $requestId")
+                }
+
+                override fun onItemStarted(itemId: String?) {
+                    Log.d(TAG, "Batch item $itemId started")
+                    startTimer(1, GENERATION_TIMEOUT, "item $itemId timed out after ${GENERATION_TIMEOUT}ms")
+                }
+
+                override fun onItemResult(itemId: String?, response: String?, fields: MutableMap<Any?, Any?>?, generationMs: Long) {
+                    stopTimer(1)
+                    val parsed = fields?.entries?.associate { (key, value) -> key.toString() to value.toString() }
+                    deliver(BatchItemResult(itemId ?: "", LlamaResponse(response ?: "", parsed), null, generationMs))
+                }
+
+                override fun onItemError(itemId: String?, error: String?) {
+                    stopTimer(1)
+                    deliver(BatchItemResult(itemId ?: "", null, error ?: "Unknown error"))
+                }
+
+                override fun onBatchComplete(succeeded: Int, failed: Int, elapsedMs: Long, generatedChars: Long) {
+                    if (close()) {
+                        Log.d(TAG, "Batch complete: $succeeded ok, $failed failed in ${elapsedMs}ms")
+                        continuation.resume(BatchSummary(succeeded, failed, elapsedMs, generatedChars))
+                    }
+                }
+
+                private fun deliver(result: BatchItemResult) {
+                    // 실패 처리된 배치의 늦은 결과는 버림 (호출자는 이미 남은 항목을 정리 중)
+                    if (completed.get()) return
+                    try {
+                        onItemResult(result)
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Error in batch item callback: ${e.message}")
+                    }
+                }
+            }
+
+            // 대기열에서 기다리는 시간 + 항목마다 생성 시간
+            val deadline = BACKGROUND_QUEUE_TIMEOUT + requests.size * GENERATION_TIMEOUT
+            startTimer(0, deadline, "timed out after ${deadline}ms")
+
+            try {
+                batchId = service.analyzeBatch(requests, callback)
+                Log.d(TAG, "Batch $batchId submitted to service successfully")
+
+                // 서비스가 죽으면 onBatchComplete가 오지 않으므로 onServiceLost에서 실패 처리
+                pendingCalls[batchId] = { reason -> fail(reason, cancelInService = false) }
+                if (completed.get()) pendingCalls.remove(batchId)
+
+                continuation.invokeOnCancellation {
+                    if (!close()) return@invokeOnCancellation
+                    try {
+                        service.cancel(batchId)
+                        Log.d(TAG, "Batch $batchId abandoned, cancelled in service")
+                    } catch (e: RemoteException) {
+                        Log.e(TAG, "Error cancelling batch $batchId: ${e.message}")
+                    }
+                }
+            } catch (e: RemoteException) {
+                Log.e(TAG, "RemoteException while sending batch: ${e.message}", e)
+                fail("submit failed", cancelInService = false)
+            }
+        }
+    }
+
+    /**
+     * 실시간 스트리밍 쿼리 (대화형 우선순위)
+     */
+    suspend fun sendQuery(
+        query: String,
+        onPartialUpdate: ((String) -> Unit)?
+    ): String {
+        return sendQuery(query, priority = ILlamaAnalysisService.PRIORITY_INTERACTIVE, onPartialUpdate = onPartialUpdate)
+    }
+
+    fun sendQueryBlocking(
+        prompt: String,
+        priority: Int = ILlamaAnalysisService.PRIORITY_INTERACTIVE,
+        queueTimeoutMs: Long = 0,
+        instructions: String? = null
+    ): String {
         // runBlocking으로 블로킹 호출 (Main 스레드 X)
-        kotlinx.coroutines.runBlocking {
-            result = sendQuery(prompt)
-            latch.countDown()
+        // 타이머는 Main이 아닌 timerScope에서 돌기 때문에 호출 스레드가 막혀 있어도 기한이 지나면 반드시 돌아옴
+        return kotlinx.coroutines.runBlocking {
+            sendQuery(prompt, instructions, priority, queueTimeoutMs)
         }
-        latch.await()
-        return result
     }
 
     /**
      * 간단한 쿼리 전송 (기존 호환성 유지)
      */
     suspend fun sendQuery(query: String): String {
-        return sendQuery(query, null)
+        return sendQuery(query, onPartialUpdate = null)
     }
 
     /**
@@ -285,13 +637,12 @@ class LlamaServiceManager {
      */
     fun disconnect(context: Context) {
         try {
+            llamaService?.asBinder()?.unlinkToDeath(deathRecipient, 0)
             serviceConnection?.let {
                 context.unbindService(it)
                 serviceConnection = null
             }
-            llamaService = null
-            isConnected = false
-            isConnecting = false
+            onServiceLost("Service disconnected")
             Log.d(TAG, "Disconnected from LlamaAnalysisService")
         } catch (e: Exception) {
             Log.e(TAG, "Error disconnecting from service: ${e.message}")
@@ -0,0 +1,131 @@
+package com.example.domentiacare.service.whisper;
+
+import java.io.IOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded single-producer / single-consumer ring of 16 kHz mono PCM samples.
+ * <p>
+ * A decoder thread writes samples as they come out of the codec while the transcription
+ * thread reads them into the mel stage, so decoding overlaps feature extraction and
+ * inference. The writer blocks while the ring is full and the reader blocks until samples
+ * arrive, the producer finishes, or the producer reports a failure.
+ */
+public class AudioRingBuffer {
+    private final float[] mBuffer;
+    private int mReadPos = 0;
+    private int mSize = 0;
+
+    private boolean mFinished = false;   // producer wrote its last sample
+    private boolean mClosed = false;     // consumer stopped reading
+    private Throwable mFailure = null;   // producer error, rethrown by read()
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mNotFull = mLock.newCondition();
+
+    public AudioRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid ring capacity: " + capacity);
+        }
+        mBuffer = new float[capacity];
+    }
+
+    /**
+     * Copies samples into the ring, waiting for space as needed.
+     *
+     * @return false if the consumer closed the ring, in which case the producer should stop
+     */
+    public boolean write(float[] src, int offset, int length) throws InterruptedException {
+        int written = 0;
+        mLock.lock();
+        try {
+            while (written < length) {
+                while (mSize == mBuffer.length && !mClosed) {
+                    mNotFull.await();
+                }
+                if (mClosed) {
+                    return false;
+                }
+
+                int writePos = (mReadPos + mSize) % mBuffer.length;
+                int count = Math.min(length - written,
+                        Math.min(mBuffer.length - mSize, mBuffer.length - writePos));
+                System.arraycopy(src, offset + written, mBuffer, writePos, count);
+                mSize += count;
+                written += count;
+                mNotEmpty.signal();
+            }
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Reads up to length samples, waiting until at least one is available.
+     *
+     * @return number of samples read, or -1 once the producer finished and the ring is drained,
+     * or once the ring is closed
+     * @throws IOException if the producer failed
+     */
+    public int read(float[] dst, int offset, int length) throws IOException, InterruptedException {
+        mLock.lock();
+        try {
+            while (mSize == 0 && !mFinished && !mClosed && mFailure == null) {
+                mNotEmpty.await();
+            }
+            if (mFailure != null) {
+                throw new IOException("Audio source failed", mFailure);
+            }
+            if (mSize == 0 || mClosed) {
+                return -1;
+            }
+
+            int count = Math.min(length, Math.min(mSize, mBuffer.length - mReadPos));
+            System.arraycopy(mBuffer, mReadPos, dst, offset, count);
+            mReadPos = (mReadPos + count) % mBuffer.length;
+            mSize -= count;
+            mNotFull.signal();
+            return count;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // Called by the producer after its last write
+    public void finish() {
+        mLock.lock();
+        try {
+            mFinished = true;
+            mNotEmpty.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // Called by the producer when decoding fails; the reader sees it as an IOException
+    public void fail(Throwable failure) {
+        mLock.lock();
+        try {
+            mFailure = failure;
+            mNotEmpty.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // Called by the consumer when it stops reading early (or on its behalf, e.g. on timeout);
+    // unblocks and stops the producer and a waiting reader
+    public void close() {
+        mLock.lock();
+        try {
+            mClosed = true;
+            mNotFull.signalAll();
+            mNotEmpty.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.domentiacare.service.whisper;
+
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Long-lived, bounded compute pool for the mel spectrogram.
+ * <p>
+ * Work is split into one contiguous block of frames per thread, which keeps each
+ * worker on neighbouring samples and output columns. Worker threads are created once
+ * and keep their FFT scratch buffers for the lifetime of the pool, so a call costs
+ * only a task hand-off instead of thread creation and teardown.
+ * <p>
+ * The pool never has more threads than cores, and {@link #parallelism(int)} tells callers
+ * when the work is too small to be worth splitting. On a single core no thread is started.
+ */
+public class MelWorkerPool {
+    private static final String TAG = "MelWorkerPool";
+
+    // Computes frames [from, to) using the scratch buffers of the given worker
+    public interface BlockTask {
+        void run(int from, int to, MelWorker worker);
+    }
+
+    // Pool thread holding its own scratch buffers
+    public static final class MelWorker extends Thread {
+        WhisperFFT.Workspace workspace;
+        float[] frame;
+        float[] power;
+        float[] column;
+
+        MelWorker(Runnable target, String name) {
+            super(target, name);
+            setDaemon(true);
+        }
+
+        // Scratch is allocated on first use and reused by every later block
+        void ensureScratch(WhisperFFT plan) {
+            if (workspace == null || frame.length != plan.size()) {
+                workspace = plan.newWorkspace();
+                frame = new float[plan.size()];
+                power = new float[plan.bins()];
+                column = new float[WhisperUtil.WHISPER_N_MEL];
+            }
+        }
+    }
+
+    // Below this many frames per thread the hand-off costs more than the split saves
+    // (200 frames = 2 s of audio)
+    static final int MIN_FRAMES_PER_THREAD = 200;
+
+    private final int nThreads;
+    private final ExecutorService executor; // null with a single thread
+    private volatile boolean shutdown = false;
+
+    public MelWorkerPool(int nThreads) {
+        // Threads beyond the core count only add hand-offs
+        this.nThreads = Math.max(1, Math.min(nThreads, Runtime.getRuntime().availableProcessors()));
+        if (this.nThreads > 1) {
+            AtomicInteger counter = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(this.nThreads,
+                    r -> new MelWorker(r, "whisper-mel-" + counter.getAndIncrement()));
+        } else {
+            this.executor = null;
+        }
+    }
+
+    public int getThreadCount() {
+        return nThreads;
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    // Number of blocks worth running in parallel for the given frames; 1 means stay on the caller
+    public int parallelism(int frames) {
+        return Math.max(1, Math.min(nThreads, frames / MIN_FRAMES_PER_THREAD));
+    }
+
+    /**
+     * Splits [0, total) into {@link #parallelism(int)} contiguous blocks and waits for all of them.
+     *
+     * @return false if the pool was shut down, has no worker threads, or the caller was
+     * interrupted. No block is running by then, so the caller can safely redo the work into
+     * the same output.
+     */
+    public boolean runBlocks(int total, BlockTask task) {
+        if (executor == null || shutdown) {
+            return false;
+        }
+        int blocks = parallelism(total);
+        int blockSize = (total + blocks - 1) / blocks;
+        CountDownLatch done = new CountDownLatch(blocks);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // A block runs only if its worker claims it first; see abandon()
+        AtomicBoolean[] claimed = new AtomicBoolean[blocks];
+        for (int b = 0; b < blocks; b++) {
+            claimed[b] = new AtomicBoolean();
+        }
+
+        try {
+            for (int b = 0; b < blocks; b++) {
+                final int from = Math.min(total, b * blockSize);
+                final int to = Math.min(total, from + blockSize);
+                final AtomicBoolean mine = claimed[b];
+                executor.execute(() -> {
+                    if (!mine.compareAndSet(false, true)) {
+                        return;
+                    }
+                    try {
+                        task.run(from, to, (MelWorker) Thread.currentThread());
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Mel worker pool is shut down", e);
+            abandon(claimed, done);
+            return false;
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while waiting for mel workers", e);
+            abandon(claimed, done);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        if (failure.get() != null) {
+            throw new RuntimeException("Mel computation failed", failure.get());
+        }
+        return true;
+    }
+
+    // Takes back every block no worker has started (including ones dropped by shutdownNow)
+    // and waits for the running ones, so none of them writes to the output after we return
+    private static void abandon(AtomicBoolean[] claimed, CountDownLatch done) {
+        for (AtomicBoolean block : claimed) {
+            if (block.compareAndSet(false, true)) {
+                done.countDown();
+            }
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.domentiacare.service.whisper
+
+import android.content.Context
+import android.content.res.AssetFileDescriptor
+import android.content.res.AssetManager
+import android.util.Log
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+
+/**
+ * assets의 모델 파일을 outputDir로 설치 (Whisper 모델/어휘 파일)
+ * - 빌드 때 생성되는 asset_manifest.json(경로, 크기, sha256) 기준, 없으면 openFd 크기만으로 확인
+ * - "<이름>.part"에 복사하고 크기/체크섬 검증 후 원자적 rename → 복사 중 종료되어도 잘린 파일이 설치된 것으로 보이지 않음
+ * - 중단된 복사는 .part 끝부터 이어서 복사
+ * - 파일별 병렬 복사, 큰 direct 버퍼 사용 (압축 안 된 asset은 APK fd에서 바로 읽음)
+ * - 설치 결과를 상태 파일에 기록, isInstalled()는 APK 변경 여부와 파일 크기만 확인 (해시 계산 없음)
+ */
+class ModelAssetInstaller(
+    private val context: Context,
+    private val outputDir: File,
+    private val files: List<String>
+) {
+    private class Entry(val path: String, val size: Long, val sha256: String?)
+
+    private val assets: AssetManager = context.assets
+
+    /**
+     * 빠른 확인: 마지막 설치 이후 APK가 그대로이고 기록된 파일이 모두 같은 크기로 있으면 true
+     */
+    fun isInstalled(): Boolean {
+        val state = readState() ?: return false
+        if (state.optString("fingerprint") != apkFingerprint()) return false
+        val installed = previousEntries(state)
+        return files.all { path ->
+            val entry = installed[path] ?: return@all false
+            val target = File(outputDir, path)
+            target.isFile && target.length() == entry.size
+        }
+    }
+
+    /**
+     * 설치된 파일의 sha256 (설치 상태 기준), 설치되지 않았으면 null
+     */
+    fun installedChecksum(path: String): String? =
+        readState()?.let { previousEntries(it)[path]?.sha256 }
+
+    /**
+     * 없거나, 복사 중 끊겼거나, APK와 다른 파일만 복사
+     */
+    fun install() {
+        synchronized(INSTALL_LOCK) {
+            if (isInstalled()) return
+
+            val startTime = System.currentTimeMillis()
+            val manifest = loadManifest()
+            val state = readState()
+            val sameApk = state != null && state.optString("fingerprint") == apkFingerprint()
+            val previous = state?.let { previousEntries(it) } ?: emptyMap()
+
+            val installed = mutableListOf<Entry>()
+            val toCopy = mutableListOf<Entry>()
+            for (entry in manifest) {
+                val existing = checkExisting(entry, previous[entry.path], sameApk)
+                if (existing != null) installed.add(existing) else toCopy.add(entry)
+            }
+
+            installed.addAll(copyAll(toCopy.sortedByDescending { it.size }))
+            writeState(installed)
+            Log.d(TAG, "📦 모델 파일 ${toCopy.size}/${manifest.size}개 설치: ${System.currentTimeMillis() - startTime}ms")
+        }
+    }
+
+    // 이미 있는 파일을 그대로 쓸 수 있으면 그 항목, 다시 복사해야 하면 null
+    private fun checkExisting(entry: Entry, previous: Entry?, sameApk: Boolean): Entry? {
+        val target = File(outputDir, entry.path)
+        if (!target.isFile || (entry.size >= 0 && target.length() != entry.size)) return null
+
+        // 이전 설치에서 검증된 파일: 체크섬(없으면 APK)이 그대로면 같은 내용
+        if (previous?.sha256 != null && previous.size == target.length()) {
+            if (if (entry.sha256 != null) entry.sha256 == previous.sha256 else sameApk) return previous
+        }
+
+        // 상태 파일 없이 예전 방식으로 복사된 파일은 매니페스트 체크섬과 같을 때만 사용
+        if (entry.sha256 != null && entry.sha256 == hashFile(target)) return entry
+        return null
+    }
+
+    private fun copyAll(toCopy: List<Entry>): List<Entry> {
+        if (toCopy.isEmpty()) return emptyList()
+
+        val pool = Executors.newFixedThreadPool(minOf(toCopy.size, MAX_PARALLEL_COPIES))
+        try {
+            return toCopy.map { entry -> pool.submit<Entry> { copy(entry) } }.map { it.get() }
+        } catch (e: ExecutionException) {
+            throw e.cause as? IOException ?: IOException(e.cause)
+        } finally {
+            // 남은 복사는 .part로 남아 다음에 이어서 복사
+            pool.shutdownNow()
+        }
+    }
+
+    private fun copy(entry: Entry): Entry {
+        val target = File(outputDir, entry.path)
+        val part = File(target.path + PART_SUFFIX)
+        target.parentFile?.mkdirs()
+
+        // 체크섬이 없으면 오래된 .part를 구분할 수 없으므로 처음부터
+        var resumeFrom = if (part.isFile && entry.sha256 != null) part.length() else 0L
+        if (entry.size >= 0 && resumeFrom > entry.size) resumeFrom = 0L
+
+        val result = copyFrom(entry, part, resumeFrom)
+            ?: if (resumeFrom > 0) {
+                Log.w(TAG, "⚠️ 이어받은 ${entry.path} 검증 실패, 처음부터 다시 복사")
+                copyFrom(entry, part, 0L)
+            } else null
+        if (result == null) {
+            part.delete()
+            throw IOException("Verification failed for ${entry.path}")
+        }
+
+        Files.move(part.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+        return result
+    }
+
+    // offset부터 .part 뒤에 이어 쓰고 파일 전체 해시 계산, 매니페스트와 다르면 null
+    private fun copyFrom(entry: Entry, part: File, offset: Long): Entry? {
+        val digest = MessageDigest.getInstance("SHA-256")
+        val buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+
+        if (offset > 0) {
+            Log.d(TAG, "↪️ ${entry.path} ${offset}바이트부터 이어서 복사")
+            FileInputStream(part).channel.use { digestChannel(it, offset, digest, buffer) }
+        }
+
+        var total = offset
+        FileOutputStream(part, offset > 0).channel.use { out ->
+            val fd = openFd(entry.path)
+            if (fd != null) {
+                // 압축 안 된 asset: APK에서 위치 지정 읽기
+                val base = fd.startOffset
+                val length = fd.length
+                fd.createInputStream().use { apk ->
+                    val input = apk.channel
+                    while (total < length) {
+                        checkInterrupted()
+                        buffer.clear()
+                        buffer.limit(minOf(buffer.capacity().toLong(), length - total).toInt())
+                        if (input.read(buffer, base + total) < 0) break
+                        total += writeAndDigest(buffer, out, digest)
+                    }
+                }
+            } else {
+                assets.open(entry.path, AssetManager.ACCESS_STREAMING).use { stream ->
+                    var skip = offset
+                    while (skip > 0) {
+                        val skipped = stream.skip(skip)
+                        if (skipped <= 0) {
+                            if (stream.read() < 0) throw IOException("Asset shorter than partial copy")
+                            skip--
+                        } else {
+                            skip -= skipped
+                        }
+                    }
+                    val input = Channels.newChannel(stream)
+                    while (true) {
+                        checkInterrupted()
+                        buffer.clear()
+                        if (input.read(buffer) < 0) break
+                        total += writeAndDigest(buffer, out, digest)
+                    }
+                }
+            }
+            out.force(false)
+        }
+
+        val sha256 = digest.digest().toHex()
+        if ((entry.size >= 0 && total != entry.size) || (entry.sha256 != null && entry.sha256 != sha256)) return null
+        return Entry(entry.path, total, sha256)
+    }
+
+    // 매니페스트에서 이 설치기의 파일만, 매니페스트가 없으면 openFd 크기만 사용 (체크섬 검증 없음)
+    private fun loadManifest(): List<Entry> {
+        val text = try {
+            assets.open(MANIFEST_ASSET).bufferedReader().use { it.readText() }
+        } catch (e: FileNotFoundException) {
+            Log.w(TAG, "⚠️ $MANIFEST_ASSET 없음, 체크섬 검증 없이 설치")
+            return files.map { path -> Entry(path, openFd(path)?.use { it.length } ?: -1L, null) }
+        }
+
+        val manifest = previousEntries(JSONObject(text))
+        return files.map { path ->
+            manifest[path] ?: throw IOException("$path is missing from $MANIFEST_ASSET")
+        }
+    }
+
+    // 압축된 asset은 null (스트림으로 복사)
+    private fun openFd(path: String): AssetFileDescriptor? = try {
+        assets.openFd(path)
+    } catch (e: IOException) {
+        null
+    }
+
+    // APK(및 그 안의 assets)가 바뀔 때마다 달라지는 값
+    private fun apkFingerprint(): String =
+        context.packageManager.getPackageInfo(context.packageName, 0).lastUpdateTime.toString()
+
+    private fun readState(): JSONObject? {
+        val stateFile = File(outputDir, STATE_FILE)
+        if (!stateFile.isFile) return null
+        return try {
+            JSONObject(stateFile.readText())
+        } catch (e: Exception) {
+            Log.w(TAG, "⚠️ 설치 상태 파일을 읽을 수 없음: ${e.message}")
+            null
+        }
+    }
+
+    private fun writeState(installed: List<Entry>) {
+        val state = JSONObject()
+            .put("fingerprint", apkFingerprint())
+            .put("files", JSONArray().apply {
+                installed.forEach { entry ->
+                    put(JSONObject().put("path", entry.path).put("size", entry.size).put("sha256", entry.sha256))
+                }
+            })
+
+        val stateFile = File(outputDir, STATE_FILE)
+        val temp = File(outputDir, STATE_FILE + PART_SUFFIX)
+        FileOutputStream(temp).use { out ->
+            out.write(state.toString().toByteArray(Charsets.UTF_8))
+            out.fd.sync()
+        }
+        Files.move(temp.toPath(), stateFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+    }
+
+    companion object {
+        private const val TAG = "ModelAssetInstaller"
+
+        const val MANIFEST_ASSET = "asset_manifest.json"
+        private const val STATE_FILE = ".asset_install_state.json"
+        private const val PART_SUFFIX = ".part"
+        private const val BUFFER_SIZE = 8 * 1024 * 1024
+        private const val MAX_PARALLEL_COPIES = 4
+
+        // 같은 디렉토리에 여러 호출자가 동시에 설치하지 않도록
+        private val INSTALL_LOCK = Any()
+
+        // {"files": [{"path", "size", "sha256"}]} → 경로별 항목 (매니페스트와 상태 파일이 같은 형식)
+        private fun previousEntries(json: JSONObject): Map<String, Entry> {
+            val files = json.optJSONArray("files") ?: return emptyMap()
+            return (0 until files.length()).mapNotNull { files.optJSONObject(it) }.associate { file ->
+                val path = file.optString("path")
+                val sha256 = if (file.isNull("sha256")) null else file.optString("sha256")
+                path to Entry(path, file.optLong("size", -1), sha256)
+            }
+        }
+
+        private fun writeAndDigest(buffer: ByteBuffer, out: FileChannel, digest: MessageDigest): Int {
+            buffer.flip()
+            val count = buffer.remaining()
+            buffer.mark()
+            digest.update(buffer)
+            buffer.reset()
+            while (buffer.hasRemaining()) out.write(buffer)
+            return count
+        }
+
+        private fun digestChannel(input: FileChannel, length: Long, digest: MessageDigest, buffer: ByteBuffer) {
+            var position = 0L
+            while (position < length) {
+                buffer.clear()
+                buffer.limit(minOf(buffer.capacity().toLong(), length - position).toInt())
+                val read = input.read(buffer, position)
+                if (read < 0) throw IOException("Unexpected end of file while hashing")
+                buffer.flip()
+                digest.update(buffer)
+                position += read
+            }
+        }
+
+        private fun hashFile(file: File): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            FileInputStream(file).channel.use {
+                digestChannel(it, it.size(), digest, ByteBuffer.allocateDirect(BUFFER_SIZE))
+            }
+            return digest.digest().toHex()
+        }
+
+        private fun checkInterrupted() {
+            if (Thread.currentThread().isInterrupted) throw IOException("Asset copy interrupted")
+        }
+
+        private fun ByteArray.toHex(): String = joinToString("") { "%02x".format(it) }
+    }
+}
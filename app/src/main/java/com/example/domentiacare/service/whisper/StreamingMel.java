@@ -0,0 +1,183 @@
+package com.example.domentiacare.service.whisper;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Incremental log-mel spectrogram for live audio.
+ * <p>
+ * PCM samples go into a small ring buffer and every complete hop-length frame is turned into
+ * one mel column as soon as its samples arrive. Columns of the current window are kept, so a
+ * partial decode only costs the frames added since the previous one. A window holds at most
+ * {@link WhisperUtil#WHISPER_MEL_LEN} columns (30 seconds); the caller starts a new window once
+ * it is full.
+ */
+public class StreamingMel {
+    // log10 of the clamped power of silent (zero padded) frames
+    private static final float LOG_MEL_SILENCE = WhisperUtil.LOG_MEL_SILENCE;
+
+    private static final int RING_SIZE = 4096;
+
+    private final WhisperUtil mWhisperUtil;
+    private final WhisperFFT mFftPlan;
+    private final float[] mHann;
+
+    // PCM ring buffer, indexed by absolute sample position % RING_SIZE
+    private final float[] mRing = new float[RING_SIZE];
+    private long mTotalSamples = 0;
+
+    // Log-mel columns of the current window, column-major (WHISPER_N_MEL values per column)
+    private final float[] mColumns = new float[WhisperUtil.WHISPER_MEL_LEN * WhisperUtil.WHISPER_N_MEL];
+    private long mFramesDone = 0;
+    private long mWindowStartFrame = 0;
+    private int mWindowFrames = WhisperUtil.WHISPER_MEL_LEN;
+
+    // Scratch for one frame
+    private final float[] mFftIn;
+    private final float[] mFftOut;
+    private final WhisperFFT.Workspace mWorkspace;
+
+    public StreamingMel(WhisperUtil whisperUtil) {
+        mWhisperUtil = whisperUtil;
+        mFftPlan = whisperUtil.getFftPlan();
+        mHann = whisperUtil.getHannWindow();
+        mFftIn = new float[mFftPlan.size()];
+        mFftOut = new float[mFftPlan.bins()];
+        mWorkspace = mFftPlan.newWorkspace();
+    }
+
+    /**
+     * Appends samples and computes every frame they complete.
+     * Stops early when the current window is full.
+     *
+     * @return number of samples consumed from {@code samples}
+     */
+    public int append(float[] samples, int offset, int length) {
+        int consumed = 0;
+        while (consumed < length && !isWindowFull()) {
+            // Keep every sample the next frame still needs
+            long nextFrameStart = mFramesDone * WhisperUtil.WHISPER_HOP_LENGTH;
+            int free = RING_SIZE - (int) (mTotalSamples - nextFrameStart);
+            int count = Math.min(free, length - consumed);
+            for (int i = 0; i < count; i++) {
+                mRing[(int) ((mTotalSamples + i) % RING_SIZE)] = samples[offset + consumed + i];
+            }
+            mTotalSamples += count;
+            consumed += count;
+
+            computeAvailableFrames();
+        }
+        return consumed;
+    }
+
+    /**
+     * Ends the audio: computes the frames that start before its end but run past it, with the
+     * missing samples as zeros (the padding getMelSpectrogram applies to a file), so a tail
+     * shorter than one hop isn't dropped. Stops early when the current window is full; call
+     * again after starting a new window. No samples may be appended afterwards until reset().
+     *
+     * @return true once every frame of the audio has been computed
+     */
+    public boolean flush() {
+        while (mFramesDone * WhisperUtil.WHISPER_HOP_LENGTH < mTotalSamples) {
+            if (isWindowFull()) {
+                return false;
+            }
+            computeFrame();
+        }
+        return true;
+    }
+
+    // Number of mel columns in the current window
+    public int getWindowFrames() {
+        return (int) (mFramesDone - mWindowStartFrame);
+    }
+
+    public boolean isWindowFull() {
+        return getWindowFrames() >= mWindowFrames;
+    }
+
+    // Window length in frames, at most WHISPER_MEL_LEN (30 seconds)
+    public void setWindowFrames(int windowFrames) {
+        if (windowFrames <= 0 || windowFrames > WhisperUtil.WHISPER_MEL_LEN) {
+            throw new IllegalArgumentException("Invalid window length: " + windowFrames);
+        }
+        mWindowFrames = windowFrames;
+    }
+
+    // Starts a new (empty) window at the next frame
+    public void startNewWindow() {
+        startNewWindow(0);
+    }
+
+    /**
+     * Starts a new window that repeats the last overlapFrames columns of the current one.
+     * Those columns are still in the column ring because a window never exceeds its size.
+     */
+    public void startNewWindow(int overlapFrames) {
+        int keep = Math.max(0, Math.min(overlapFrames, getWindowFrames() - 1));
+        mWindowStartFrame = mFramesDone - keep;
+    }
+
+    public void reset() {
+        mTotalSamples = 0;
+        mFramesDone = 0;
+        mWindowStartFrame = 0;
+        Arrays.fill(mRing, 0.0f);
+    }
+
+    /**
+     * Writes the normalized model input (WHISPER_N_MEL x WHISPER_MEL_LEN, band-major) for the
+     * current window into dst with absolute puts; columns after the last computed frame are
+     * treated as silence.
+     */
+    public void fillModelInput(FloatBuffer dst) {
+        int melLen = WhisperUtil.WHISPER_MEL_LEN;
+        int nMel = WhisperUtil.WHISPER_N_MEL;
+        int frames = getWindowFrames();
+        float max = LOG_MEL_SILENCE;
+
+        for (int c = 0; c < melLen; c++) {
+            if (c < frames) {
+                int src = (int) ((mWindowStartFrame + c) % melLen) * nMel;
+                for (int j = 0; j < nMel; j++) {
+                    float value = mColumns[src + j];
+                    dst.put(j * melLen + c, value);
+                    max = Math.max(max, value);
+                }
+            } else {
+                for (int j = 0; j < nMel; j++) {
+                    dst.put(j * melLen + c, LOG_MEL_SILENCE);
+                }
+            }
+        }
+
+        WhisperUtil.normalizeLogMel(dst, nMel * melLen, max);
+    }
+
+    private void computeAvailableFrames() {
+        while (!isWindowFull()) {
+            long start = mFramesDone * WhisperUtil.WHISPER_HOP_LENGTH;
+            if (start + WhisperUtil.WHISPER_N_FFT > mTotalSamples) {
+                break;
+            }
+            computeFrame();
+        }
+    }
+
+    // Computes the next frame; samples not received yet count as zeros
+    private void computeFrame() {
+        int fftSize = WhisperUtil.WHISPER_N_FFT;
+        long start = mFramesDone * WhisperUtil.WHISPER_HOP_LENGTH;
+
+        // apply Hanning window
+        for (int j = 0; j < fftSize; j++) {
+            long pos = start + j;
+            mFftIn[j] = pos < mTotalSamples ? mHann[j] * mRing[(int) (pos % RING_SIZE)] : 0.0f;
+        }
+
+        int column = (int) (mFramesDone % WhisperUtil.WHISPER_MEL_LEN) * WhisperUtil.WHISPER_N_MEL;
+        mWhisperUtil.logMelFrame(mFftIn, mFftOut, mWorkspace, mColumns, column);
+        mFramesDone++;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.domentiacare.service.whisper;
+
+/**
+ * Result of a {@link TranscriptionRequest}.
+ */
+public class Transcript {
+    public final String text;
+    public final long queuedMillis;     // time between submit and the start of inference
+    public final long processingMillis; // time spent in the engine
+
+    Transcript(String text, long queuedMillis, long processingMillis) {
+        this.text = text;
+        this.queuedMillis = queuedMillis;
+        this.processingMillis = processingMillis;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.domentiacare.service.whisper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Joins the transcripts of overlapping audio windows.
+ * Words spoken inside the overlap show up at the end of one window and at the start of the
+ * next one; the longest such suffix/prefix match is dropped from the incoming text.
+ */
+public class TranscriptStitcher {
+    // Bounds for the suffix/prefix search (in words)
+    private static final int MIN_OVERLAP_WORDS = 2;
+    private static final int MAX_OVERLAP_WORDS = 24;
+
+    private final List<String> mWords = new ArrayList<>();
+    private final List<String> mKeys = new ArrayList<>();
+
+    public void append(String text) {
+        if (text == null) {
+            return;
+        }
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) {
+            return;
+        }
+
+        String[] words = trimmed.split("\\s+");
+        String[] keys = new String[words.length];
+        for (int i = 0; i < words.length; i++) {
+            keys[i] = normalize(words[i]);
+        }
+
+        int skip = findOverlap(keys);
+        for (int i = skip; i < words.length; i++) {
+            mWords.add(words[i]);
+            mKeys.add(keys[i]);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mWords.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.join(" ", mWords);
+    }
+
+    // Longest k such that the last k stored words equal the first k incoming words
+    private int findOverlap(String[] keys) {
+        int max = Math.min(MAX_OVERLAP_WORDS, Math.min(mKeys.size(), keys.length));
+        for (int k = max; k >= MIN_OVERLAP_WORDS; k--) {
+            int start = mKeys.size() - k;
+            boolean match = true;
+            for (int i = 0; i < k; i++) {
+                if (!mKeys.get(start + i).equals(keys[i])) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return k;
+            }
+        }
+        return 0;
+    }
+
+    // Compare words without case and punctuation (letters include Hangul)
+    private static String normalize(String word) {
+        StringBuilder sb = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.domentiacare.service.whisper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One transcription job for {@link Whisper#submit(TranscriptionRequest)}.
+ * The audio is either a WAV file or PCM that is still being decoded into an {@link AudioRingBuffer}.
+ */
+public class TranscriptionRequest {
+
+    public static final long NO_TIMEOUT = 0;
+
+    final String mWavFilePath;
+    final AudioRingBuffer mStream;
+    Whisper.Action mAction = Whisper.ACTION_TRANSCRIBE;
+    Whisper.WhisperListener mListener;
+    long mTimeoutMillis = NO_TIMEOUT;
+
+    private TranscriptionRequest(String wavFilePath, AudioRingBuffer stream) {
+        mWavFilePath = wavFilePath;
+        mStream = stream;
+    }
+
+    public static TranscriptionRequest file(String wavFilePath) {
+        if (wavFilePath == null) {
+            throw new IllegalArgumentException("File path is null");
+        }
+        return new TranscriptionRequest(wavFilePath, null);
+    }
+
+    // The producer keeps writing while the job waits in the queue; the ring is closed when the job times out
+    public static TranscriptionRequest stream(AudioRingBuffer input) {
+        if (input == null) {
+            throw new IllegalArgumentException("Input is null");
+        }
+        return new TranscriptionRequest(null, input);
+    }
+
+    public TranscriptionRequest setAction(Whisper.Action action) {
+        mAction = action;
+        return this;
+    }
+
+    // Progress and result of this job only
+    public TranscriptionRequest setListener(Whisper.WhisperListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Fails the job with a {@link java.util.concurrent.TimeoutException} if it hasn't finished in time,
+     * counted from submission (time spent in the queue included).
+     */
+    public TranscriptionRequest setTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + timeout);
+        }
+        mTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    String describe() {
+        return mWavFilePath != null ? mWavFilePath : "stream";
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.domentiacare.service.whisper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming voice activity detection in front of the mel spectrogram.
+ * <p>
+ * Audio is split into 20 ms frames. A frame counts as speech when its energy is clearly above an
+ * adaptive noise floor and above an absolute floor. The zero-crossing rate is used twice:
+ * broadband hiss (very high rate) is not speech, and steady tones such as ring-back (stable
+ * energy and rate) are not speech either. A segment is only confirmed after its first 300 ms,
+ * so a tone burst is dropped before any of it is passed on.
+ * <p>
+ * Only speech, with a little padding before and after each segment, is passed on to the sink.
+ * Segments are separated by a short gap of silence. Silent stretches therefore never reach the
+ * mel/encoder, and the remaining speech is packed into as few 30-second windows as possible.
+ */
+public class VoiceActivityDetector {
+
+    /**
+     * Receives the packed speech samples.
+     */
+    public interface Sink {
+        void write(float[] samples, int offset, int count);
+    }
+
+    /**
+     * A detected speech segment, in samples of the original audio (end exclusive).
+     */
+    public static class Segment {
+        public final long start;
+        public final long end;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    public static final int FRAME_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE / 50; // 20 ms
+
+    // Energy thresholds in dBFS
+    private static final float SPEECH_ABOVE_NOISE_DB = 9.0f;
+    private static final float ABSOLUTE_FLOOR_DB = -55.0f;
+    private static final float NOISE_RISE_DB_PER_FRAME = 0.02f; // the floor follows louder noise slowly (1 dB/s)
+    private static final float MAX_SPEECH_ZCR = 0.45f;          // crossings per sample, above this it is hiss
+
+    // Tone rejection: this many frames with nearly constant energy and crossing count.
+    // Also the confirmation delay of a new segment.
+    private static final int TONE_FRAMES = 15;                  // 300 ms
+    private static final float TONE_ENERGY_RANGE_DB = 3.0f;
+    private static final int TONE_ZCR_RANGE = 2;
+
+    // Segment shaping, in frames
+    private static final int ONSET_FRAMES = 3;      // 60 ms of speech starts a segment
+    private static final int PRE_ROLL_FRAMES = 10;  // 200 ms kept before the onset
+    private static final int HANGOVER_FRAMES = 20;  // 400 ms kept after the last speech frame
+
+    // Silence inserted between packed segments so the model still sees a pause
+    public static final int GAP_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE * 3 / 10;
+
+    private final float[] mFrame = new float[FRAME_SAMPLES];
+    private int mFrameFill = 0;
+
+    // Frames not yet passed on: pre-roll while silent, plus the frames of an unconfirmed segment
+    private final float[][] mPending = new float[PRE_ROLL_FRAMES + TONE_FRAMES][FRAME_SAMPLES];
+    private int mPendingCount = 0;
+    private int mPendingStart = 0;
+
+    // Recent energies and crossing counts for tone rejection
+    private final float[] mRecentEnergy = new float[TONE_FRAMES];
+    private final int[] mRecentZcr = new int[TONE_FRAMES];
+
+    private long mFrames = 0;
+    private float mNoiseFloor = Float.NaN;
+    private boolean mInSpeech = false;
+    private int mOnsetRun = 0;
+    private int mCandidateFrames = 0; // > 0 while a new segment waits for confirmation
+    private int mSilenceRun = 0;
+    private long mSegmentStart = 0;
+
+    private final float[] mGap = new float[GAP_SAMPLES];
+    private final List<Segment> mSegments = new ArrayList<>();
+    private long mSamplesIn = 0;
+    private long mSamplesOut = 0;
+
+    /**
+     * Feeds samples; speech is written to the sink as soon as it is detected.
+     */
+    public void feed(float[] samples, int offset, int count, Sink sink) {
+        mSamplesIn += count;
+        int end = offset + count;
+        while (offset < end) {
+            int n = Math.min(FRAME_SAMPLES - mFrameFill, end - offset);
+            System.arraycopy(samples, offset, mFrame, mFrameFill, n);
+            mFrameFill += n;
+            offset += n;
+            if (mFrameFill == FRAME_SAMPLES) {
+                processFrame(sink);
+                mFrameFill = 0;
+            }
+        }
+    }
+
+    /**
+     * Ends the input: closes an open segment (including a partial last frame).
+     */
+    public void finish(Sink sink) {
+        if (mCandidateFrames > 0 && !isSteadyTone()) {
+            startSegment(sink);
+        }
+        if (mInSpeech) {
+            if (mFrameFill > 0) {
+                emit(mFrame, mFrameFill, sink);
+            }
+            mSegments.add(new Segment(mSegmentStart, mSamplesIn));
+            mInSpeech = false;
+        }
+        mFrameFill = 0;
+        mPendingCount = 0;
+        mCandidateFrames = 0;
+    }
+
+    /**
+     * Runs the detector over a whole clip.
+     *
+     * @return packed speech, empty if the clip has no speech
+     */
+    public float[] pack(float[] samples) {
+        final float[][] out = {new float[Math.min(samples.length, WhisperUtil.WHISPER_SAMPLE_RATE * 60)]};
+        final int[] size = {0};
+        Sink sink = (buf, off, n) -> {
+            if (size[0] + n > out[0].length) {
+                out[0] = Arrays.copyOf(out[0], Math.max(size[0] + n, out[0].length * 2));
+            }
+            System.arraycopy(buf, off, out[0], size[0], n);
+            size[0] += n;
+        };
+        feed(samples, 0, samples.length, sink);
+        finish(sink);
+        return Arrays.copyOf(out[0], size[0]);
+    }
+
+    public List<Segment> getSegments() {
+        return mSegments;
+    }
+
+    public boolean hasSpeech() {
+        return !mSegments.isEmpty() || mInSpeech;
+    }
+
+    public long getSamplesIn() {
+        return mSamplesIn;
+    }
+
+    public long getSamplesOut() {
+        return mSamplesOut;
+    }
+
+    private void processFrame(Sink sink) {
+        boolean speech = isSpeech(mFrame);
+        long frameStart = mFrames * FRAME_SAMPLES;
+        mFrames++;
+
+        if (mInSpeech) {
+            emit(mFrame, FRAME_SAMPLES, sink);
+            mSilenceRun = speech ? 0 : mSilenceRun + 1;
+            if (mSilenceRun >= HANGOVER_FRAMES) {
+                mSegments.add(new Segment(mSegmentStart, frameStart + FRAME_SAMPLES));
+                mInSpeech = false;
+                mOnsetRun = 0;
+            }
+            return;
+        }
+
+        pushPending(mFrame);
+        if (mCandidateFrames > 0) {
+            // Confirm once the candidate covers a whole tone window: a steady tone is dropped
+            if (++mCandidateFrames < TONE_FRAMES) {
+                return;
+            }
+            mCandidateFrames = 0;
+            mOnsetRun = 0;
+            if (!isSteadyTone()) {
+                startSegment(sink);
+            }
+            return;
+        }
+
+        mOnsetRun = speech ? mOnsetRun + 1 : 0;
+        if (mOnsetRun >= ONSET_FRAMES) {
+            mCandidateFrames = mOnsetRun;
+        }
+    }
+
+    // Segment starts: flush pre-roll and candidate frames
+    private void startSegment(Sink sink) {
+        mInSpeech = true;
+        mSilenceRun = 0;
+        mCandidateFrames = 0;
+        mSegmentStart = mFrames * FRAME_SAMPLES - (long) mPendingCount * FRAME_SAMPLES;
+        if (!mSegments.isEmpty()) {
+            emit(mGap, GAP_SAMPLES, sink);
+        }
+        for (int i = 0; i < mPendingCount; i++) {
+            emit(mPending[(mPendingStart + i) % mPending.length], FRAME_SAMPLES, sink);
+        }
+        mPendingCount = 0;
+    }
+
+    private boolean isSpeech(float[] frame) {
+        double power = 0;
+        int crossings = 0;
+        for (int i = 0; i < FRAME_SAMPLES; i++) {
+            power += frame[i] * frame[i];
+            if (i > 0 && (frame[i] >= 0) != (frame[i - 1] >= 0)) {
+                crossings++;
+            }
+        }
+        float energy = (float) (10 * Math.log10(power / FRAME_SAMPLES + 1e-10));
+
+        // The floor drops to quiet frames at once and rises slowly, so speech does not pull it up
+        if (Float.isNaN(mNoiseFloor) || energy < mNoiseFloor) {
+            mNoiseFloor = energy;
+        } else {
+            mNoiseFloor = Math.min(energy, mNoiseFloor + NOISE_RISE_DB_PER_FRAME);
+        }
+
+        int slot = (int) (mFrames % TONE_FRAMES);
+        mRecentEnergy[slot] = energy;
+        mRecentZcr[slot] = crossings;
+
+        if (energy < ABSOLUTE_FLOOR_DB || energy < mNoiseFloor + SPEECH_ABOVE_NOISE_DB) {
+            return false;
+        }
+        if ((float) crossings / FRAME_SAMPLES > MAX_SPEECH_ZCR) {
+            return false;
+        }
+        return !isSteadyTone();
+    }
+
+    // Ring-back and hold tones: energy and crossing count barely change over TONE_FRAMES frames
+    private boolean isSteadyTone() {
+        if (mFrames < TONE_FRAMES) {
+            return false;
+        }
+        float minEnergy = Float.MAX_VALUE;
+        float maxEnergy = -Float.MAX_VALUE;
+        int minZcr = Integer.MAX_VALUE;
+        int maxZcr = Integer.MIN_VALUE;
+        for (int i = 0; i < TONE_FRAMES; i++) {
+            minEnergy = Math.min(minEnergy, mRecentEnergy[i]);
+            maxEnergy = Math.max(maxEnergy, mRecentEnergy[i]);
+            minZcr = Math.min(minZcr, mRecentZcr[i]);
+            maxZcr = Math.max(maxZcr, mRecentZcr[i]);
+        }
+        return maxEnergy - minEnergy <= TONE_ENERGY_RANGE_DB && maxZcr - minZcr <= TONE_ZCR_RANGE;
+    }
+
+    private void pushPending(float[] frame) {
+        int index;
+        if (mPendingCount < mPending.length) {
+            index = (mPendingStart + mPendingCount) % mPending.length;
+            mPendingCount++;
+        } else {
+            // Oldest frame falls out of the pre-roll
+            index = mPendingStart;
+            mPendingStart = (mPendingStart + 1) % mPending.length;
+        }
+        System.arraycopy(frame, 0, mPending[index], 0, FRAME_SAMPLES);
+    }
+
+    private void emit(float[] samples, int count, Sink sink) {
+        mSamplesOut += count;
+        sink.write(samples, 0, count);
+    }
+}
@@ -5,19 +5,38 @@ import android.util.Log;
 
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transcription jobs are queued with {@link #submit(TranscriptionRequest)} and run by one worker
+ * thread per engine (interpreter instance). Each job carries its own audio, action and listener,
+ * so concurrent callers never share state; a full queue or a timeout fails the job's future
+ * instead of leaving the caller waiting.
+ */
 public class Whisper {
 
     public interface WhisperListener {
         void onUpdateReceived(String message);
         void onResultReceived(String result);
+
+        // Interim text of a live (buffer) transcription; the final text arrives via onResultReceived
+        default void onPartialResultReceived(String partial) {
+        }
     }
 
     private static final String TAG = "Whisper";
@@ -28,37 +47,103 @@ public class Whisper {
     public static final Action ACTION_TRANSCRIBE = Action.TRANSCRIBE;
     public static final Action ACTION_TRANSLATE = Action.TRANSLATE;
 
-    private enum Action {
+    public static final int DEFAULT_ENGINES = 1;
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    public enum Action {
         TRANSLATE, TRANSCRIBE
     }
 
-    private final AtomicBoolean mInProgress = new AtomicBoolean(false);
-    private final Queue<float[]> audioBufferQueue = new LinkedList<>();
+    // Creates one engine (interpreter instance); numThreads is its share of the CPU
+    public interface EngineFactory {
+        WhisperEngine create(int numThreads);
+    }
+
+    private static class Job {
+        final TranscriptionRequest request;
+        final CompletableFuture<Transcript> future = new CompletableFuture<>();
+        final long submitTime = System.currentTimeMillis();
+        volatile ScheduledFuture<?> timeout;
+        // Thread running the job, interrupted when it is cancelled or times out (guarded by the job)
+        Thread worker;
 
-    private final WhisperEngine mWhisperEngine;
-    private Action mAction;
-    private String mWavFilePath;
-    private WhisperListener mUpdateListener;
+        Job(TranscriptionRequest request) {
+            this.request = request;
+        }
+    }
+
+    // Live mic feed; END_OF_STREAM marks the end of an utterance
+    private static final float[] END_OF_STREAM = new float[0];
+    private final BlockingQueue<float[]> audioBufferQueue = new LinkedBlockingQueue<>();
 
-    private final Lock taskLock = new ReentrantLock();
-    private final Condition hasTask = taskLock.newCondition();
-    private volatile boolean taskAvailable = false;
+    // Live transcription runs on the first engine; queued jobs use all of them
+    private final WhisperEngine[] mEngines;
+    private final WhisperEngine mLiveEngine;
+    private volatile WhisperListener mLiveListener;
+
+    private final BlockingQueue<Job> mJobs;
+    private final AtomicInteger mRunningJobs = new AtomicInteger(0);
+    private final ScheduledExecutorService mTimeouts;
+    private volatile boolean mShutdown = false;
+
+    private final Thread[] mFileThreads;
+    private final Thread mBufferThread;
 
     public Whisper(Context context) {
-        this.mWhisperEngine = new WhisperEngineJava(context);
+        this(context, DEFAULT_ENGINES, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param engines       interpreter instances, i.e. jobs transcribed in parallel; the CPU threads are split between them
+     * @param queueCapacity jobs that may wait for a free engine, further submissions are rejected
+     */
+    public Whisper(Context context, int engines, int queueCapacity) {
+        this(engines, queueCapacity, numThreads -> {
+            WhisperEngineJava engine = new WhisperEngineJava(context);
+            engine.setNumThreads(numThreads);
+            return engine;
+        });
 //        this.mWhisperEngine = new WhisperEngineNative(context);
+    }
 
-        // Start thread for file transcription for file transcription
-        Thread threadTranscbFile = new Thread(this::transcribeFileLoop);
-        threadTranscbFile.start();
+    /**
+     * Same as {@link #Whisper(Context, int, int)} with engines from the given factory,
+     * e.g. {@link WhisperEngineSplit} for a model exported as separate encoder and decoder.
+     */
+    public Whisper(int engines, int queueCapacity, EngineFactory factory) {
+        if (engines < 1) {
+            throw new IllegalArgumentException("Invalid engine count: " + engines);
+        }
+        int threadsPerEngine = Math.max(1, Runtime.getRuntime().availableProcessors() / engines);
+        mEngines = new WhisperEngine[engines];
+        for (int i = 0; i < engines; i++) {
+            mEngines[i] = factory.create(threadsPerEngine);
+        }
+        mLiveEngine = mEngines[0];
+        mJobs = new ArrayBlockingQueue<>(queueCapacity);
+
+        mTimeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "whisper-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // One file transcription thread per engine, all taking jobs from the same queue
+        mFileThreads = new Thread[engines];
+        for (int i = 0; i < engines; i++) {
+            WhisperEngine engine = mEngines[i];
+            mFileThreads[i] = new Thread(() -> transcribeFileLoop(engine), "whisper-file-" + i);
+            mFileThreads[i].start();
+        }
 
         // Start thread for buffer transcription for live mic feed transcription
-        Thread threadTranscbBuffer = new Thread(this::transcribeBufferLoop);
-        threadTranscbBuffer.start();
+        mBufferThread = new Thread(this::transcribeBufferLoop, "whisper-buffer");
+        mBufferThread.start();
     }
 
+    // Listener of the live mic feed; file jobs use the listener of their request
     public void setListener(WhisperListener listener) {
-        this.mUpdateListener = listener;
+        this.mLiveListener = listener;
     }
 
     public void loadModel(File modelPath, File vocabPath, boolean isMultilingual) {
@@ -66,144 +151,299 @@ public class Whisper {
     }
 
     public void loadModel(String modelPath, String vocabPath, boolean isMultilingual) {
-        try {
-            mWhisperEngine.initialize(modelPath, vocabPath, isMultilingual);
-        } catch (IOException e) {
-            Log.e(TAG, "Error initializing model...", e);
-            sendUpdate("Model initialization failed");
+        for (WhisperEngine engine : mEngines) {
+            synchronized (engine) {
+                try {
+                    engine.initialize(modelPath, vocabPath, isMultilingual);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error initializing model...", e);
+                    sendLiveUpdate("Model initialization failed");
+                    return;
+                }
+            }
         }
     }
 
-    public void unloadModel() {
-        mWhisperEngine.deinitialize();
+    // Spoken language for multilingual models (e.g. "ko"), null to let the model detect it
+    public void setLanguage(String language) {
+        for (WhisperEngine engine : mEngines) {
+            synchronized (engine) {
+                engine.setLanguage(language);
+            }
+        }
     }
 
-    public void setAction(Action action) {
-        this.mAction = action;
+    public void unloadModel() {
+        for (WhisperEngine engine : mEngines) {
+            synchronized (engine) {
+                engine.deinitialize();
+            }
+        }
     }
 
-    public void setFilePath(String wavFile) {
-        this.mWavFilePath = wavFile;
+    // Stops all worker threads, cancels queued jobs and releases the model; the instance can't be used afterwards
+    public void shutdown() {
+        mShutdown = true;
+        for (Thread thread : mFileThreads) {
+            thread.interrupt();
+        }
+        mBufferThread.interrupt();
+        stop();
+        mTimeouts.shutdownNow();
+        unloadModel();
     }
 
-    public void start() {
-        if (!mInProgress.compareAndSet(false, true)) {
-            Log.d(TAG, "Execution is already in progress...");
-            return;
+    /**
+     * Queues a transcription job.
+     *
+     * @return completes with the transcript, or exceptionally when the queue is full
+     * ({@link RejectedExecutionException}), the job times out ({@link TimeoutException}),
+     * the file doesn't exist ({@link FileNotFoundException}) or the transcription fails.
+     * Cancelling the future (or a timeout) removes a queued job, stops reading a streamed one and
+     * stops a running transcription before its next window.
+     */
+    public CompletableFuture<Transcript> submit(TranscriptionRequest request) {
+        Job job = new Job(request);
+        job.future.whenComplete((transcript, error) -> onJobComplete(job, error));
+
+        if (mShutdown) {
+            job.future.completeExceptionally(new RejectedExecutionException("Whisper is shut down"));
+            return job.future;
         }
-        taskLock.lock();
-        try {
-            taskAvailable = true;
-            hasTask.signal();
-        } finally {
-            taskLock.unlock();
+        if (request.mTimeoutMillis > 0) {
+            job.timeout = mTimeouts.schedule(
+                    () -> job.future.completeExceptionally(new TimeoutException(
+                            "Transcription of " + request.describe() + " timed out after " + request.mTimeoutMillis + "ms")),
+                    request.mTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        if (!mJobs.offer(job)) {
+            job.future.completeExceptionally(new RejectedExecutionException(
+                    "Transcription queue is full (" + mJobs.size() + " waiting)"));
         }
+        return job.future;
     }
 
+    // Cancels all queued jobs; running jobs finish
     public void stop() {
-        mInProgress.set(false);
+        List<Job> pending = new ArrayList<>();
+        mJobs.drainTo(pending);
+        for (Job job : pending) {
+            job.future.cancel(false);
+        }
     }
 
     public boolean isInProgress() {
-        return mInProgress.get();
+        return mRunningJobs.get() > 0 || !mJobs.isEmpty();
+    }
+
+    private void onJobComplete(Job job, Throwable error) {
+        ScheduledFuture<?> timeout = job.timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        if (error == null) {
+            return;
+        }
+
+        // Failed, timed out or cancelled: drop it from the queue, stop the engine between windows
+        // if it is running and stop the producer of a stream
+        mJobs.remove(job);
+        synchronized (job) {
+            if (job.worker != null) {
+                job.worker.interrupt();
+            }
+        }
+        if (job.request.mStream != null) {
+            job.request.mStream.close();
+        }
+        if (error instanceof FileNotFoundException) {
+            sendUpdate(job, MSG_FILE_NOT_FOUND);
+        } else if (!(error instanceof CancellationException)) {
+            Log.w(TAG, "Transcription of " + job.request.describe() + " failed: " + error.getMessage());
+            sendUpdate(job, "Transcription failed: " + error.getMessage());
+        }
     }
 
-    private void transcribeFileLoop() {
+    private void transcribeFileLoop(WhisperEngine engine) {
         while (!Thread.currentThread().isInterrupted()) {
-            taskLock.lock();
+            Job job;
             try {
-                while (!taskAvailable) {
-                    hasTask.await();
-                }
-                transcribeFile();
-                taskAvailable = false;
+                job = mJobs.take();
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-            } finally {
-                taskLock.unlock();
+                return;
+            }
+            // Timed out or cancelled while waiting
+            if (job.future.isDone()) {
+                continue;
             }
+
+            transcribe(engine, job);
         }
     }
 
-    private void transcribeFile() {
+    private void transcribe(WhisperEngine engine, Job job) {
+        long startTime = System.currentTimeMillis();
+        String result = null;
+        Exception error = null;
+        mRunningJobs.incrementAndGet();
+        synchronized (job) {
+            job.worker = Thread.currentThread();
+        }
         try {
-            if (mWhisperEngine.isInitialized() && mWavFilePath != null) {
-                File waveFile = new File(mWavFilePath);
-                if (waveFile.exists()) {
-                    long startTime = System.currentTimeMillis();
-                    sendUpdate(MSG_PROCESSING);
-
-                    String result = null;
-                    synchronized (mWhisperEngine) {
-                        if (mAction == Action.TRANSCRIBE) {
-                            result = mWhisperEngine.transcribeFile(mWavFilePath);
-                        } else {
-//                            result = mWhisperEngine.getTranslation(mWavFilePath);
-                            Log.d(TAG, "TRANSLATE feature is not implemented");
-                        }
-                    }
-                    sendResult(result);
-
-                    long timeTaken = System.currentTimeMillis() - startTime;
-                    Log.d(TAG, "Time Taken for transcription: " + timeTaken + "ms");
-                    sendUpdate(MSG_PROCESSING_DONE);
-                } else {
-                    sendUpdate(MSG_FILE_NOT_FOUND);
-                }
-            } else {
-                sendUpdate("Engine not initialized or file path not set");
+            // Cancelled between take() and here: onJobComplete couldn't interrupt us yet
+            if (!job.future.isDone()) {
+                result = runEngine(engine, job);
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error during transcription", e);
-            sendUpdate("Transcription failed: " + e.getMessage());
+            error = e;
         } finally {
-            mInProgress.set(false);
+            synchronized (job) {
+                job.worker = null;
+            }
+            // An interrupt meant for this job must not stop the next one (shutdown keeps it)
+            if (job.future.isDone() && Thread.interrupted() && mShutdown) {
+                Thread.currentThread().interrupt();
+            }
+            // Stop counting the job before anyone hears about it, so a listener that checks
+            // isInProgress() or starts the next file right away sees this one as finished
+            mRunningJobs.decrementAndGet();
+        }
+
+        if (error != null) {
+            Log.e(TAG, "Error during transcription", error);
+            job.future.completeExceptionally(error);
+            return;
+        }
+
+        long timeTaken = System.currentTimeMillis() - startTime;
+        Log.d(TAG, "Time Taken for transcription: " + timeTaken + "ms (queued " + (startTime - job.submitTime) + "ms)");
+        // A job that timed out meanwhile keeps its TimeoutException
+        if (job.future.complete(new Transcript(result, startTime - job.submitTime, timeTaken))) {
+            sendResult(job, result);
+            sendUpdate(job, MSG_PROCESSING_DONE);
         }
     }
 
-    private void sendUpdate(String message) {
-        if (mUpdateListener != null) {
-            mUpdateListener.onUpdateReceived(message);
+    private String runEngine(WhisperEngine engine, Job job) throws Exception {
+        TranscriptionRequest request = job.request;
+        if (request.mAction != Action.TRANSCRIBE) {
+//            result = engine.getTranslation(request.mWavFilePath);
+            throw new UnsupportedOperationException("TRANSLATE feature is not implemented");
+        }
+        if (request.mWavFilePath != null && !new File(request.mWavFilePath).exists()) {
+            throw new FileNotFoundException(request.mWavFilePath);
+        }
+        sendUpdate(job, MSG_PROCESSING);
+
+        synchronized (engine) {
+            if (!engine.isInitialized()) {
+                throw new IllegalStateException("Engine not initialized");
+            }
+            if (request.mWavFilePath != null) {
+                return engine.transcribeFile(request.mWavFilePath);
+            }
+            return engine.transcribeStream(request.mStream);
         }
     }
 
-    private void sendResult(String message) {
-        if (mUpdateListener != null) {
-            mUpdateListener.onResultReceived(message);
+    private void sendUpdate(Job job, String message) {
+        WhisperListener listener = job.request.mListener;
+        if (listener != null) {
+            listener.onUpdateReceived(message);
+        }
+    }
+
+    private void sendResult(Job job, String message) {
+        WhisperListener listener = job.request.mListener;
+        if (listener != null) {
+            listener.onResultReceived(message);
         }
     }
 
     /////////////////////// Live MIC feed transcription calls /////////////////////////////////
     private void transcribeBufferLoop() {
+        List<float[]> pending = new ArrayList<>();
         while (!Thread.currentThread().isInterrupted()) {
-            float[] samples = readBuffer();
-            if (samples != null) {
-                synchronized (mWhisperEngine) {
-                    String result = mWhisperEngine.transcribeBuffer(samples);
-                    sendResult(result);
+            try {
+                // Wait for audio, then take everything queued meanwhile so decodes keep up with the mic
+                if (pending.isEmpty()) {
+                    pending.add(audioBufferQueue.take());
                 }
+                audioBufferQueue.drainTo(pending);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            // Merge chunks up to the first end-of-stream marker; later chunks belong to the next utterance
+            int used = 0;
+            int total = 0;
+            boolean endOfStream = false;
+            while (used < pending.size()) {
+                float[] chunk = pending.get(used++);
+                if (chunk == END_OF_STREAM) {
+                    endOfStream = true;
+                    break;
+                }
+                total += chunk.length;
+            }
+
+            float[] samples = new float[total];
+            int offset = 0;
+            for (int i = 0; i < used; i++) {
+                float[] chunk = pending.get(i);
+                System.arraycopy(chunk, 0, samples, offset, chunk.length);
+                offset += chunk.length;
+            }
+            pending.subList(0, used).clear();
+
+            try {
+                synchronized (mLiveEngine) {
+                    if (!mLiveEngine.isInitialized()) {
+                        sendLiveUpdate("Engine not initialized");
+                        continue;
+                    }
+                    if (endOfStream) {
+                        sendLiveResult(mLiveEngine.finishBuffer(samples));
+                    } else {
+                        sendPartialResult(mLiveEngine.transcribeBuffer(samples));
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error during live transcription", e);
+                sendLiveUpdate("Transcription failed: " + e.getMessage());
             }
         }
     }
 
     public void writeBuffer(float[] samples) {
-        synchronized (audioBufferQueue) {
-            audioBufferQueue.add(samples);
-            audioBufferQueue.notify();
+        audioBufferQueue.add(samples);
+    }
+
+    // Ends the current live utterance; the final text is delivered through onResultReceived
+    public void finishBuffer() {
+        audioBufferQueue.add(END_OF_STREAM);
+    }
+
+    private void sendLiveUpdate(String message) {
+        WhisperListener listener = mLiveListener;
+        if (listener != null) {
+            listener.onUpdateReceived(message);
         }
     }
 
-    private float[] readBuffer() {
-        synchronized (audioBufferQueue) {
-            while (audioBufferQueue.isEmpty()) {
-                try {
-                    audioBufferQueue.wait();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    return null;
-                }
-            }
-            return audioBufferQueue.poll();
+    private void sendLiveResult(String result) {
+        WhisperListener listener = mLiveListener;
+        if (listener != null) {
+            listener.onResultReceived(result);
+        }
+    }
+
+    private void sendPartialResult(String partial) {
+        WhisperListener listener = mLiveListener;
+        if (listener != null) {
+            listener.onPartialResultReceived(partial);
         }
     }
 }
@@ -6,6 +6,12 @@ public interface WhisperEngine {
     boolean isInitialized();
     boolean initialize(String modelPath, String vocabPath, boolean multilingual) throws IOException;
     void deinitialize();
+    // Spoken language for multilingual models (e.g. "ko"), null to detect it
+    void setLanguage(String language);
     String transcribeFile(String wavePath);
+    String transcribeStream(AudioRingBuffer input);
     String transcribeBuffer(float[] samples);
+    // Last samples of a live utterance: also decodes the partial tail, returns the final text and resets
+    String finishBuffer(float[] samples);
+    void resetBuffer();
 }
@@ -4,24 +4,65 @@ import android.content.Context;
 import android.util.Log;
 
 
-import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.InterpreterApi;
 import org.tensorflow.lite.Tensor;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class WhisperEngineJava implements WhisperEngine {
     private final String TAG = "WhisperEngineJava";
-    private final WhisperUtil mWhisperUtil = new WhisperUtil();
+
+    // Default sliding window for audio longer than one model input (30 seconds)
+    public static final float DEFAULT_WINDOW_SECONDS = WhisperUtil.WHISPER_CHUNK_SIZE;
+    public static final float DEFAULT_OVERLAP_SECONDS = 2.0f;
+
+    protected final WhisperUtil mWhisperUtil = new WhisperUtil();
 
     private final Context mContext;
     private boolean mIsInitialized = false;
-    private Interpreter mInterpreter = null;
+    private InterpreterApi mInterpreter = null;
+    private MelWorkerPool mMelPool = null;
+    private ExecutorService mMelPrefetchExecutor = null;
+
+    // Persistent, natively ordered model I/O buffers. There are two input slots so the mel of the
+    // next window can be written while the interpreter reads the current one.
+    private final ByteBuffer[] mInputBuffers = new ByteBuffer[2];
+    private final FloatBuffer[] mInputFloats = new FloatBuffer[2];
+    private ByteBuffer mOutputBuffer = null;
+    private IntBuffer mOutputTokens = null;
+    private int mOutputLen = 0;
+
+    // Live transcription state (see transcribeBuffer)
+    private static final int MIN_STREAM_DECODE_FRAMES = 50; // 0.5 seconds of audio
+
+    // Samples pulled from an AudioRingBuffer per read (see transcribeStream)
+    private static final int STREAM_READ_SAMPLES = 4096;
+    private StreamingMel mStreamingMel = null;
+    private final StringBuilder mStreamCommitted = new StringBuilder();
+
+    // Sliding window in samples; stride = window - overlap
+    private int mWindowSamples = toSamples(DEFAULT_WINDOW_SECONDS);
+    private int mOverlapSamples = toSamples(DEFAULT_OVERLAP_SECONDS);
+
+    // Drop silence/tones and pack speech before the mel (file and stream transcription)
+    private boolean mVadEnabled = true;
+
+    // Expected language of multilingual models (e.g. "ko"), null for auto-detection
+    protected String mLanguage = null;
+
+    // Threads for the interpreter and the mel workers; lowered when several engines share the CPU
+    private int mNumThreads = Runtime.getRuntime().availableProcessors();
 //    private GpuDelegate gpuDelegate;
 
     public WhisperEngineJava(Context context) {
@@ -39,6 +80,20 @@ public class WhisperEngineJava implements WhisperEngine {
         loadModel(modelPath);
         Log.d(TAG, "Model is loaded..." + modelPath);
 
+        // Long-lived worker pool for mel computation, reused by every transcription
+        if (mMelPool == null || mMelPool.isShutdown()) {
+            mMelPool = new MelWorkerPool(mNumThreads);
+        }
+
+        // Computes the mel of the next window while the interpreter runs the current one
+        if (mMelPrefetchExecutor == null || mMelPrefetchExecutor.isShutdown()) {
+            mMelPrefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "whisper-mel-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
         // Load filters and vocab
         boolean ret = mWhisperUtil.loadFiltersAndVocab(multilingual, vocabPath);
         if (ret) {
@@ -55,33 +110,338 @@ public class WhisperEngineJava implements WhisperEngine {
     // Unload the model by closing the interpreter
     @Override
     public void deinitialize() {
-        if (mInterpreter != null) {
-            mInterpreter.close();
-            mInterpreter = null; // Optional: Set to null to avoid accidental reuse
+        releaseModel();
+        if (mMelPool != null) {
+            mMelPool.shutdown();
+            mMelPool = null;
+        }
+        if (mMelPrefetchExecutor != null) {
+            mMelPrefetchExecutor.shutdownNow();
+            mMelPrefetchExecutor = null;
+        }
+    }
+
+    /**
+     * Configures the sliding window used for audio longer than one window.
+     *
+     * @param windowSeconds  audio per inference pass, at most {@link WhisperUtil#WHISPER_CHUNK_SIZE}
+     * @param overlapSeconds audio shared by consecutive windows, smaller than the window
+     */
+    public void setSlidingWindow(float windowSeconds, float overlapSeconds) {
+        if (windowSeconds <= 0 || windowSeconds > WhisperUtil.WHISPER_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid window length: " + windowSeconds);
+        }
+        if (overlapSeconds < 0 || overlapSeconds >= windowSeconds) {
+            throw new IllegalArgumentException("Invalid window overlap: " + overlapSeconds);
         }
+        mWindowSamples = toSamples(windowSeconds);
+        mOverlapSamples = toSamples(overlapSeconds);
+    }
+
+    /**
+     * Enables the voice activity detection stage (on by default). When enabled, only detected
+     * speech is transcribed, packed into as few windows as possible.
+     */
+    public void setVoiceActivityDetection(boolean enabled) {
+        mVadEnabled = enabled;
+    }
+
+    /**
+     * Sets the number of threads used by this engine; takes effect on the next {@link #initialize}.
+     */
+    public void setNumThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid thread count: " + threads);
+        }
+        mNumThreads = threads;
+    }
+
+    @Override
+    public void setLanguage(String language) {
+        mLanguage = language;
     }
 
     @Override
     public String transcribeFile(String wavePath) {
-        // Calculate Mel spectrogram
-        Log.d(TAG, "Calculating Mel spectrogram...");
-        float[] melSpectrogram = getMelSpectrogram(wavePath);
-        Log.d(TAG, "Mel spectrogram is calculated...!");
+        // Get samples in PCM_FLOAT format
+        float[] samples = WaveUtil.getSamples(wavePath);
+        if (mVadEnabled) {
+            long vadStart = System.currentTimeMillis();
+            VoiceActivityDetector vad = new VoiceActivityDetector();
+            samples = vad.pack(samples);
+            logVoiceActivity(vad, System.currentTimeMillis() - vadStart);
+            if (samples.length == 0) {
+                return "";
+            }
+        }
+        return transcribeSamples(samples);
+    }
+
+    // Transcribes the whole clip with a sliding window; mel of window N+1 overlaps inference of window N
+    private String transcribeSamples(float[] samples) {
+        int stride = mWindowSamples - mOverlapSamples;
+        int nWindows = countWindows(samples.length);
+        Log.d(TAG, "Transcribing " + samples.length + " samples in " + nWindows + " window(s)");
+
+        TranscriptStitcher stitcher = new TranscriptStitcher();
+        String single = null;
+        Future<?> nextMel = null;
+        long startTime = System.currentTimeMillis();
+
+        try {
+            for (int w = 0; w < nWindows; w++) {
+                // Job cancelled or timed out (Whisper interrupts its worker): stop before the next window
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+
+                // Calculate Mel spectrogram into this window's input slot (or wait for the prefetch)
+                int slot = w % 2;
+                if (nextMel != null) {
+                    nextMel.get();
+                } else {
+                    getMelSpectrogram(samples, w * stride, mInputFloats[slot]);
+                }
+
+                nextMel = null;
+                if (w + 1 < nWindows && mMelPrefetchExecutor != null) {
+                    final int nextOffset = (w + 1) * stride;
+                    final FloatBuffer nextInput = mInputFloats[1 - slot];
+                    nextMel = mMelPrefetchExecutor.submit(() -> getMelSpectrogram(samples, nextOffset, nextInput));
+                }
+
+                // Perform inference
+                String text = runInference(mInputBuffers[slot]);
+                Log.d(TAG, "Inference is executed for window " + (w + 1) + "/" + nWindows);
+
+                if (nWindows == 1) {
+                    single = text;
+                } else {
+                    stitcher.append(text);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.w(TAG, "Transcription interrupted, returning partial result");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Mel spectrogram calculation failed", e.getCause());
+        } finally {
+            if (nextMel != null) {
+                nextMel.cancel(true);
+            }
+        }
+
+        Log.d(TAG, "Transcription of " + nWindows + " window(s) took " + (System.currentTimeMillis() - startTime) + "ms");
+        return single != null ? single : stitcher.toString();
+    }
+
+    /**
+     * Transcribes PCM (16 kHz mono float) while it is still being decoded.
+     * Mel columns are computed as samples arrive and each full window is decoded right away,
+     * using the same sliding window and overlap as {@link #transcribeFile(String)}.
+     */
+    @Override
+    public String transcribeStream(AudioRingBuffer input) {
+        StreamWindows windows = new StreamWindows(mOverlapSamples / WhisperUtil.WHISPER_HOP_LENGTH);
+        VoiceActivityDetector vad = mVadEnabled ? new VoiceActivityDetector() : null;
+        float[] chunk = new float[STREAM_READ_SAMPLES];
+        long startTime = System.currentTimeMillis();
+
+        try {
+            int count;
+            while ((count = input.read(chunk, 0, chunk.length)) > 0) {
+                // read() only blocks when the ring is empty, so check for cancellation here too
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                if (vad != null) {
+                    vad.feed(chunk, 0, count, windows);
+                } else {
+                    windows.write(chunk, 0, count);
+                }
+            }
+
+            if (vad != null) {
+                vad.finish(windows);
+                logVoiceActivity(vad, -1);
+            }
+            // No speech at all: nothing to decode
+            if (vad == null || vad.hasSpeech()) {
+                windows.finish();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.w(TAG, "Stream transcription interrupted, returning partial result");
+        } catch (IOException e) {
+            throw new RuntimeException("Audio decoding failed", e);
+        }
+
+        Log.d(TAG, "Stream transcription of " + windows.mWindows + " window(s) took " + (System.currentTimeMillis() - startTime) + "ms");
+        return windows.result();
+    }
+
+    // Streamed samples (all audio, or speech only) go into mel windows; each full window is decoded right away
+    private class StreamWindows implements VoiceActivityDetector.Sink {
+        private final StreamingMel mMel = new StreamingMel(mWhisperUtil);
+        private final TranscriptStitcher mStitcher = new TranscriptStitcher();
+        private final int mOverlapFrames;
+        private String mSingle = null;
+        private int mWindows = 0;
+
+        StreamWindows(int overlapFrames) {
+            mOverlapFrames = overlapFrames;
+            mMel.setWindowFrames(mWindowSamples / WhisperUtil.WHISPER_HOP_LENGTH);
+        }
+
+        @Override
+        public void write(float[] samples, int offset, int count) {
+            int end = offset + count;
+            while (offset < end) {
+                offset += mMel.append(samples, offset, end - offset);
+                if (mMel.isWindowFull()) {
+                    decodeWindow();
+                    mMel.startNewWindow(mOverlapFrames);
+                }
+            }
+        }
+
+        // Last window, unless it only repeats the overlap of the previous one
+        void finish() {
+            if (mWindows == 0 || mMel.getWindowFrames() > mOverlapFrames) {
+                decodeWindow();
+            }
+        }
+
+        String result() {
+            return mSingle != null ? mSingle : mStitcher.toString();
+        }
+
+        private void decodeWindow() {
+            String text = decodeMelWindow(mMel);
+            mSingle = mWindows == 0 ? text : null;
+            mStitcher.append(text);
+            mWindows++;
+        }
+    }
 
-        // Perform inference
-        String result = runInference(melSpectrogram);
-        Log.d(TAG, "Inference is executed...!");
+    private void logVoiceActivity(VoiceActivityDetector vad, long elapsedMs) {
+        int windowsBefore = countWindows(vad.getSamplesIn());
+        int windowsAfter = vad.hasSpeech() ? countWindows(vad.getSamplesOut()) : 0;
+        Log.d(TAG, "VAD: " + vad.getSegments().size() + " speech segment(s), "
+                + String.format("%.1fs of %.1fs kept", vad.getSamplesOut() / (float) WhisperUtil.WHISPER_SAMPLE_RATE,
+                vad.getSamplesIn() / (float) WhisperUtil.WHISPER_SAMPLE_RATE)
+                + ", windows " + windowsBefore + " -> " + windowsAfter
+                + (elapsedMs >= 0 ? " (" + elapsedMs + "ms)" : ""));
+    }
 
-        return result;
+    // Number of sliding windows needed for this many samples
+    private int countWindows(long samples) {
+        int stride = mWindowSamples - mOverlapSamples;
+        if (samples <= mWindowSamples) {
+            return 1;
+        }
+        return 1 + (int) ((samples - mWindowSamples + stride - 1) / stride);
     }
 
+    /**
+     * Appends live samples and decodes the current window.
+     * Only the mel columns of new hop-length frames are computed. Once a window reaches 30 seconds
+     * its text is committed and a new window starts.
+     *
+     * @return committed text plus the partial text of the current window
+     */
     @Override
     public String transcribeBuffer(float[] samples) {
-        return null;
+        appendBuffer(samples);
+        return currentStreamText();
+    }
+
+    @Override
+    public String finishBuffer(float[] samples) {
+        appendBuffer(samples);
+
+        // Zero padded frames for the samples after the last full hop
+        while (!mStreamingMel.flush()) {
+            commitStreamWindow();
+        }
+
+        String text = currentStreamText();
+        resetBuffer();
+        return text;
+    }
+
+    private void appendBuffer(float[] samples) {
+        if (mStreamingMel == null) {
+            mStreamingMel = new StreamingMel(mWhisperUtil);
+        }
+
+        int offset = 0;
+        while (offset < samples.length) {
+            offset += mStreamingMel.append(samples, offset, samples.length - offset);
+            if (mStreamingMel.isWindowFull()) {
+                commitStreamWindow();
+            }
+        }
+    }
+
+    private void commitStreamWindow() {
+        appendStreamText(mStreamCommitted, decodeMelWindow(mStreamingMel));
+        mStreamingMel.startNewWindow();
+    }
+
+    // Committed windows plus a decode of the current one
+    private String currentStreamText() {
+        StringBuilder text = new StringBuilder(mStreamCommitted);
+        if (mStreamingMel.getWindowFrames() >= MIN_STREAM_DECODE_FRAMES) {
+            appendStreamText(text, decodeMelWindow(mStreamingMel));
+        }
+        return text.toString();
+    }
+
+    @Override
+    public void resetBuffer() {
+        if (mStreamingMel != null) {
+            mStreamingMel.reset();
+        }
+        mStreamCommitted.setLength(0);
+    }
+
+    private String decodeMelWindow(StreamingMel mel) {
+        long startTime = System.currentTimeMillis();
+        mel.fillModelInput(mInputFloats[0]);
+        String text = runInference(mInputBuffers[0]);
+        Log.d(TAG, "Decode of " + mel.getWindowFrames() + " frames took "
+                + (System.currentTimeMillis() - startTime) + "ms");
+        return text;
+    }
+
+    private static void appendStreamText(StringBuilder sb, String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return;
+        }
+        if (sb.length() > 0) {
+            sb.append(' ');
+        }
+        sb.append(text.trim());
     }
 
     // Load TFLite model
-    private void loadModel(String modelPath) throws IOException {
+    protected void loadModel(String modelPath) throws IOException {
+        mInterpreter = createInterpreter(modelPath);
+        allocateTensorBuffers();
+    }
+
+    // Closes the interpreter(s) and drops the model I/O buffers
+    protected void releaseModel() {
+        if (mInterpreter != null) {
+            mInterpreter.close();
+            mInterpreter = null; // Optional: Set to null to avoid accidental reuse
+        }
+        releaseTensorBuffers();
+    }
+
+    // Memory-maps a TFLite model and creates an interpreter with this engine's thread count
+    protected InterpreterApi createInterpreter(String modelPath) throws IOException {
         FileInputStream fileInputStream = new FileInputStream(modelPath);
         FileChannel fileChannel = fileInputStream.getChannel();
         long startOffset = 0;
@@ -90,7 +450,7 @@ public class WhisperEngineJava implements WhisperEngine {
 
         // Set the number of threads for inference
         Interpreter.Options options = new Interpreter.Options();
-        options.setNumThreads(Runtime.getRuntime().availableProcessors());
+        options.setNumThreads(mNumThreads);
 //        options.setUseXNNPACK(true);
 
 //        boolean isNNAPI = true;
@@ -131,83 +491,86 @@ public class WhisperEngineJava implements WhisperEngine {
 //            options.addDelegate(gpuDelegate);
 //        }
 
-        mInterpreter = new Interpreter(tfliteModel, options);
+        return new Interpreter(tfliteModel, options);
     }
 
-    private float[] getMelSpectrogram(String wavePath) {
-        // Get samples in PCM_FLOAT format
-        float[] samples = WaveUtil.getSamples(wavePath);
+    // Allocates the model input/output buffers once per loaded model
+    private void allocateTensorBuffers() {
+        allocateInputBuffers(mInterpreter.getInputTensor(0));
 
-        int fixedInputSize = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
-        float[] inputSamples = new float[fixedInputSize];
-        int copyLength = Math.min(samples.length, fixedInputSize);
-        System.arraycopy(samples, 0, inputSamples, 0, copyLength);
+        // Output holds the generated token ids (int32)
+        Tensor outputTensor = mInterpreter.getOutputTensor(0);
+        mOutputBuffer = ByteBuffer.allocateDirect(outputTensor.numBytes()).order(ByteOrder.nativeOrder());
+        mOutputTokens = mOutputBuffer.asIntBuffer();
+        mOutputLen = outputTensor.numElements();
+    }
 
-        int cores = Runtime.getRuntime().availableProcessors();
-        return mWhisperUtil.getMelSpectrogram(inputSamples, inputSamples.length, cores);
+    // Mel input slots, sized from the tensor that receives the log-mel spectrogram
+    protected final void allocateInputBuffers(Tensor inputTensor) {
+        for (int i = 0; i < mInputBuffers.length; i++) {
+            mInputBuffers[i] = ByteBuffer.allocateDirect(inputTensor.numBytes()).order(ByteOrder.nativeOrder());
+            mInputFloats[i] = mInputBuffers[i].asFloatBuffer();
+        }
     }
 
-    private String runInference(float[] inputData) {
-        // Create input tensor
-        Tensor inputTensor = mInterpreter.getInputTensor(0);
-        TensorBuffer inputBuffer = TensorBuffer.createFixedSize(inputTensor.shape(), inputTensor.dataType());
-//        printTensorDump("Input Tensor Dump ===>", inputTensor);
+    private void releaseTensorBuffers() {
+        for (int i = 0; i < mInputBuffers.length; i++) {
+            mInputBuffers[i] = null;
+            mInputFloats[i] = null;
+        }
+        mOutputBuffer = null;
+        mOutputTokens = null;
+        mOutputLen = 0;
+    }
 
-        // Create output tensor
-        Tensor outputTensor = mInterpreter.getOutputTensor(0);
-        TensorBuffer outputBuffer = TensorBuffer.createFixedSize(outputTensor.shape(), DataType.FLOAT32);
-//        printTensorDump("Output Tensor Dump ===>", outputTensor);
-
-        // Load input data
-        int inputSize = inputTensor.shape()[0] * inputTensor.shape()[1] * inputTensor.shape()[2] * Float.BYTES;
-        ByteBuffer inputBuf = ByteBuffer.allocateDirect(inputSize);
-        inputBuf.order(ByteOrder.nativeOrder());
-        for (float input : inputData) {
-            inputBuf.putFloat(input);
-        }
-
-        // To test mel data as a input directly
-//        try {
-//            byte[] bytes = Files.readAllBytes(Paths.get("/data/user/0/com.example.tfliteaudio/files/mel_spectrogram.bin"));
-//            inputBuf = ByteBuffer.wrap(bytes);
-//        } catch (IOException e) {
-//            throw new RuntimeException(e);
-//        }
+    // Mel spectrogram of one window starting at offset, written into an input slot (zero padded)
+    private void getMelSpectrogram(float[] samples, int offset, FloatBuffer input) {
+        int count = Math.max(0, Math.min(samples.length - offset, mWindowSamples));
 
-        inputBuffer.loadBuffer(inputBuf);
+        long melStart = System.currentTimeMillis();
+        mWhisperUtil.getMelSpectrogram(samples, offset, count, mMelPool, input);
+        Log.d(TAG, "Mel spectrogram is calculated...! (" + (System.currentTimeMillis() - melStart) + "ms)");
+    }
+
+    private static int toSamples(float seconds) {
+        return Math.round(seconds * WhisperUtil.WHISPER_SAMPLE_RATE);
+    }
+
+    // Runs the model on a filled input slot and decodes the generated tokens from the output buffer
+    protected String runInference(ByteBuffer input) {
+        input.rewind();
+        mOutputBuffer.rewind();
 
 //        Log.d(TAG, "Before inference...");
         // Run inference
-        mInterpreter.run(inputBuffer.getBuffer(), outputBuffer.getBuffer());
+        mInterpreter.run(input, mOutputBuffer);
 //        Log.d(TAG, "After inference...");
 
         // Retrieve the results
-        int outputLen = outputBuffer.getIntArray().length;
+        int outputLen = mOutputLen;
         Log.d(TAG, "output_len: " + outputLen);
-        StringBuilder result = new StringBuilder();
+        logDetectedLanguage(outputLen);
+        return mWhisperUtil.decodeTokens(mOutputTokens, outputLen);
+    }
+
+    // The single-graph model picks the language itself; the prompt tokens can't be forced
+    private void logDetectedLanguage(int outputLen) {
+        if (!mWhisperUtil.isMultilingual()) {
+            return;
+        }
         for (int i = 0; i < outputLen; i++) {
-            int token = outputBuffer.getBuffer().getInt();
-            if (token == mWhisperUtil.getTokenEOT())
-                break;
-
-            // Get word for token and Skip additional token
-            if (token < mWhisperUtil.getTokenEOT()) {
-                String word = mWhisperUtil.getWordFromToken(token);
-                //Log.d(TAG, "Adding token: " + token + ", word: " + word);
-                result.append(word);
-            } else {
-                if (token == mWhisperUtil.getTokenTranscribe())
-                    Log.d(TAG, "It is Transcription...");
-
-                if (token == mWhisperUtil.getTokenTranslate())
-                    Log.d(TAG, "It is Translation...");
-
-                String word = mWhisperUtil.getWordFromToken(token);
-                Log.d(TAG, "Skipping token: " + token + ", word: " + word);
+            int token = mOutputTokens.get(i);
+            if (token == mWhisperUtil.getTokenEOT()) {
+                return;
+            }
+            String detected = mWhisperUtil.getLanguageCode(token);
+            if (detected != null) {
+                if (mLanguage != null && !detected.equals(mLanguage)) {
+                    Log.w(TAG, "Detected language " + detected + ", expected " + mLanguage);
+                }
+                return;
             }
         }
-
-        return result.toString();
     }
 
     private void printTensorDump(String message, Tensor tensor) {
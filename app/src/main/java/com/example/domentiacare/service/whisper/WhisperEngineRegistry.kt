@@ -0,0 +1,127 @@
+package com.example.domentiacare.service.whisper
+
+import android.content.Context
+import android.util.Log
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * 프로세스 전체에서 하나의 Whisper 엔진을 공유
+ * - 첫 acquire() 때 모델 복사/로드 (lazy warm-up)
+ * - 참조 카운트가 0이 된 뒤 idleTimeoutMs 동안 사용이 없으면 모델 해제
+ * - shutdown()은 작업 스레드까지 정리
+ */
+object WhisperEngineRegistry {
+    private const val TAG = "WhisperEngineRegistry"
+
+    // 마지막 release() 후 모델을 내리기까지의 대기 시간
+    @Volatile
+    var idleTimeoutMs: Long = 5 * 60 * 1000L
+
+    // 인터프리터 인스턴스 수 (동시에 전사할 작업 수), 다음 모델 로드부터 적용
+    @Volatile
+    var engineCount: Int = Whisper.DEFAULT_ENGINES
+
+    private val scheduler = Executors.newSingleThreadScheduledExecutor { r ->
+        Thread(r, "whisper-idle").apply { isDaemon = true }
+    }
+
+    private var wrapper: WhisperWrapper? = null
+    private var refCount = 0
+    private var idleUnload: ScheduledFuture<*>? = null
+
+    /**
+     * 공유 엔진 참조 획득 (필요하면 모델 로드). 사용 후 반드시 release() 호출
+     */
+    @Synchronized
+    fun acquire(context: Context): WhisperWrapper {
+        idleUnload?.cancel(false)
+        idleUnload = null
+
+        val current = wrapper ?: run {
+            val startTime = System.currentTimeMillis()
+            WhisperWrapper(context.applicationContext, engineCount).apply {
+                copyModelFiles()
+                initModel()
+            }.also {
+                Log.d(TAG, "🔥 Whisper 모델 로드 (엔진 ${engineCount}개): ${System.currentTimeMillis() - startTime}ms")
+            }
+        }
+        wrapper = current
+        refCount++
+        return current
+    }
+
+    @Synchronized
+    fun release() {
+        if (refCount == 0) {
+            Log.w(TAG, "⚠️ acquire 없이 release 호출")
+            return
+        }
+        refCount--
+        if (refCount == 0) {
+            if (scheduler.isShutdown) {
+                unloadIfIdle()
+            } else {
+                idleUnload = scheduler.schedule({ unloadIfIdle() }, idleTimeoutMs, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    /**
+     * acquire/release를 묶어서 실행
+     */
+    inline fun <T> use(context: Context, block: (WhisperWrapper) -> T): T {
+        val whisper = acquire(context)
+        try {
+            return block(whisper)
+        } finally {
+            release()
+        }
+    }
+
+    /**
+     * 공유 엔진이 쓰는(또는 다음에 로드할) 모델/언어의 전사 캐시 키, 모델을 로드하지 않음
+     */
+    fun modelId(context: Context): String {
+        val current = synchronized(this) { wrapper }
+        return current?.modelId() ?: WhisperWrapper.modelId(context.applicationContext)
+    }
+
+    /**
+     * 첫 요청 지연을 줄이기 위해 미리 모델을 로드 (idle 타이머는 그대로 적용)
+     */
+    fun warmUp(context: Context) {
+        acquire(context)
+        release()
+    }
+
+    /**
+     * 사용 중이 아니면 즉시 모델 해제 (메모리 부족 시)
+     */
+    @Synchronized
+    fun unloadIfIdle() {
+        if (refCount > 0) return
+        idleUnload?.cancel(false)
+        idleUnload = null
+        wrapper?.let {
+            it.release()
+            Log.d(TAG, "💤 Whisper 모델 해제")
+        }
+        wrapper = null
+    }
+
+    /**
+     * 앱 종료 시 호출: 모델과 모든 Whisper 스레드 정리
+     */
+    @Synchronized
+    fun shutdown() {
+        if (refCount > 0) {
+            Log.w(TAG, "⚠️ 사용 중인 엔진 종료 (refCount=$refCount)")
+        }
+        refCount = 0
+        unloadIfIdle()
+        scheduler.shutdownNow()
+    }
+}
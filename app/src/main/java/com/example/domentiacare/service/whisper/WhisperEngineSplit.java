@@ -0,0 +1,346 @@
+package com.example.domentiacare.service.whisper;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.tensorflow.lite.InterpreterApi;
+import org.tensorflow.lite.Tensor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Whisper engine for a model exported as a separate encoder and decoder.
+ * <p>
+ * The encoder runs once per 30 second window and produces the cross-attention keys/values of
+ * every decoder layer. The decoder then runs one token at a time with a self-attention KV cache
+ * and stops at EOT, so a short utterance costs a few decoder steps instead of the fixed token
+ * budget of the single-graph model. The prompt (SOT, language, task, no-timestamps) is forced,
+ * so the language set with {@link #setLanguage(String)} is honoured.
+ * <p>
+ * If the greedy result looks degenerate (repetitive text with a high compression ratio, or a low
+ * average log probability) the window is decoded again at increasing temperatures, reusing the
+ * encoder output and the cached prompt.
+ * <p>
+ * Tensors are found by name (a tensor matches when its name contains the key):
+ * <ul>
+ * <li>encoder: input log-mel [1, 80, 3000] float32; outputs {@code cross_k}, {@code cross_v}
+ *     [n_layer, 1500, n_state] float32</li>
+ * <li>decoder: inputs {@code tokens} [1, 1] int32, {@code position} [1] int32, {@code self_k},
+ *     {@code self_v} [n_layer, n_ctx, n_state] float32 (entries at and after position are masked),
+ *     {@code cross_k}, {@code cross_v}; outputs {@code logits} [1, 1, n_vocab] float32 and
+ *     {@code k_new}, {@code v_new} [n_layer, 1, n_state] float32 for the current position</li>
+ * </ul>
+ */
+public class WhisperEngineSplit extends WhisperEngineJava {
+    private final String TAG = "WhisperEngineSplit";
+
+    // Fallback schedule and thresholds (same defaults as the reference implementation)
+    private static final float[] TEMPERATURES = {0.0f, 0.2f, 0.4f, 0.6f, 0.8f, 1.0f};
+    private static final float COMPRESSION_RATIO_THRESHOLD = 2.4f;
+    private static final float LOG_PROB_THRESHOLD = -1.0f;
+
+    // At most half of the text context is sampled per window
+    private static final int MAX_SAMPLED_TOKENS = 224;
+
+    private final String mDecoderPath;
+    private final Random mRandom = new Random(0);
+
+    private InterpreterApi mEncoder = null;
+    private InterpreterApi mDecoder = null;
+
+    // Encoder outputs, fed to every decoder step of the window
+    private ByteBuffer mCrossK = null;
+    private ByteBuffer mCrossV = null;
+    private final Map<Integer, Object> mEncoderOutputs = new HashMap<>();
+
+    // Decoder I/O
+    private ByteBuffer mTokenInput = null;
+    private ByteBuffer mPositionInput = null;
+    private ByteBuffer mSelfK = null;
+    private ByteBuffer mSelfV = null;
+    private FloatBuffer mSelfKFloats = null;
+    private FloatBuffer mSelfVFloats = null;
+    private ByteBuffer mLogitsOutput = null;
+    private ByteBuffer mKNewOutput = null;
+    private ByteBuffer mVNewOutput = null;
+    private Object[] mDecoderInputs = null;
+    private final Map<Integer, Object> mDecoderOutputs = new HashMap<>();
+
+    private int mLayers = 0;
+    private int mTextContext = 0;
+    private int mState = 0;
+    private int mVocabSize = 0;
+
+    // Scratch, sized once per model
+    private float[] mLogits = null;
+    private float[] mPromptLogits = null;
+    private float[] mKNew = null;
+    private float[] mVNew = null;
+    private float[] mProbabilities = null;
+    private int[] mSampled = null;
+    private int mSampledCount = 0;
+    private float mSumLogProb = 0;
+    private byte[] mCompressScratch = null;
+
+    /**
+     * @param decoderPath decoder model; the encoder is the model passed to {@link #initialize}
+     */
+    public WhisperEngineSplit(Context context, String decoderPath) {
+        super(context);
+        mDecoderPath = decoderPath;
+    }
+
+    @Override
+    protected void loadModel(String encoderPath) throws IOException {
+        mEncoder = createInterpreter(encoderPath);
+        mDecoder = createInterpreter(mDecoderPath);
+        allocateInputBuffers(mEncoder.getInputTensor(0));
+
+        // Self-attention cache: [n_layer, n_ctx, n_state]
+        Tensor selfK = mDecoder.getInputTensor(inputIndex(mDecoder, "self_k"));
+        int[] cacheShape = selfK.shape();
+        mLayers = cacheShape[0];
+        mTextContext = cacheShape[1];
+        mState = cacheShape[2];
+        int[] logitsShape = mDecoder.getOutputTensor(outputIndex(mDecoder, "logits")).shape();
+        mVocabSize = logitsShape[logitsShape.length - 1];
+        Log.d(TAG, "Decoder: n_layer=" + mLayers + ", n_ctx=" + mTextContext + ", n_state=" + mState + ", n_vocab=" + mVocabSize);
+
+        mCrossK = allocate(mEncoder.getOutputTensor(outputIndex(mEncoder, "cross_k")));
+        mCrossV = allocate(mEncoder.getOutputTensor(outputIndex(mEncoder, "cross_v")));
+        mEncoderOutputs.clear();
+        mEncoderOutputs.put(outputIndex(mEncoder, "cross_k"), mCrossK);
+        mEncoderOutputs.put(outputIndex(mEncoder, "cross_v"), mCrossV);
+
+        mTokenInput = allocate(mDecoder.getInputTensor(inputIndex(mDecoder, "tokens")));
+        mPositionInput = allocate(mDecoder.getInputTensor(inputIndex(mDecoder, "position")));
+        mSelfK = allocate(selfK);
+        mSelfV = allocate(mDecoder.getInputTensor(inputIndex(mDecoder, "self_v")));
+        mSelfKFloats = mSelfK.asFloatBuffer();
+        mSelfVFloats = mSelfV.asFloatBuffer();
+
+        mDecoderInputs = new Object[mDecoder.getInputTensorCount()];
+        mDecoderInputs[inputIndex(mDecoder, "tokens")] = mTokenInput;
+        mDecoderInputs[inputIndex(mDecoder, "position")] = mPositionInput;
+        mDecoderInputs[inputIndex(mDecoder, "self_k")] = mSelfK;
+        mDecoderInputs[inputIndex(mDecoder, "self_v")] = mSelfV;
+        mDecoderInputs[inputIndex(mDecoder, "cross_k")] = mCrossK;
+        mDecoderInputs[inputIndex(mDecoder, "cross_v")] = mCrossV;
+
+        mLogitsOutput = allocate(mDecoder.getOutputTensor(outputIndex(mDecoder, "logits")));
+        mKNewOutput = allocate(mDecoder.getOutputTensor(outputIndex(mDecoder, "k_new")));
+        mVNewOutput = allocate(mDecoder.getOutputTensor(outputIndex(mDecoder, "v_new")));
+        mDecoderOutputs.clear();
+        mDecoderOutputs.put(outputIndex(mDecoder, "logits"), mLogitsOutput);
+        mDecoderOutputs.put(outputIndex(mDecoder, "k_new"), mKNewOutput);
+        mDecoderOutputs.put(outputIndex(mDecoder, "v_new"), mVNewOutput);
+
+        mLogits = new float[mVocabSize];
+        mPromptLogits = new float[mVocabSize];
+        mProbabilities = new float[mVocabSize];
+        mKNew = new float[mLayers * mState];
+        mVNew = new float[mLayers * mState];
+        mSampled = new int[MAX_SAMPLED_TOKENS];
+    }
+
+    @Override
+    protected void releaseModel() {
+        super.releaseModel();
+        if (mEncoder != null) {
+            mEncoder.close();
+            mEncoder = null;
+        }
+        if (mDecoder != null) {
+            mDecoder.close();
+            mDecoder = null;
+        }
+        mCrossK = mCrossV = null;
+        mTokenInput = mPositionInput = null;
+        mSelfK = mSelfV = null;
+        mSelfKFloats = mSelfVFloats = null;
+        mLogitsOutput = mKNewOutput = mVNewOutput = null;
+        mDecoderInputs = null;
+        mEncoderOutputs.clear();
+        mDecoderOutputs.clear();
+        mLogits = mPromptLogits = mProbabilities = mKNew = mVNew = null;
+        mSampled = null;
+    }
+
+    // Encodes the window once, then decodes it greedily and with temperature fallback if needed
+    @Override
+    protected String runInference(ByteBuffer input) {
+        long startTime = System.currentTimeMillis();
+        input.rewind();
+        mCrossK.rewind();
+        mCrossV.rewind();
+        mEncoder.runForMultipleInputsOutputs(new Object[]{input}, mEncoderOutputs);
+        long encodeTime = System.currentTimeMillis() - startTime;
+
+        // The prompt is the same for every attempt: its cache entries and logits are kept
+        int[] prompt = mWhisperUtil.getPromptTokens(mLanguage, false);
+        for (int i = 0; i < prompt.length; i++) {
+            step(prompt[i], i);
+        }
+        System.arraycopy(mLogits, 0, mPromptLogits, 0, mVocabSize);
+
+        String text = "";
+        int steps = 0;
+        for (int attempt = 0; attempt < TEMPERATURES.length; attempt++) {
+            // Cancelled job: keep the text we have instead of decoding again
+            if (attempt > 0 && Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            float temperature = TEMPERATURES[attempt];
+            decode(prompt.length, temperature);
+            steps += mSampledCount;
+            text = mWhisperUtil.decodeTokens(IntBuffer.wrap(mSampled), mSampledCount);
+
+            float compressionRatio = compressionRatio(text);
+            float avgLogProb = mSumLogProb / (mSampledCount + 1); // + 1 for EOT, as in the reference
+            if (compressionRatio <= COMPRESSION_RATIO_THRESHOLD && avgLogProb >= LOG_PROB_THRESHOLD) {
+                break;
+            }
+            Log.d(TAG, "Fallback after T=" + temperature + ": compression ratio " + compressionRatio
+                    + ", avg log prob " + avgLogProb);
+        }
+
+        Log.d(TAG, "Encoder " + encodeTime + "ms, " + (prompt.length + steps) + " decoder steps, total "
+                + (System.currentTimeMillis() - startTime) + "ms");
+        return text;
+    }
+
+    // Samples tokens after the prompt until EOT or the token budget; fills mSampled and mSumLogProb
+    private void decode(int promptLength, float temperature) {
+        System.arraycopy(mPromptLogits, 0, mLogits, 0, mVocabSize);
+        int maxTokens = Math.min(MAX_SAMPLED_TOKENS, mTextContext - promptLength);
+        int eot = mWhisperUtil.getTokenEOT();
+        mSampledCount = 0;
+        mSumLogProb = 0;
+
+        while (true) {
+            int token = sample(temperature);
+            if (token == eot) {
+                return;
+            }
+            mSampled[mSampledCount++] = token;
+            if (mSampledCount >= maxTokens) {
+                return;
+            }
+            step(token, promptLength + mSampledCount - 1);
+        }
+    }
+
+    // One decoder step: logits for the next token, and this position's keys/values into the cache
+    private void step(int token, int position) {
+        mTokenInput.putInt(0, token);
+        mPositionInput.putInt(0, position);
+        for (Object buffer : mDecoderInputs) {
+            ((ByteBuffer) buffer).rewind();
+        }
+        mLogitsOutput.rewind();
+        mKNewOutput.rewind();
+        mVNewOutput.rewind();
+        mDecoder.runForMultipleInputsOutputs(mDecoderInputs, mDecoderOutputs);
+
+        mLogitsOutput.asFloatBuffer().get(mLogits, 0, mVocabSize);
+        mKNewOutput.asFloatBuffer().get(mKNew);
+        mVNewOutput.asFloatBuffer().get(mVNew);
+        for (int layer = 0; layer < mLayers; layer++) {
+            int index = (layer * mTextContext + position) * mState;
+            mSelfKFloats.position(index);
+            mSelfKFloats.put(mKNew, layer * mState, mState);
+            mSelfVFloats.position(index);
+            mSelfVFloats.put(mVNew, layer * mState, mState);
+        }
+    }
+
+    // Picks the next token among text tokens and EOT; special and timestamp tokens are suppressed
+    private int sample(float temperature) {
+        int count = Math.min(mWhisperUtil.getTokenEOT() + 1, mVocabSize);
+
+        int best = 0;
+        for (int i = 1; i < count; i++) {
+            if (mLogits[i] > mLogits[best]) {
+                best = i;
+            }
+        }
+        double sumExp = 0;
+        for (int i = 0; i < count; i++) {
+            sumExp += Math.exp(mLogits[i] - mLogits[best]);
+        }
+        double logSumExp = mLogits[best] + Math.log(sumExp);
+
+        int token = best;
+        if (temperature > 0) {
+            double total = 0;
+            for (int i = 0; i < count; i++) {
+                mProbabilities[i] = (float) Math.exp((mLogits[i] - mLogits[best]) / temperature);
+                total += mProbabilities[i];
+            }
+            double r = mRandom.nextDouble() * total;
+            for (int i = 0; i < count; i++) {
+                r -= mProbabilities[i];
+                if (r <= 0) {
+                    token = i;
+                    break;
+                }
+            }
+        }
+        mSumLogProb += (float) (mLogits[token] - logSumExp);
+        return token;
+    }
+
+    // UTF-8 size over zlib-compressed size; repetitive (looping) text compresses very well
+    private float compressionRatio(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0) {
+            return 0;
+        }
+        if (mCompressScratch == null || mCompressScratch.length < bytes.length + 64) {
+            mCompressScratch = new byte[bytes.length + 64];
+        }
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            int compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(mCompressScratch);
+            }
+            return (float) bytes.length / compressed;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static ByteBuffer allocate(Tensor tensor) {
+        return ByteBuffer.allocateDirect(tensor.numBytes()).order(ByteOrder.nativeOrder());
+    }
+
+    private static int inputIndex(InterpreterApi interpreter, String name) throws IOException {
+        for (int i = 0; i < interpreter.getInputTensorCount(); i++) {
+            if (interpreter.getInputTensor(i).name().contains(name)) {
+                return i;
+            }
+        }
+        throw new IOException("Model has no input named " + name);
+    }
+
+    private static int outputIndex(InterpreterApi interpreter, String name) throws IOException {
+        for (int i = 0; i < interpreter.getOutputTensorCount(); i++) {
+            if (interpreter.getOutputTensor(i).name().contains(name)) {
+                return i;
+            }
+        }
+        throw new IOException("Model has no output named " + name);
+    }
+}
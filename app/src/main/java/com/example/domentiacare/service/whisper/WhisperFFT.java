@@ -0,0 +1,278 @@
+package com.example.domentiacare.service.whisper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable real-input FFT plan.
+ * <p>
+ * The n-point real transform is computed as an n/2-point complex mixed-radix FFT
+ * (radix 4 and 2, plus a generic odd radix; 400 -> 200 = 4 * 2 * 5 * 5) followed by a
+ * real split pass. Twiddles, small-DFT roots and the input permutation are precomputed
+ * once, so the plan is immutable and can be shared between threads. Each worker thread
+ * owns a {@link Workspace} which holds the scratch memory, so a transform never allocates.
+ */
+public class WhisperFFT {
+
+    // Per-thread scratch buffers for one plan
+    public static class Workspace {
+        final float[] re;
+        final float[] im;
+        final float[] tr;
+        final float[] ti;
+
+        private Workspace(int size, int maxRadix) {
+            re = new float[size];
+            im = new float[size];
+            tr = new float[maxRadix];
+            ti = new float[maxRadix];
+        }
+    }
+
+    private final int n;        // real input length
+    private final int half;     // complex transform length (n / 2)
+    private final int maxRadix;
+    private final int[] factors;
+    private final int[] perm;
+
+    // stage twiddles W_L^(j*q), indexed [stage][j * radix + q]
+    private final float[][] stageCos;
+    private final float[][] stageSin;
+
+    // roots of the generic radix-p butterflies W_p^k, indexed [stage][k]
+    private final float[][] radixCos;
+    private final float[][] radixSin;
+
+    // split twiddles W_n^k for k in [0, n/2]
+    private final float[] splitCos;
+    private final float[] splitSin;
+
+    public WhisperFFT(int n) {
+        if (n < 2 || n % 2 != 0) {
+            throw new IllegalArgumentException("Real FFT size must be even: " + n);
+        }
+        this.n = n;
+        this.half = n / 2;
+        this.factors = factorize(half);
+
+        int radix = 1;
+        for (int p : factors) {
+            radix = Math.max(radix, p);
+        }
+        this.maxRadix = radix;
+
+        // Input permutation (mixed-radix digit reversal)
+        this.perm = new int[half];
+        buildPermutation(0, 0, 1, half, factors.length - 1);
+
+        // Stage twiddles and butterfly roots
+        stageCos = new float[factors.length][];
+        stageSin = new float[factors.length][];
+        radixCos = new float[factors.length][];
+        radixSin = new float[factors.length][];
+        int l = 1;
+        for (int s = 0; s < factors.length; s++) {
+            int p = factors[s];
+            int len = l * p;
+            stageCos[s] = new float[l * p];
+            stageSin[s] = new float[l * p];
+            for (int j = 0; j < l; j++) {
+                for (int q = 0; q < p; q++) {
+                    double theta = 2.0 * Math.PI * j * q / len;
+                    stageCos[s][j * p + q] = (float) Math.cos(theta);
+                    stageSin[s][j * p + q] = (float) -Math.sin(theta);
+                }
+            }
+            radixCos[s] = new float[p];
+            radixSin[s] = new float[p];
+            for (int k = 0; k < p; k++) {
+                double theta = 2.0 * Math.PI * k / p;
+                radixCos[s][k] = (float) Math.cos(theta);
+                radixSin[s][k] = (float) -Math.sin(theta);
+            }
+            l = len;
+        }
+
+        splitCos = new float[half + 1];
+        splitSin = new float[half + 1];
+        for (int k = 0; k <= half; k++) {
+            double theta = 2.0 * Math.PI * k / n;
+            splitCos[k] = (float) Math.cos(theta);
+            splitSin[k] = (float) Math.sin(theta);
+        }
+    }
+
+    public int size() {
+        return n;
+    }
+
+    // Number of non-negative frequency bins (n / 2 + 1)
+    public int bins() {
+        return half + 1;
+    }
+
+    public Workspace newWorkspace() {
+        return new Workspace(half, maxRadix);
+    }
+
+    /**
+     * One-sided power spectrum of a real frame.
+     * Interior bins (1 .. n/2 - 1) include the mirrored negative-frequency energy, which
+     * matches the previous full complex FFT followed by folding the upper half.
+     *
+     * @param input  n real samples (already windowed)
+     * @param output receives {@link #bins()} power values
+     * @param ws     scratch owned by the calling thread
+     */
+    public void powerSpectrum(float[] input, float[] output, Workspace ws) {
+        final float[] re = ws.re;
+        final float[] im = ws.im;
+
+        // Pack even/odd samples as one complex sequence in permuted order
+        for (int i = 0; i < half; i++) {
+            int src = perm[i] << 1;
+            re[i] = input[src];
+            im[i] = input[src + 1];
+        }
+
+        transform(ws);
+
+        // Split Z[k] into the real transform X[k] and take |X[k]|^2
+        for (int k = 0; k <= half; k++) {
+            int k1 = k == half ? 0 : k;
+            int k2 = k == 0 ? 0 : half - k;
+            float ar = re[k1];
+            float ai = im[k1];
+            float br = re[k2];
+            float bi = -im[k2];
+
+            float evenRe = 0.5f * (ar + br);
+            float evenIm = 0.5f * (ai + bi);
+            float oddRe = 0.5f * (ai - bi);
+            float oddIm = -0.5f * (ar - br);
+
+            float c = splitCos[k];
+            float s = splitSin[k];
+            float xr = evenRe + c * oddRe + s * oddIm;
+            float xi = evenIm + c * oddIm - s * oddRe;
+
+            float power = xr * xr + xi * xi;
+            output[k] = (k == 0 || k == half) ? power : 2.0f * power;
+        }
+    }
+
+    // In-place iterative decimation-in-time FFT on ws.re / ws.im (input already permuted)
+    private void transform(Workspace ws) {
+        final float[] re = ws.re;
+        final float[] im = ws.im;
+        final float[] tr = ws.tr;
+        final float[] ti = ws.ti;
+
+        int l = 1;
+        for (int s = 0; s < factors.length; s++) {
+            final int p = factors[s];
+            final int len = l * p;
+            final float[] wc = stageCos[s];
+            final float[] wsn = stageSin[s];
+
+            for (int b = 0; b < half; b += len) {
+                for (int j = 0; j < l; j++) {
+                    int base = b + j;
+                    int tw = j * p;
+
+                    // gather and apply twiddles
+                    for (int q = 0; q < p; q++) {
+                        int idx = base + q * l;
+                        float xr = re[idx];
+                        float xi = im[idx];
+                        float c = wc[tw + q];
+                        float sn = wsn[tw + q];
+                        tr[q] = xr * c - xi * sn;
+                        ti[q] = xr * sn + xi * c;
+                    }
+
+                    if (p == 2) {
+                        re[base] = tr[0] + tr[1];
+                        im[base] = ti[0] + ti[1];
+                        re[base + l] = tr[0] - tr[1];
+                        im[base + l] = ti[0] - ti[1];
+                    } else if (p == 4) {
+                        float a0r = tr[0] + tr[2], a0i = ti[0] + ti[2];
+                        float a1r = tr[0] - tr[2], a1i = ti[0] - ti[2];
+                        float a2r = tr[1] + tr[3], a2i = ti[1] + ti[3];
+                        float a3r = tr[1] - tr[3], a3i = ti[1] - ti[3];
+                        re[base] = a0r + a2r;
+                        im[base] = a0i + a2i;
+                        re[base + l] = a1r + a3i;
+                        im[base + l] = a1i - a3r;
+                        re[base + 2 * l] = a0r - a2r;
+                        im[base + 2 * l] = a0i - a2i;
+                        re[base + 3 * l] = a1r - a3i;
+                        im[base + 3 * l] = a1i + a3r;
+                    } else {
+                        final float[] rc = radixCos[s];
+                        final float[] rs = radixSin[s];
+                        for (int k = 0; k < p; k++) {
+                            float sumRe = 0.0f;
+                            float sumIm = 0.0f;
+                            int w = 0;
+                            for (int q = 0; q < p; q++) {
+                                float c = rc[w];
+                                float sn = rs[w];
+                                sumRe += tr[q] * c - ti[q] * sn;
+                                sumIm += tr[q] * sn + ti[q] * c;
+                                w += k;
+                                if (w >= p) w -= p;
+                            }
+                            re[base + k * l] = sumRe;
+                            im[base + k * l] = sumIm;
+                        }
+                    }
+                }
+            }
+            l = len;
+        }
+    }
+
+    // perm[i] = source index of the complex sample stored at position i before the first stage
+    private void buildPermutation(int outOffset, int inOffset, int inStride, int size, int factorIdx) {
+        if (size == 1) {
+            perm[outOffset] = inOffset;
+            return;
+        }
+        int p = factors[factorIdx];
+        int sub = size / p;
+        for (int q = 0; q < p; q++) {
+            buildPermutation(outOffset + q * sub, inOffset + q * inStride, inStride * p, sub, factorIdx - 1);
+        }
+    }
+
+    // Radix 4 first, then 2, then odd factors in increasing order
+    private static int[] factorize(int size) {
+        List<Integer> list = new ArrayList<>();
+        int rest = size;
+        while (rest % 4 == 0) {
+            list.add(4);
+            rest /= 4;
+        }
+        while (rest % 2 == 0) {
+            list.add(2);
+            rest /= 2;
+        }
+        for (int f = 3; rest > 1; f += 2) {
+            while (rest % f == 0) {
+                list.add(f);
+                rest /= f;
+            }
+        }
+        if (list.isEmpty()) {
+            list.add(1);
+        }
+
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+}
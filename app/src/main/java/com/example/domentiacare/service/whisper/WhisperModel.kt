@@ -0,0 +1,48 @@
+package com.example.domentiacare.service.whisper
+
+import android.content.Context
+import android.util.Log
+
+/**
+ * APK에 넣을 수 있는 Whisper 모델 (모델 파일 + 필터/어휘 파일)
+ * 환자 통화는 대부분 한국어라 다국어 모델을 우선 사용하고, APK에 없으면 영어 전용 모델로 대체
+ * - decoderFile이 있으면 인코더/디코더 분리 모델 (WhisperEngineSplit: KV 캐시, EOT에서 바로 종료, 언어 강제)
+ */
+enum class WhisperModel(
+    val modelFile: String,
+    val vocabFile: String,
+    val multilingual: Boolean,
+    val defaultLanguage: String,
+    val decoderFile: String? = null
+) {
+    TINY_SPLIT("whisper-tiny-encoder.tflite", "filters_vocab_multilingual.bin", true, "ko", "whisper-tiny-decoder.tflite"),
+    TINY("whisper-tiny.tflite", "filters_vocab_multilingual.bin", true, "ko"),
+    TINY_EN("whisper-tiny.en.tflite", "filters_vocab_en.bin", false, "en");
+
+    val files: List<String> get() = listOfNotNull(modelFile, decoderFile, vocabFile)
+
+    companion object {
+        private const val TAG = "WhisperModel"
+
+        // 선호 순서 (앞에 있는 모델부터 확인)
+        private val PREFERENCE = listOf(TINY_SPLIT, TINY, TINY_EN)
+
+        @Volatile
+        private var selected: WhisperModel? = null
+
+        /**
+         * 파일이 모두 assets에 있는 첫 번째 모델 (프로세스 동안 한 번만 확인)
+         */
+        fun select(context: Context): WhisperModel {
+            selected?.let { return it }
+            val bundled = context.assets.list("")?.toSet() ?: emptySet()
+            val model = PREFERENCE.firstOrNull { bundled.containsAll(it.files) } ?: TINY_EN
+            if (!model.multilingual) {
+                Log.w(TAG, "⚠️ 다국어 모델(${TINY.modelFile})이 APK에 없음, 영어 전용 모델 사용")
+            }
+            Log.d(TAG, "🎙️ Whisper 모델 선택: $model (${model.defaultLanguage})")
+            selected = model
+            return model
+        }
+    }
+}
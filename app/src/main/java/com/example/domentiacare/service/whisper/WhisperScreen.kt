@@ -34,6 +34,7 @@ fun WhisperScreen() {
 
     var isTranscribing by remember { mutableStateOf(false) }
     var loopTesting by remember { mutableStateOf(false) } // Optional switch
+    var isLiveTranscribing by remember { mutableStateOf(false) }
 
     // 모델 초기화 (한 번만)
     LaunchedEffect(Unit) {
@@ -92,6 +93,22 @@ fun WhisperScreen() {
         }
 
         Button(onClick = {
+            if (!isLiveTranscribing) {
+                val started = whisper.startLiveTranscription(
+                    onPartial = { resultText.value = it },
+                    onResult = { resultText.value = it }
+                )
+                isLiveTranscribing = started
+                if (!started) resultText.value = "마이크를 시작할 수 없습니다."
+            } else {
+                whisper.stopLiveTranscription()
+                isLiveTranscribing = false
+            }
+        }) {
+            Text(if (isLiveTranscribing) "실시간 STT 중지" else "실시간 STT")
+        }
+
+        Button(onClick = {
 
 //            // 파일 변환 테스트
 //            val inputPath = "/sdcard/Recordings/sample.m4a"
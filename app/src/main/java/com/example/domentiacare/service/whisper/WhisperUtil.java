@@ -2,20 +2,17 @@ package com.example.domentiacare.service.whisper;
 
 import static java.lang.Math.cos;
 import static java.lang.Math.log10;
-import static java.lang.Math.sin;
 
 import android.util.Log;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 
 public class WhisperUtil {
     private static final String TAG = "WhisperUtil";
@@ -27,9 +24,15 @@ public class WhisperUtil {
     public static final int WHISPER_CHUNK_SIZE = 30;
     public static final int WHISPER_MEL_LEN = 3000;
 
+    // log10 of the clamped power (1e-10) of a silent frame
+    static final float LOG_MEL_SILENCE = -10.0f;
+
     private final WhisperVocab vocab = new WhisperVocab();
     private final WhisperFilter filters = new WhisperFilter();
-    private final WhisperMel mel = new WhisperMel();
+
+    // FFT plan and Hann window are shared by every frame, worker thread and call
+    private final WhisperFFT fftPlan = new WhisperFFT(WHISPER_N_FFT);
+    private final float[] hann = createHannWindow(WHISPER_N_FFT);
 
     // Helper functions definitions
     public int getTokenTranslate() {
@@ -64,16 +67,100 @@ public class WhisperUtil {
         return vocab.tokenBEG;
     }
 
+    public boolean isMultilingual() {
+        return vocab.multilingual;
+    }
+
+    // Language token of a multilingual model (e.g. "ko"), -1 if unknown or the model is English-only
+    public int getTokenLanguage(String code) {
+        if (!vocab.multilingual || code == null) {
+            return -1;
+        }
+        for (int i = 0; i < LANGUAGES.length; i++) {
+            if (LANGUAGES[i].equals(code)) {
+                return vocab.tokenSOT + 1 + i;
+            }
+        }
+        return -1;
+    }
+
+    // Language code of a language token, null for any other token
+    public String getLanguageCode(int token) {
+        int index = token - vocab.tokenSOT - 1;
+        if (!vocab.multilingual || index < 0 || index >= LANGUAGES.length) {
+            return null;
+        }
+        return LANGUAGES[index];
+    }
+
+    /**
+     * Decoder prompt: SOT, then for multilingual models the language (omitted for auto-detection)
+     * and the task, then no-timestamps.
+     */
+    public int[] getPromptTokens(String language, boolean translate) {
+        if (!vocab.multilingual) {
+            return new int[]{vocab.tokenSOT, vocab.tokenNOT};
+        }
+        int task = translate ? vocab.tokenTRANSLATE : vocab.tokenTRANSCRIBE;
+        int languageToken = getTokenLanguage(language);
+        if (languageToken < 0) {
+            return new int[]{vocab.tokenSOT, task, vocab.tokenNOT};
+        }
+        return new int[]{vocab.tokenSOT, languageToken, task, vocab.tokenNOT};
+    }
+
+    public boolean isTextToken(int token) {
+        return token >= 0 && token < vocab.tokenEOT && token < vocab.nText;
+    }
+
+    // Text of a single token (for logging); a multi-byte character split across tokens shows up broken here
     public String getWordFromToken(int token) {
-        return vocab.tokenToWord.get(token);
+        if (isTextToken(token)) {
+            return new String(vocab.bytes, vocab.offsets[token], vocab.length(token), StandardCharsets.UTF_8);
+        }
+        return vocab.specialName(token);
     }
 
-    // Load filters and vocab data from pre-generated filters_vocab_en.bin file
+    /**
+     * Decodes generated tokens into text, stopping at EOT and skipping special tokens.
+     * The bytes of all text tokens are joined before UTF-8 decoding, because byte-level BPE splits
+     * characters such as Hangul across tokens.
+     */
+    public String decodeTokens(IntBuffer tokens, int count) {
+        int end = 0;
+        int length = 0;
+        while (end < count) {
+            int token = tokens.get(end);
+            if (token == vocab.tokenEOT) {
+                break;
+            }
+            if (isTextToken(token)) {
+                length += vocab.length(token);
+            }
+            end++;
+        }
+
+        byte[] text = new byte[length];
+        int pos = 0;
+        for (int i = 0; i < end; i++) {
+            int token = tokens.get(i);
+            if (isTextToken(token)) {
+                int n = vocab.length(token);
+                System.arraycopy(vocab.bytes, vocab.offsets[token], text, pos, n);
+                pos += n;
+            }
+        }
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    // Load filters and vocab data from pre-generated filters_vocab_en.bin / filters_vocab_multilingual.bin file
     public boolean loadFiltersAndVocab(boolean multilingual, String vocabPath) throws IOException {
 
-        // Read vocab file
-        byte[] bytes = Files.readAllBytes(Paths.get(vocabPath));
-        ByteBuffer vocabBuf = ByteBuffer.wrap(bytes);
+        // Map the vocab file instead of reading it onto the heap
+        ByteBuffer vocabBuf;
+        try (FileInputStream in = new FileInputStream(vocabPath); FileChannel channel = in.getChannel()) {
+            vocabBuf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
         vocabBuf.order(ByteOrder.nativeOrder());
         Log.d(TAG, "Vocab file size: " + vocabBuf.limit());
 
@@ -91,248 +178,193 @@ public class WhisperUtil {
         filters.nFft = vocabBuf.getInt();
         Log.d(TAG, "n_mel:" + filters.nMel + ", n_fft:" + filters.nFft);
 
-        byte[] filterData = new byte[filters.nMel * filters.nFft * Float.BYTES];
-        vocabBuf.get(filterData, 0, filterData.length);
-        ByteBuffer filterBuf = ByteBuffer.wrap(filterData);
-        filterBuf.order(ByteOrder.nativeOrder());
-
-        filters.data = new float[filters.nMel * filters.nFft];
-        for (int i = 0; filterBuf.hasRemaining(); i++) {
-            filters.data[i] = filterBuf.getFloat();
-        }
+        float[] filterData = new float[filters.nMel * filters.nFft];
+        vocabBuf.asFloatBuffer().get(filterData);
+        vocabBuf.position(vocabBuf.position() + filterData.length * Float.BYTES);
+        filters.pack(filterData);
+        Log.d(TAG, "Mel filter weights: " + filters.weights.length + " of " + filterData.length + " non-zero range");
 
-        // Load vocabulary
+        // Load vocabulary: each token is a length followed by its bytes
         int nVocab = vocabBuf.getInt();
         Log.d(TAG, "nVocab: " + nVocab);
+
+        // First pass over the lengths so the byte blob is allocated once
+        int tokensStart = vocabBuf.position();
+        int[] offsets = new int[nVocab + 1];
+        int total = 0;
         for (int i = 0; i < nVocab; i++) {
             int len = vocabBuf.getInt();
-            byte[] wordBytes = new byte[len];
-            vocabBuf.get(wordBytes, 0, wordBytes.length);
-            String word = new String(wordBytes);
-            vocab.tokenToWord.put(i, word);
+            offsets[i] = total;
+            total += len;
+            vocabBuf.position(vocabBuf.position() + len);
         }
+        offsets[nVocab] = total;
 
-        // Add additional vocab ids
-        int nVocabAdditional;
-        if (!multilingual) {
-            nVocabAdditional = vocab.nVocabEnglish;
-        } else {
-            nVocabAdditional = vocab.nVocabMultilingual;
-            vocab.tokenEOT++;
-            vocab.tokenSOT++;
-            vocab.tokenPREV++;
-            vocab.tokenSOLM++;
-            vocab.tokenNOT++;
-            vocab.tokenBEG++;
-        }
-
-        for (int i = nVocab; i < nVocabAdditional; i++) {
-            String word;
-            if (i > vocab.tokenBEG) {
-                word = "[_TT_" + (i - vocab.tokenBEG) + "]";
-            } else if (i == vocab.tokenEOT) {
-                word = "[_EOT_]";
-            } else if (i == vocab.tokenSOT) {
-                word = "[_SOT_]";
-            } else if (i == vocab.tokenPREV) {
-                word = "[_PREV_]";
-            } else if (i == vocab.tokenNOT) {
-                word = "[_NOT_]";
-            } else if (i == vocab.tokenBEG) {
-                word = "[_BEG_]";
-            } else {
-                word = "[_extra_token_" + i + "]";
-            }
-
-            vocab.tokenToWord.put(i, word);
-            //Log.d(TAG, "i= " + i + ", word= " + word);
+        byte[] bytes = new byte[total];
+        vocabBuf.position(tokensStart);
+        for (int i = 0; i < nVocab; i++) {
+            vocabBuf.position(vocabBuf.position() + Integer.BYTES);
+            vocabBuf.get(bytes, offsets[i], offsets[i + 1] - offsets[i]);
         }
+        vocab.load(bytes, offsets, nVocab, multilingual);
+        Log.d(TAG, "Vocab bytes: " + total + ", multilingual: " + multilingual);
 
         return true;
     }
 
-    // nSamples size => WHISPER_SAMPLE_RATE * WHISPER_CHUNK_SIZE => 480000
-    public float[] getMelSpectrogram(float[] samples, int nSamples, int nThreads) {
-
-        int fftSize = WHISPER_N_FFT;
-        int fftStep = WHISPER_HOP_LENGTH;
-
-        mel.nMel = WHISPER_N_MEL;
-        mel.nLen = nSamples / fftStep;
-        mel.data = new float[mel.nMel * mel.nLen];
+    /**
+     * Log-mel spectrogram of one 30 second model input, written straight into dst.
+     * samples[offset, offset + count) is the audio of the window; everything after it is treated
+     * as zero padding. dst receives WHISPER_N_MEL x WHISPER_MEL_LEN values (band-major) through
+     * absolute puts, so its position is left untouched.
+     */
+    public void getMelSpectrogram(float[] samples, int offset, int count, MelWorkerPool pool, FloatBuffer dst) {
+        final int nLen = WHISPER_MEL_LEN;
+
+        // Maximum log-mel value, tracked while the columns are computed
+        final float[] max = {LOG_MEL_SILENCE};
+
+        // Frames that overlap the audio; the rest is zero padding and needs no FFT
+        final int audioFrames = Math.min(nLen, (count + WHISPER_HOP_LENGTH - 1) / WHISPER_HOP_LENGTH);
+
+        // Calculate the audio frames on the engine's worker pool, one contiguous block per thread,
+        // when there are enough of them to pay for the hand-off
+        boolean computed = false;
+        if (pool != null && !pool.isShutdown() && pool.parallelism(audioFrames) > 1) {
+            computed = pool.runBlocks(audioFrames, (from, to, worker) -> {
+                worker.ensureScratch(fftPlan);
+                float blockMax = computeMelFrames(samples, offset, count, from, to, dst,
+                        worker.frame, worker.power, worker.column, worker.workspace);
+                synchronized (max) {
+                    max[0] = Math.max(max[0], blockMax);
+                }
+            });
+            if (computed) {
+                fillSilence(dst, audioFrames, nLen);
+            }
+        }
 
-        float[] hann = new float[fftSize];
-        for (int i = 0; i < fftSize; i++) {
-            hann[i] = (float) (0.5 * (1.0 - cos(2.0 * Math.PI * i / fftSize)));
+        // Single threaded for short audio or a single core, and as the fallback
+        // (runBlocks only returns false once none of its blocks can still write to dst)
+        if (!computed) {
+            max[0] = computeMelFrames(samples, offset, count, 0, nLen, dst,
+                    new float[fftPlan.size()], new float[fftPlan.bins()], new float[WHISPER_N_MEL],
+                    fftPlan.newWorkspace());
         }
 
-        int nFft = 1 + fftSize / 2;
+        normalizeLogMel(dst, WHISPER_N_MEL * nLen, max[0]);
+    }
 
-/////////////// UNCOMMENT below block to use multithreaded mel calculation /////////////////////////
-        // Calculate mel values using multiple threads
-        List<Thread> workers = new ArrayList<>();
-        for (int iw = 0; iw < nThreads; iw++) {
-            final int ith = iw;  // Capture iw in a final variable for use in the lambda
-            Thread thread = new Thread(() -> {
-                // Inside the thread, ith will have the same value as iw (first value is 0)
-                Log.d(TAG, "Thread " + ith + " started.");
+    // clamping (to max - 8) and normalization of log-mel values in one pass (in place)
+    static void normalizeLogMel(FloatBuffer data, int length, float max) {
+        float floor = max - 8.0f;
+        for (int i = 0; i < length; i++) {
+            float v = Math.max(data.get(i), floor);
+            data.put(i, (v + 4.0f) * 0.25f);
+        }
+    }
 
-                float[] fftIn = new float[fftSize];
-                Arrays.fill(fftIn, 0.0f);
-                float[] fftOut = new float[fftSize * 2];
+    // Silent log-mel columns [from, to)
+    private static void fillSilence(FloatBuffer dst, int from, int to) {
+        for (int j = 0; j < WHISPER_N_MEL; j++) {
+            int row = j * WHISPER_MEL_LEN;
+            for (int i = from; i < to; i++) {
+                dst.put(row + i, LOG_MEL_SILENCE);
+            }
+        }
+    }
 
-                for (int i = ith; i < mel.nLen; i += nThreads) {
-/////////////// END of Block ///////////////////////////////////////////////////////////////////////
+    // Computes log-mel columns [from, to) into dst using caller provided scratch buffers
+    // Returns the largest value written
+    private float computeMelFrames(float[] samples, int offset, int count, int from, int to, FloatBuffer dst,
+                                   float[] fftIn, float[] fftOut, float[] column, WhisperFFT.Workspace workspace) {
+        int fftSize = WHISPER_N_FFT;
+        int fftStep = WHISPER_HOP_LENGTH;
+        int nLen = WHISPER_MEL_LEN;
+        float max = LOG_MEL_SILENCE;
 
-/////////////// COMMENT below block to use multithreaded mel calculation ///////////////////////////
-//        float[] fftIn = new float[fftSize];
-//        Arrays.fill(fftIn, 0.0f);
-//        float[] fftOut = new float[fftSize * 2];
-//
-//        for (int i = 0; i < mel.nLen; i++) {
-/////////////// END of Block ///////////////////////////////////////////////////////////////////////
+        for (int i = from; i < to; i++) {
+            int start = i * fftStep;
 
-            int offset = i * fftStep;
+            // Zero padding after the audio: every band is silent, no FFT needed
+            if (start >= count) {
+                fillSilence(dst, i, to);
+                break;
+            }
 
             // apply Hanning window
             for (int j = 0; j < fftSize; j++) {
-                if (offset + j < nSamples) {
-                    fftIn[j] = hann[j] * samples[offset + j];
+                if (start + j < count) {
+                    fftIn[j] = hann[j] * samples[offset + start + j];
                 } else {
                     fftIn[j] = 0.0f;
                 }
             }
 
-            // FFT -> mag^2
-            fft(fftIn, fftOut);
-            for (int j = 0; j < fftSize; j++) {
-                fftOut[j] = fftOut[2 * j] * fftOut[2 * j] + fftOut[2 * j + 1] * fftOut[2 * j + 1];
-            }
-
-            for (int j = 1; j < fftSize / 2; j++) {
-                fftOut[j] += fftOut[fftSize - j];
-            }
-
-            // mel spectrogram
-            for (int j = 0; j < mel.nMel; j++) {
-                double sum = 0.0;
-                for (int k = 0; k < nFft; k++) {
-                    sum += (fftOut[k] * filters.data[j * nFft + k]);
-                }
-
-                if (sum < 1e-10) {
-                    sum = 1e-10;
-                }
-
-                sum = log10(sum);
-                mel.data[j * mel.nLen + i] = (float) sum;
+            max = Math.max(max, logMelFrame(fftIn, fftOut, workspace, column, 0));
+            for (int j = 0; j < WHISPER_N_MEL; j++) {
+                dst.put(j * nLen + i, column[j]);
             }
         }
+        return max;
+    }
 
-/////////////// UNCOMMENT below block to use multithreaded mel calculation /////////////////////////
-            });
-            workers.add(thread);
-            thread.start();
-        }
-
-        // Wait for all threads to finish
-        for (Thread worker : workers) {
-            try {
-                worker.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-/////////////// END of Block ///////////////////////////////////////////////////////////////////////
-
-        // clamping and normalization
-        double mmax = -1e20;
-        for (int i = 0; i < mel.nMel * mel.nLen; i++) {
-            if (mel.data[i] > mmax) {
-                mmax = mel.data[i];
+    /**
+     * FFT + mel filter + log10 of one windowed frame, written to dst[dstOffset + band].
+     * Each band only visits the FFT bins its triangular filter covers.
+     *
+     * @return the largest log-mel value of the frame
+     */
+    float logMelFrame(float[] fftIn, float[] fftOut, WhisperFFT.Workspace workspace, float[] dst, int dstOffset) {
+        final int[] bandStart = filters.start;
+        final int[] bandEnd = filters.end;
+        final int[] bandOffset = filters.offset;
+        final float[] weights = filters.weights;
+
+        // FFT -> one-sided mag^2
+        fftPlan.powerSpectrum(fftIn, fftOut, workspace);
+
+        // mel spectrogram
+        float max = LOG_MEL_SILENCE;
+        for (int j = 0; j < WHISPER_N_MEL; j++) {
+            float sum = 0.0f;
+            int w = bandOffset[j];
+            for (int k = bandStart[j]; k < bandEnd[j]; k++) {
+                sum += fftOut[k] * weights[w++];
             }
-        }
 
-        mmax -= 8.0;
-        for (int i = 0; i < mel.nMel * mel.nLen; i++) {
-            if (mel.data[i] < mmax) {
-                mel.data[i] = (float) mmax;
-            }
-            mel.data[i] = (float) ((mel.data[i] + 4.0) / 4.0);
+            float value = sum < 1e-10f ? LOG_MEL_SILENCE : (float) log10(sum);
+            dst[dstOffset + j] = value;
+            max = Math.max(max, value);
         }
-
-        return mel.data;
+        return max;
     }
 
-    private void dft(float[] input, float[] output) {
-        int inSize = input.length;
-        for (int k = 0; k < inSize; k++) {
-            float re = 0.0f;
-            float im = 0.0f;
-            for (int n = 0; n < inSize; n++) {
-                float angle = (float) (2 * Math.PI * k * n / inSize);
-                re += input[n] * cos(angle);
-                im -= input[n] * sin(angle);
-            }
-            output[k * 2 + 0] = re;
-            output[k * 2 + 1] = im;
-        }
+    WhisperFFT getFftPlan() {
+        return fftPlan;
     }
 
-    private void fft(float[] input, float[] output) {
-        int inSize = input.length;
-        if (inSize == 1) {
-            output[0] = input[0];
-            output[1] = 0.0f;
-            return;
-        }
-
-        if (inSize % 2 == 1) {
-            dft(input, output);
-            return;
-        }
-
-        float[] even = new float[inSize / 2];
-        float[] odd = new float[inSize / 2];
-
-        int indxEven = 0;
-        int indxOdd = 0;
-        for (int i = 0; i < inSize; i++) {
-            if (i % 2 == 0) {
-                even[indxEven] = input[i];
-                indxEven++;
-            } else {
-                odd[indxOdd] = input[i];
-                indxOdd++;
-            }
-        }
+    float[] getHannWindow() {
+        return hann;
+    }
 
-        float[] evenFft = new float[inSize];
-        float[] oddFft = new float[inSize];
-
-        fft(even, evenFft);
-        fft(odd, oddFft);
-        for (int k = 0; k < inSize / 2; k++) {
-            float theta = (float) (2 * Math.PI * k / inSize);
-            float re = (float) cos(theta);
-            float im = (float) -sin(theta);
-            float reOdd = oddFft[2 * k + 0];
-            float imOdd = oddFft[2 * k + 1];
-            output[2 * k + 0] = evenFft[2 * k + 0] + re * reOdd - im * imOdd;
-            output[2 * k + 1] = evenFft[2 * k + 1] + re * imOdd + im * reOdd;
-            output[2 * (k + inSize / 2) + 0] = evenFft[2 * k + 0] - re * reOdd + im * imOdd;
-            output[2 * (k + inSize / 2) + 1] = evenFft[2 * k + 1] - re * imOdd - im * reOdd;
+    private static float[] createHannWindow(int size) {
+        float[] window = new float[size];
+        for (int i = 0; i < size; i++) {
+            window[i] = (float) (0.5 * (1.0 - cos(2.0 * Math.PI * i / size)));
         }
+        return window;
     }
 
     // Helper class definitions
+    // Token bytes of all text tokens in one blob; token i is bytes[offsets[i], offsets[i + 1])
     private static class WhisperVocab {
         int[] golden_generated_ids = {
                 50257, 50362, 1770, 13, 2264, 346, 353, 318,
                 262, 46329, 286, 262, 3504, 6097, 11, 290, 356, 389, 9675, 284, 7062
         };
 
-        // Token types
+        // Token types (English-only ids, shifted by one for multilingual vocab in load())
         int tokenEOT = 50256; // end of transcript
         int tokenSOT = 50257; // start of transcript
         int tokenPREV = 50360;
@@ -347,40 +379,104 @@ public class WhisperUtil {
         // Vocab types
         final int nVocabEnglish = 51864;       // for english only vocab
         final int nVocabMultilingual = 51865;  // for multilingual vocab
-        Map<Integer, String> tokenToWord = new HashMap<>();
+
+        boolean multilingual = false;
+        int nText = 0;
+        byte[] bytes = new byte[0];
+        int[] offsets = new int[1];
+
+        void load(byte[] bytes, int[] offsets, int nText, boolean multilingual) {
+            this.bytes = bytes;
+            this.offsets = offsets;
+            this.nText = nText;
+            this.multilingual = multilingual;
+
+            // Assigned rather than incremented so a reload doesn't shift them twice
+            int shift = multilingual ? 1 : 0;
+            tokenEOT = 50256 + shift;
+            tokenSOT = 50257 + shift;
+            tokenPREV = 50360 + shift;
+            tokenSOLM = 50361 + shift;
+            tokenNOT = 50362 + shift;
+            tokenBEG = 50363 + shift;
+        }
+
+        int length(int token) {
+            return offsets[token + 1] - offsets[token];
+        }
+
+        // Names of the non-text tokens, only used for logging
+        String specialName(int token) {
+            int nVocab = multilingual ? nVocabMultilingual : nVocabEnglish;
+            if (token < 0 || token >= nVocab) {
+                return "[_invalid_token_" + token + "]";
+            } else if (token > tokenBEG) {
+                return "[_TT_" + (token - tokenBEG) + "]";
+            } else if (token == tokenEOT) {
+                return "[_EOT_]";
+            } else if (token == tokenSOT) {
+                return "[_SOT_]";
+            } else if (token == tokenPREV) {
+                return "[_PREV_]";
+            } else if (token == tokenNOT) {
+                return "[_NOT_]";
+            } else if (token == tokenBEG) {
+                return "[_BEG_]";
+            } else if (token == tokenTRANSCRIBE) {
+                return "[_TRANSCRIBE_]";
+            } else if (token == tokenTRANSLATE) {
+                return "[_TRANSLATE_]";
+            }
+            return "[_extra_token_" + token + "]";
+        }
     }
 
+    // Mel filter bank, band j covers FFT bins [start[j], end[j]) with weights packed from weights[offset[j]]
     private static class WhisperFilter {
         int nMel = 0;
         int nFft = 0;
-        float[] data;
-    }
-
-    private static class WhisperMel {
-        int nLen = 0;
-        int nMel = 0;
-        float[] data;
-    }
-
-    private static class InputLang {
-        String name;
-        String code;
-        long id;
-
-        private InputLang(String name, String code, long id) {
-            this.name = name;
-            this.code = code;
-            this.id = id;
-        }
+        int[] start;
+        int[] end;
+        int[] offset;
+        float[] weights;
+
+        // Keeps only the non-zero range of each band of the dense nMel x nFft matrix
+        void pack(float[] dense) {
+            start = new int[nMel];
+            end = new int[nMel];
+            offset = new int[nMel];
+
+            int total = 0;
+            for (int j = 0; j < nMel; j++) {
+                int first = 0;
+                int last = nFft;
+                while (first < nFft && dense[j * nFft + first] == 0.0f) {
+                    first++;
+                }
+                while (last > first && dense[j * nFft + last - 1] == 0.0f) {
+                    last--;
+                }
+                start[j] = first;
+                end[j] = last;
+                offset[j] = total;
+                total += last - first;
+            }
 
-        // Initialize the list of input language objects
-        private ArrayList<InputLang> getLangList() {
-            ArrayList<InputLang> inputLangList = new ArrayList<>();
-            inputLangList.add(new InputLang("English", "en", 50259));
-            inputLangList.add(new InputLang("Spanish", "es", 50262));
-            inputLangList.add(new InputLang("Hindi", "hi", 50276));
-            inputLangList.add(new InputLang("Telugu", "te", 50299));
-            return inputLangList;
+            weights = new float[total];
+            for (int j = 0; j < nMel; j++) {
+                System.arraycopy(dense, j * nFft + start[j], weights, offset[j], end[j] - start[j]);
+            }
         }
     }
+
+    // Languages of the multilingual models, in token order (the first one follows SOT)
+    private static final String[] LANGUAGES = {
+            "en", "zh", "de", "es", "ru", "ko", "fr", "ja", "pt", "tr", "pl", "ca", "nl", "ar", "sv",
+            "it", "id", "hi", "fi", "vi", "he", "uk", "el", "ms", "cs", "ro", "da", "hu", "ta", "no",
+            "th", "ur", "hr", "bg", "lt", "la", "mi", "ml", "cy", "sk", "te", "fa", "lv", "bn", "sr",
+            "az", "sl", "kn", "et", "mk", "br", "eu", "is", "hy", "ne", "mn", "bs", "kk", "sq", "sw",
+            "gl", "mr", "pa", "si", "km", "sn", "yo", "so", "af", "oc", "ka", "be", "tg", "sd", "gu",
+            "am", "yi", "lo", "uz", "fo", "ht", "ps", "tk", "nn", "mt", "sa", "lb", "my", "bo", "tl",
+            "mg", "as", "tt", "haw", "ln", "ha", "ba", "jw", "su"
+    };
 }
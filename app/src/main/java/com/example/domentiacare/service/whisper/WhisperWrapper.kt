@@ -1,61 +1,255 @@
 package com.example.domentiacare.service.whisper
 
+import android.Manifest
+import android.annotation.SuppressLint
 import android.content.Context
+import android.content.pm.PackageManager
+import android.media.AudioFormat
+import android.media.AudioRecord
+import android.media.MediaRecorder
 import android.util.Log
+import androidx.core.content.ContextCompat
+import com.example.domentiacare.data.util.M4aPcmSource
 import java.io.File
-class WhisperWrapper(private val context: Context) {
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
 
-    private val whisper = Whisper(context)
+/**
+ * @param engines 동시에 전사할 수 있는 인터프리터 수 (그 이상은 Whisper 큐에서 대기)
+ * @param model 사용할 모델 (기본: APK에 있는 다국어 모델 우선)
+ * @param language 다국어 모델의 통화 언어, null이면 모델이 감지
+ */
+class WhisperWrapper(
+    private val context: Context,
+    engines: Int = Whisper.DEFAULT_ENGINES,
+    private val model: WhisperModel = WhisperModel.select(context),
+    private val language: String? = model.defaultLanguage
+) {
 
-    fun copyModelFiles() {
-        listOf("whisper-tiny.en.tflite", "filters_vocab_en.bin").forEach { file ->
-            val dest = File(context.filesDir, file)
-            if (!dest.exists()) {
-                context.assets.open(file).use { input ->
-                    dest.outputStream().use { output -> input.copyTo(output) }
-                }
+    companion object {
+        // 100ms 단위로 마이크 샘플을 전달
+        private const val LIVE_CHUNK_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE / 10
+
+        // 디코딩 스레드와 전사 스레드 사이의 PCM 버퍼 (10초 분량)
+        private const val STREAM_RING_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE * 10
+        private const val DECODE_CHUNK_SAMPLES = 4096
+
+        // 대기 시간 포함, 이 시간 안에 끝나지 않은 전사는 TimeoutException으로 실패
+        private const val TRANSCRIBE_TIMEOUT_MINUTES = 15L
+
+        private fun installer(context: Context, model: WhisperModel) =
+            ModelAssetInstaller(context.applicationContext, context.filesDir, model.files)
+
+        // assets의 모델 파일을 filesDir로 설치 (설치 상태가 유효하면 파일 크기만 확인하고 건너뜀)
+        fun copyModelFiles(context: Context, model: WhisperModel = WhisperModel.select(context)) {
+            val installer = installer(context, model)
+            if (!installer.isInstalled()) installer.install()
+        }
+
+        // setLanguage에 실제로 넘기는 언어 (영어 전용 모델은 언어 지정 없음)
+        private fun engineLanguage(model: WhisperModel, language: String?) =
+            if (model.multilingual) language else null
+
+        /**
+         * 전사 결과를 좌우하는 모델 식별자 (파일 이름 + 내용 해시 + 엔진에 지정한 언어), 전사 캐시 키에 사용
+         * 해시는 설치할 때 상태 파일에 기록된 값만 읽음 (캐시 조회 때문에 모델을 설치/로드/해시하지 않음)
+         * 아직 설치되지 않은 파일은 이름만 사용
+         */
+        fun modelId(
+            context: Context,
+            model: WhisperModel = WhisperModel.select(context),
+            language: String? = model.defaultLanguage
+        ): String {
+            val installer = installer(context, model)
+            val files = model.files.joinToString("|") { file ->
+                installer.installedChecksum(file)?.let { "$file:$it" } ?: file
             }
+            return "$files|lang:${engineLanguage(model, language) ?: "auto"}"
+        }
+    }
+
+    private val whisper = model.decoderFile?.let { decoderFile ->
+        val decoderPath = File(context.filesDir, decoderFile).absolutePath
+        Whisper(engines, Whisper.DEFAULT_QUEUE_CAPACITY) { numThreads ->
+            WhisperEngineSplit(context, decoderPath).apply { setNumThreads(numThreads) }
         }
+    } ?: Whisper(context, engines, Whisper.DEFAULT_QUEUE_CAPACITY)
+
+    // 실시간 마이크 입력
+    @Volatile
+    private var micThread: Thread? = null
+
+    fun copyModelFiles() {
+        copyModelFiles(context, model)
     }
 
     fun initModel() {
-        val modelPath = File(context.filesDir, "whisper-tiny.en.tflite")
-        val vocabPath = File(context.filesDir, "filters_vocab_en.bin")
-        whisper.loadModel(modelPath.absolutePath, vocabPath.absolutePath, false)
+        val modelPath = File(context.filesDir, model.modelFile)
+        val vocabPath = File(context.filesDir, model.vocabFile)
+        whisper.loadModel(modelPath.absolutePath, vocabPath.absolutePath, model.multilingual)
+        whisper.setLanguage(engineLanguage(model, language))
+    }
+
+    // 이 인스턴스의 모델/언어 설정으로 만든 전사 캐시 키
+    fun modelId(): String = modelId(context, model, language)
+
+    /**
+     * 전사 작업을 큐에 넣고 바로 반환 (결과는 onResult, 진행/실패 메시지는 onUpdate)
+     * 작업마다 리스너가 따로 있어 여러 화면/서비스가 동시에 요청해도 섞이지 않음
+     */
+    fun transcribe(wavPath: String, onResult: (String) -> Unit, onUpdate: (String) -> Unit): CompletableFuture<Transcript> {
+        val request = TranscriptionRequest.file(wavPath)
+            .setTimeout(TRANSCRIBE_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+            .setListener(object : Whisper.WhisperListener {
+                override fun onUpdateReceived(message: String) {
+                    onUpdate(message)
+                }
+
+                override fun onResultReceived(result: String) {
+                    Log.d("Whisper", "Transcribed Result: $result")
+                    onResult(result) // ← 여기서 Compose 상태 업데이트해야 함
+                }
+            })
+        return whisper.submit(request)
+    }
+
+    /**
+     * 전사가 끝날 때까지 대기 (공유 인스턴스에서 여러 호출자가 동시에 들어오면 큐에서 차례로 처리)
+     * 큐가 가득 찼거나 시간 초과/실패하면 원인 예외를 던짐
+     */
+    fun transcribeBlocking(audioPath: String): String {
+        val request = TranscriptionRequest.file(audioPath)
+            .setTimeout(TRANSCRIBE_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+        return await(whisper.submit(request)).text
     }
 
-    fun transcribe(wavPath: String, onResult: (String) -> Unit, onUpdate: (String) -> Unit) {
-        whisper.setFilePath(wavPath)
-        whisper.setAction(Whisper.ACTION_TRANSCRIBE)
+    /**
+     * M4A 파일을 중간 WAV 없이 바로 전사
+     * 디코딩 스레드가 링 버퍼를 채우는 동안 mel 계산과 추론이 함께 진행됨
+     * wavOutput을 주면 업로드용 16kHz WAV를 같은 디코딩 결과로 기록
+     */
+    fun transcribeM4aBlocking(m4aFile: File, wavOutput: File? = null): String {
+        val ring = AudioRingBuffer(STREAM_RING_SAMPLES)
+        val decoder = Thread({
+            try {
+                M4aPcmSource(m4aFile, wavOutput).use { source ->
+                    val chunk = FloatArray(DECODE_CHUNK_SAMPLES)
+                    while (true) {
+                        val count = source.read(chunk, 0, chunk.size)
+                        if (count < 0 || !ring.write(chunk, 0, count)) break
+                    }
+                }
+                ring.finish()
+            } catch (e: Exception) {
+                Log.e("Whisper", "M4A 디코딩 실패", e)
+                ring.fail(e)
+            }
+        }, "whisper-decode")
+        decoder.start()
+
+        try {
+            val request = TranscriptionRequest.stream(ring)
+                .setTimeout(TRANSCRIBE_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+            return await(whisper.submit(request)).text
+        } finally {
+            ring.close()
+            decoder.join()
+        }
+    }
+
+    /**
+     * 마이크 입력을 실시간으로 전사
+     * 부분 결과는 onPartial, 최종 결과는 stopLiveTranscription() 후 onResult로 전달
+     */
+    @SuppressLint("MissingPermission")
+    fun startLiveTranscription(onPartial: (String) -> Unit, onResult: (String) -> Unit): Boolean {
+        if (micThread != null) return false
+        if (ContextCompat.checkSelfPermission(context, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+            Log.e("Whisper", "RECORD_AUDIO 권한 없음")
+            return false
+        }
+
         whisper.setListener(object : Whisper.WhisperListener {
             override fun onUpdateReceived(message: String) {
-                onUpdate(message)
+                Log.d("Whisper", message)
+            }
+
+            override fun onPartialResultReceived(partial: String) {
+                onPartial(partial)
             }
 
             override fun onResultReceived(result: String) {
-                Log.d("Whisper", "Transcribed Result: $result")
-                onResult(result) // ← 여기서 Compose 상태 업데이트해야 함
+                Log.d("Whisper", "Live Result: $result")
+                onResult(result)
             }
         })
-        whisper.start()
-    }
 
-    fun transcribeBlocking(audioPath: String): String {
-        var result = ""
-        val latch = java.util.concurrent.CountDownLatch(1)
-        transcribe(audioPath, onResult = {
-            result = it
-            latch.countDown()
-        }, onUpdate = {})
-        latch.await()
-        return result
+        val sampleRate = WhisperUtil.WHISPER_SAMPLE_RATE
+        val minBufferSize = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_FLOAT)
+        val recorder = AudioRecord(
+            MediaRecorder.AudioSource.MIC,
+            sampleRate,
+            AudioFormat.CHANNEL_IN_MONO,
+            AudioFormat.ENCODING_PCM_FLOAT,
+            maxOf(minBufferSize, LIVE_CHUNK_SAMPLES * Float.SIZE_BYTES * 4)
+        )
+        if (recorder.state != AudioRecord.STATE_INITIALIZED) {
+            Log.e("Whisper", "AudioRecord 초기화 실패")
+            recorder.release()
+            return false
+        }
+
+        val thread = Thread {
+            val chunk = FloatArray(LIVE_CHUNK_SAMPLES)
+            recorder.startRecording()
+            try {
+                while (!Thread.currentThread().isInterrupted) {
+                    val read = recorder.read(chunk, 0, chunk.size, AudioRecord.READ_BLOCKING)
+                    if (read > 0) whisper.writeBuffer(chunk.copyOf(read))
+                }
+            } finally {
+                recorder.stop()
+                recorder.release()
+                whisper.finishBuffer()
+            }
+        }
+        thread.name = "whisper-mic"
+        micThread = thread
+        thread.start()
+        return true
     }
 
+    fun stopLiveTranscription() {
+        micThread?.interrupt()
+        micThread = null
+    }
 
+    // 대기 중인 전사 작업 취소 (진행 중인 작업은 끝까지 실행)
     fun stop() = whisper.stop()
 
+    /**
+     * 모델과 작업 스레드 해제 (WhisperEngineRegistry에서 호출)
+     */
+    fun release() {
+        stopLiveTranscription()
+        whisper.shutdown()
+    }
+
     fun isRunning(): Boolean = whisper.isInProgress
 
+    private fun await(future: CompletableFuture<Transcript>): Transcript {
+        try {
+            return future.get()
+        } catch (e: InterruptedException) {
+            // 호출한 쪽이 중단되면 작업도 취소해서 큐를 비움
+            future.cancel(false)
+            throw e
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
     fun copyWaveFile() {
         val dest = File(context.filesDir, "test.wav")
         if (!dest.exists()) {
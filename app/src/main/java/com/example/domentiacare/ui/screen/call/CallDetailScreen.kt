@@ -25,7 +25,7 @@ import com.example.domentiacare.ui.screen.call.components.*
 import com.example.domentiacare.ui.screen.call.theme.OrangeLight
 import com.example.domentiacare.ui.screen.call.theme.OrangePrimary
 import com.example.domentiacare.data.util.convertM4aToWavForWhisper
-import com.example.domentiacare.service.whisper.WhisperWrapper
+import com.example.domentiacare.service.whisper.WhisperEngineRegistry
 import com.example.domentiacare.MyApplication
 import com.example.domentiacare.ui.screen.call.utils.DateTimeParser
 import kotlinx.coroutines.Dispatchers
@@ -200,40 +200,36 @@ fun CallDetailScreen(
                 convertM4aToWavForWhisper(m4aFile, outputWavFile)
                 Log.d("AutoWorkflow", "WAV 변환 완료: ${outputWavFile.absolutePath}")
 
-                // Whisper 모델 초기화 및 변환
-                val whisper = WhisperWrapper(context)
-                whisper.copyModelFiles()
-                whisper.initModel()
-
-                whisper.transcribe(
-                    wavPath = outputWavFile.absolutePath,
-                    onResult = { result ->
-                        transcript = result
-                        isLoading = false
-                        Log.d("AutoWorkflow", "STT 완료: $result")
-
-                        // WAV 파일 정리
-                        try {
-                            if (outputWavFile.exists()) {
-                                val deleted = outputWavFile.delete()
-                                if (deleted) {
-                                    Log.d("AutoWorkflow", "✅ WAV 파일 삭제 성공")
-                                }
+                // 공유 Whisper 엔진으로 변환 (다른 전사가 진행 중이면 큐에서 대기, 실패 시 예외)
+                val result = try {
+                    WhisperEngineRegistry.use(context) { whisper ->
+                        whisper.transcribeBlocking(outputWavFile.absolutePath)
+                    }
+                } finally {
+                    // WAV 파일 정리
+                    try {
+                        if (outputWavFile.exists()) {
+                            val deleted = outputWavFile.delete()
+                            if (deleted) {
+                                Log.d("AutoWorkflow", "✅ WAV 파일 삭제 성공")
                             }
-                        } catch (e: Exception) {
-                            Log.e("AutoWorkflow", "WAV 파일 삭제 오류: ${e.message}")
                         }
+                    } catch (e: Exception) {
+                        Log.e("AutoWorkflow", "WAV 파일 삭제 오류: ${e.message}")
+                    }
+                }
 
-                        // 2단계: STT 완료 후 자동으로 Llama 분석 시작
-                        if (result.isNotBlank()) {
-                            coroutineScope.launch {
-                                delay(500) // 잠시 대기 후 분석 시작
-                                startLlamaAnalysis(result)
-                            }
-                        }
-                    },
-                    onUpdate = { /* 진행 상황 업데이트 */ }
-                )
+                transcript = result
+                isLoading = false
+                Log.d("AutoWorkflow", "STT 완료: $result")
+
+                // 2단계: STT 완료 후 자동으로 Llama 분석 시작
+                if (result.isNotBlank()) {
+                    coroutineScope.launch {
+                        delay(500) // 잠시 대기 후 분석 시작
+                        startLlamaAnalysis(result)
+                    }
+                }
 
             } catch (e: Exception) {
                 withContext(Dispatchers.Main) {
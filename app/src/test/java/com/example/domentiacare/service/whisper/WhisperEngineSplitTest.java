@@ -0,0 +1,340 @@
+package com.example.domentiacare.service.whisper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tensorflow.lite.InterpreterApi;
+import org.tensorflow.lite.Tensor;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs {@link WhisperEngineSplit} against fake encoder/decoder interpreters.
+ * <p>
+ * The fake decoder emits k_new/v_new values derived from the token it was fed, and on every
+ * step checks that the self-attention cache holds exactly those values for all earlier
+ * positions. Its logits follow a script, with a timestamp token always scoring highest.
+ */
+public class WhisperEngineSplitTest {
+    private static final String VOCAB = "src/main/assets/filters_vocab_multilingual.bin";
+
+    private static final int LAYERS = 2;
+    private static final int STATE = 4;
+    private static final int AUDIO_CTX = 10;
+    private static final int VOCAB_SIZE = 51865;
+    private static final int TIMESTAMP_BEGIN = 50364;
+    private static final float CROSS_MARK = 7.0f;
+
+    private WhisperUtil mUtil;
+    private FakeDecoder mDecoder;
+    private FakeEncoder mEncoder;
+    private WhisperEngineSplit mEngine;
+    private int mPromptLength;
+
+    @Before
+    public void setUp() throws Exception {
+        mUtil = new WhisperUtil();
+        assertTrue(mUtil.loadFiltersAndVocab(true, VOCAB));
+        mPromptLength = mUtil.getPromptTokens("ko", false).length;
+    }
+
+    @After
+    public void tearDown() {
+        if (mEngine != null) {
+            mEngine.deinitialize();
+        }
+    }
+
+    @Test
+    public void stopsAtEndOfText() throws Exception {
+        int[] script = {1000, 2000, 3000, 4000, 5000, 6000};
+        start(64, script, -1);
+
+        String text = mEngine.runInference(melInput());
+
+        assertEquals(mUtil.decodeTokens(IntBuffer.wrap(script), script.length), text);
+        assertEquals(1, mEncoder.runs);
+        // Prompt, then one step per sampled token; EOT ends decoding without another step
+        assertEquals(mPromptLength + script.length, mDecoder.runs);
+        assertTrue(mDecoder.errors.toString(), mDecoder.errors.isEmpty());
+    }
+
+    @Test
+    public void writesEveryPositionIntoTheCache() throws Exception {
+        int[] script = {300, 301, 302, 303, 304, 305, 306, 307, 308, 309};
+        start(64, script, -1);
+
+        mEngine.runInference(melInput());
+
+        assertTrue(mDecoder.errors.toString(), mDecoder.errors.isEmpty());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < mPromptLength + script.length; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, mDecoder.positions);
+    }
+
+    @Test
+    public void stopsAtTokenBudget() throws Exception {
+        int context = 16;
+        int[] script = new int[40];
+        for (int i = 0; i < script.length; i++) {
+            script[i] = 1000 + 37 * i;
+        }
+        start(context, script, -1);
+
+        String text = mEngine.runInference(melInput());
+
+        int budget = context - mPromptLength;
+        assertEquals(mUtil.decodeTokens(IntBuffer.wrap(script), budget), text);
+        // The last token of the budget isn't fed back
+        assertEquals(mPromptLength + budget - 1, mDecoder.runs);
+        assertTrue(mDecoder.errors.toString(), mDecoder.errors.isEmpty());
+    }
+
+    @Test
+    public void fallbackReusesEncoderOutputAndPrompt() throws Exception {
+        int context = 64;
+        start(context, new int[0], 262);
+
+        String text = mEngine.runInference(melInput());
+
+        // Repetitive text fails the compression ratio check at every temperature
+        int budget = context - mPromptLength;
+        int attempts = 6;
+        assertTrue(text.length() > 0);
+        assertEquals(1, mEncoder.runs);
+        assertEquals(mPromptLength + attempts * (budget - 1), mDecoder.runs);
+        assertTrue(mDecoder.errors.toString(), mDecoder.errors.isEmpty());
+    }
+
+    // repeatToken >= 0 replaces the script with the same token at every step
+    private void start(int textContext, int[] script, int repeatToken) throws Exception {
+        mEncoder = new FakeEncoder();
+        mDecoder = new FakeDecoder(textContext, script, repeatToken, mUtil.getTokenEOT(), mPromptLength);
+        mEngine = new FakeSplitEngine(mEncoder.interpreter(), mDecoder.interpreter());
+        mEngine.setLanguage("ko");
+        assertTrue(mEngine.initialize("encoder.tflite", VOCAB, true));
+    }
+
+    private static ByteBuffer melInput() {
+        return ByteBuffer.allocateDirect(WhisperUtil.WHISPER_N_MEL * WhisperUtil.WHISPER_MEL_LEN * Float.BYTES);
+    }
+
+    // Hands out the fake encoder, then the fake decoder, in the order loadModel creates them
+    private static class FakeSplitEngine extends WhisperEngineSplit {
+        private final Deque<InterpreterApi> mModels = new ArrayDeque<>();
+
+        FakeSplitEngine(InterpreterApi encoder, InterpreterApi decoder) {
+            super(null, "decoder.tflite");
+            mModels.add(encoder);
+            mModels.add(decoder);
+        }
+
+        @Override
+        protected InterpreterApi createInterpreter(String modelPath) {
+            return mModels.remove();
+        }
+    }
+
+    private abstract static class FakeModel {
+        abstract Tensor[] inputs();
+
+        abstract Tensor[] outputs();
+
+        abstract void run(Object[] inputs, Map<Integer, Object> outputs);
+
+        InterpreterApi interpreter() {
+            Tensor[] inputs = inputs();
+            Tensor[] outputs = outputs();
+            return (InterpreterApi) Proxy.newProxyInstance(InterpreterApi.class.getClassLoader(),
+                    new Class<?>[]{InterpreterApi.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getInputTensorCount":
+                                return inputs.length;
+                            case "getInputTensor":
+                                return inputs[(int) args[0]];
+                            case "getOutputTensorCount":
+                                return outputs.length;
+                            case "getOutputTensor":
+                                return outputs[(int) args[0]];
+                            case "runForMultipleInputsOutputs":
+                                @SuppressWarnings("unchecked")
+                                Map<Integer, Object> out = (Map<Integer, Object>) args[1];
+                                run((Object[]) args[0], out);
+                                return null;
+                            case "close":
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+
+    private static class FakeEncoder extends FakeModel {
+        int runs = 0;
+
+        @Override
+        Tensor[] inputs() {
+            return new Tensor[]{tensor("serving_default_mel:0", 1, WhisperUtil.WHISPER_N_MEL, WhisperUtil.WHISPER_MEL_LEN)};
+        }
+
+        @Override
+        Tensor[] outputs() {
+            // Deliberately not in the order the engine looks them up
+            return new Tensor[]{
+                    tensor("StatefulPartitionedCall:cross_v", LAYERS, AUDIO_CTX, STATE),
+                    tensor("StatefulPartitionedCall:cross_k", LAYERS, AUDIO_CTX, STATE)};
+        }
+
+        @Override
+        void run(Object[] inputs, Map<Integer, Object> outputs) {
+            runs++;
+            FloatBuffer crossK = ((ByteBuffer) outputs.get(1)).asFloatBuffer();
+            for (int i = 0; i < LAYERS * AUDIO_CTX * STATE; i++) {
+                crossK.put(i, CROSS_MARK);
+            }
+        }
+    }
+
+    private static class FakeDecoder extends FakeModel {
+        // Input and output indices, shuffled so lookups by name are exercised
+        private static final int CROSS_K = 0, SELF_V = 1, TOKENS = 2, SELF_K = 3, POSITION = 4, CROSS_V = 5;
+        private static final int V_NEW = 0, LOGITS = 1, K_NEW = 2;
+
+        private final int mContext;
+        private final int[] mScript;
+        private final int mRepeatToken;
+        private final int mEot;
+        private final int mPromptLength;
+        private final int[] mHistory;
+
+        int runs = 0;
+        final List<Integer> positions = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        FakeDecoder(int context, int[] script, int repeatToken, int eot, int promptLength) {
+            mContext = context;
+            mScript = script;
+            mRepeatToken = repeatToken;
+            mEot = eot;
+            mPromptLength = promptLength;
+            mHistory = new int[context];
+        }
+
+        @Override
+        Tensor[] inputs() {
+            return new Tensor[]{
+                    tensor("cross_k", LAYERS, AUDIO_CTX, STATE),
+                    tensor("self_v", LAYERS, mContext, STATE),
+                    tensor("tokens", 1, 1),
+                    tensor("self_k", LAYERS, mContext, STATE),
+                    tensor("position", 1),
+                    tensor("cross_v", LAYERS, AUDIO_CTX, STATE)};
+        }
+
+        @Override
+        Tensor[] outputs() {
+            return new Tensor[]{
+                    tensor("v_new", LAYERS, 1, STATE),
+                    tensor("logits", 1, 1, VOCAB_SIZE),
+                    tensor("k_new", LAYERS, 1, STATE)};
+        }
+
+        @Override
+        void run(Object[] inputs, Map<Integer, Object> outputs) {
+            runs++;
+            int token = ((ByteBuffer) inputs[TOKENS]).getInt(0);
+            int position = ((ByteBuffer) inputs[POSITION]).getInt(0);
+            positions.add(position);
+            mHistory[position] = token;
+
+            if (((ByteBuffer) inputs[CROSS_K]).asFloatBuffer().get(STATE + 1) != CROSS_MARK) {
+                errors.add("cross_k not fed at position " + position);
+            }
+
+            // Every earlier position must hold the k_new/v_new returned for it
+            FloatBuffer selfK = ((ByteBuffer) inputs[SELF_K]).asFloatBuffer();
+            FloatBuffer selfV = ((ByteBuffer) inputs[SELF_V]).asFloatBuffer();
+            for (int layer = 0; layer < LAYERS; layer++) {
+                for (int p = 0; p < position; p++) {
+                    int index = (layer * mContext + p) * STATE;
+                    if (selfK.get(index) != keyOf(mHistory[p], layer) || selfV.get(index + STATE - 1) != valueOf(mHistory[p])) {
+                        errors.add("cache mismatch at layer " + layer + ", position " + p + " (step " + position + ")");
+                    }
+                }
+            }
+
+            FloatBuffer kNew = ((ByteBuffer) outputs.get(K_NEW)).asFloatBuffer();
+            FloatBuffer vNew = ((ByteBuffer) outputs.get(V_NEW)).asFloatBuffer();
+            for (int layer = 0; layer < LAYERS; layer++) {
+                for (int s = 0; s < STATE; s++) {
+                    kNew.put(layer * STATE + s, keyOf(token, layer));
+                    vNew.put(layer * STATE + s, valueOf(token));
+                }
+            }
+
+            FloatBuffer logits = ((ByteBuffer) outputs.get(LOGITS)).asFloatBuffer();
+            float[] values = new float[VOCAB_SIZE];
+            values[TIMESTAMP_BEGIN] = 100.0f; // must be suppressed
+            values[nextToken(position)] = 30.0f;
+            logits.put(values);
+        }
+
+        // Token the script wants after the given position
+        private int nextToken(int position) {
+            int index = position - mPromptLength + 1;
+            if (index < 0) {
+                return 1; // inside the prompt, ignored by the engine
+            }
+            if (mRepeatToken >= 0) {
+                return mRepeatToken;
+            }
+            return index < mScript.length ? mScript[index] : mEot;
+        }
+
+        private static float keyOf(int token, int layer) {
+            return token + layer * 0.5f;
+        }
+
+        private static float valueOf(int token) {
+            return -token;
+        }
+    }
+
+    // float32/int32 tensor; only what the engine reads is implemented
+    private static Tensor tensor(String name, int... shape) {
+        int elements = Arrays.stream(shape).reduce(1, (a, b) -> a * b);
+        return (Tensor) Proxy.newProxyInstance(Tensor.class.getClassLoader(), new Class<?>[]{Tensor.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "name":
+                            return name;
+                        case "shape":
+                        case "shapeSignature":
+                            return shape.clone();
+                        case "numDimensions":
+                            return shape.length;
+                        case "numElements":
+                            return elements;
+                        case "numBytes":
+                            return elements * 4;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
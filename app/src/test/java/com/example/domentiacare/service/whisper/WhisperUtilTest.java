@@ -0,0 +1,244 @@
+package com.example.domentiacare.service.whisper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class WhisperUtilTest {
+    private static final String VOCAB = "src/main/assets/filters_vocab_multilingual.bin";
+
+    private static final int N_MEL = WhisperUtil.WHISPER_N_MEL;
+    private static final int MEL_LEN = WhisperUtil.WHISPER_MEL_LEN;
+
+    // Largest difference allowed between the sparse float and the dense double filter bank
+    private static final float MEL_TOLERANCE = 1.2e-7f;
+
+    private WhisperUtil mUtil;
+    private ByteBuffer mVocabFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mUtil = new WhisperUtil();
+        assertTrue(mUtil.loadFiltersAndVocab(true, VOCAB));
+        mVocabFile = ByteBuffer.wrap(Files.readAllBytes(Paths.get(VOCAB))).order(ByteOrder.nativeOrder());
+    }
+
+    @Test
+    public void sparseMelMatchesDenseFilterBank() throws Exception {
+        // 7.3 s of speech-like audio, so most of the window is zero padding
+        float[] samples = syntheticAudio(116_800, 42);
+        float[] expected = denseMel(samples, samples.length);
+
+        FloatBuffer single = melBuffer();
+        mUtil.getMelSpectrogram(samples, 0, samples.length, null, single);
+        assertMelEquals(expected, single);
+
+        MelWorkerPool pool = new MelWorkerPool(4);
+        try {
+            FloatBuffer pooled = melBuffer();
+            mUtil.getMelSpectrogram(samples, 0, samples.length, pool, pooled);
+            assertMelEquals(expected, pooled);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void sparseMelMatchesDenseFilterBankForFullWindow() throws Exception {
+        int count = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+        float[] samples = syntheticAudio(count + 5_000, 7);
+
+        // Window taken from the middle of a longer buffer
+        float[] window = new float[count];
+        System.arraycopy(samples, 5_000, window, 0, count);
+        float[] expected = denseMel(window, count);
+
+        FloatBuffer actual = melBuffer();
+        mUtil.getMelSpectrogram(samples, 5_000, count, null, actual);
+        assertMelEquals(expected, actual);
+    }
+
+    @Test
+    public void joinsHangulSplitAcrossTokens() {
+        String text = "내일 오후 2시에 병원에 가야 해요";
+        int[] tokens = encode(text);
+
+        // Prompt before and tokens after EOT must not show up in the text
+        int[] prompt = mUtil.getPromptTokens("ko", false);
+        int[] generated = new int[prompt.length + tokens.length + 2];
+        System.arraycopy(prompt, 0, generated, 0, prompt.length);
+        System.arraycopy(tokens, 0, generated, prompt.length, tokens.length);
+        generated[generated.length - 2] = mUtil.getTokenEOT();
+        generated[generated.length - 1] = tokens[0];
+
+        assertEquals(text, mUtil.decodeTokens(IntBuffer.wrap(generated), generated.length));
+        // Only the count given is decoded
+        assertEquals("내일", mUtil.decodeTokens(IntBuffer.wrap(tokens), prefixLength(tokens, "내일")));
+
+        // Decoding token by token breaks the characters that span tokens
+        StringBuilder perToken = new StringBuilder();
+        for (int token : tokens) {
+            perToken.append(mUtil.getWordFromToken(token));
+        }
+        assertNotEquals(text, perToken.toString());
+    }
+
+    @Test
+    public void joinsHangulFromSingleByteTokens() {
+        String text = "약 드셨어요?";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Map<String, Integer> vocab = textTokens();
+
+        int[] tokens = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            tokens[i] = vocab.get(new String(bytes, i, 1, StandardCharsets.ISO_8859_1));
+        }
+        assertEquals(text, mUtil.decodeTokens(IntBuffer.wrap(tokens), tokens.length));
+    }
+
+    // Greedy longest match over the vocab; not BPE, but gives multi-byte tokens that split characters
+    private int[] encode(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Map<String, Integer> vocab = textTokens();
+
+        List<Integer> tokens = new ArrayList<>();
+        boolean splitsCharacter = false;
+        int pos = 0;
+        while (pos < bytes.length) {
+            int length = Math.min(16, bytes.length - pos);
+            while (!vocab.containsKey(new String(bytes, pos, length, StandardCharsets.ISO_8859_1))) {
+                length--;
+            }
+            tokens.add(vocab.get(new String(bytes, pos, length, StandardCharsets.ISO_8859_1)));
+            pos += length;
+            // A UTF-8 continuation byte right after the token means it ended inside a character
+            splitsCharacter |= pos < bytes.length && (bytes[pos] & 0xC0) == 0x80;
+        }
+        assertTrue("no token boundary inside a character", splitsCharacter);
+        return tokens.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Number of leading tokens whose bytes make up prefix
+    private int prefixLength(int[] tokens, String prefix) {
+        int target = prefix.getBytes(StandardCharsets.UTF_8).length;
+        Map<Integer, Integer> lengths = new HashMap<>();
+        textTokens().forEach((word, token) -> lengths.put(token, word.length()));
+        int bytes = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            if (bytes == target) {
+                return i;
+            }
+            bytes += lengths.get(tokens[i]);
+        }
+        throw new AssertionError("prefix does not end on a token boundary");
+    }
+
+    // Text token bytes (as ISO-8859-1 strings) to token id, read straight from the vocab file
+    private Map<String, Integer> textTokens() {
+        ByteBuffer file = mVocabFile.duplicate().order(ByteOrder.nativeOrder());
+        file.position(Integer.BYTES);
+        int nMel = file.getInt();
+        int nFft = file.getInt();
+        file.position(file.position() + nMel * nFft * Float.BYTES);
+
+        int nVocab = file.getInt();
+        Map<String, Integer> tokens = new HashMap<>();
+        for (int i = 0; i < nVocab; i++) {
+            byte[] word = new byte[file.getInt()];
+            file.get(word);
+            if (mUtil.isTextToken(i)) {
+                tokens.putIfAbsent(new String(word, StandardCharsets.ISO_8859_1), i);
+            }
+        }
+        return tokens;
+    }
+
+    private static FloatBuffer melBuffer() {
+        return ByteBuffer.allocateDirect(N_MEL * MEL_LEN * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static void assertMelEquals(float[] expected, FloatBuffer actual) {
+        float maxDiff = 0.0f;
+        for (int i = 0; i < expected.length; i++) {
+            maxDiff = Math.max(maxDiff, Math.abs(expected[i] - actual.get(i)));
+        }
+        assertTrue("max difference " + maxDiff, maxDiff <= MEL_TOLERANCE);
+    }
+
+    // Harmonics with a drifting pitch, noise and pauses
+    private static float[] syntheticAudio(int length, long seed) {
+        Random random = new Random(seed);
+        float[] samples = new float[length];
+        double phase = 0.0;
+        for (int i = 0; i < length; i++) {
+            double t = (double) i / WhisperUtil.WHISPER_SAMPLE_RATE;
+            double pitch = 140.0 + 40.0 * Math.sin(2.0 * Math.PI * 0.7 * t);
+            phase += 2.0 * Math.PI * pitch / WhisperUtil.WHISPER_SAMPLE_RATE;
+            double envelope = Math.sin(2.0 * Math.PI * 1.3 * t) > -0.3 ? 1.0 : 0.0;
+            double voice = 0.3 * Math.sin(phase) + 0.15 * Math.sin(3.0 * phase) + 0.05 * Math.sin(7.0 * phase);
+            samples[i] = (float) (envelope * voice + 0.01 * random.nextGaussian());
+        }
+        return samples;
+    }
+
+    /**
+     * Reference log-mel over the full dense filter matrix of the vocab file, accumulated in double.
+     * samples[0, count) is the audio and the rest of the 30 s window is zero padding.
+     */
+    private float[] denseMel(float[] samples, int count) {
+        ByteBuffer file = mVocabFile.duplicate().order(ByteOrder.nativeOrder());
+        file.position(Integer.BYTES);
+        int nMel = file.getInt();
+        int nFft = file.getInt();
+        float[] filters = new float[nMel * nFft];
+        file.asFloatBuffer().get(filters);
+
+        WhisperFFT fft = mUtil.getFftPlan();
+        float[] hann = mUtil.getHannWindow();
+        WhisperFFT.Workspace workspace = fft.newWorkspace();
+        float[] frame = new float[fft.size()];
+        float[] power = new float[fft.bins()];
+        assertEquals(nFft, power.length);
+
+        float[] mel = new float[N_MEL * MEL_LEN];
+        float max = -1e20f;
+        for (int i = 0; i < MEL_LEN; i++) {
+            int start = i * WhisperUtil.WHISPER_HOP_LENGTH;
+            for (int j = 0; j < frame.length; j++) {
+                frame[j] = start + j < count ? hann[j] * samples[start + j] : 0.0f;
+            }
+            fft.powerSpectrum(frame, power, workspace);
+
+            for (int j = 0; j < N_MEL; j++) {
+                double sum = 0.0;
+                for (int k = 0; k < nFft; k++) {
+                    sum += power[k] * filters[j * nFft + k];
+                }
+                float value = (float) Math.log10(Math.max(sum, 1e-10));
+                mel[j * MEL_LEN + i] = value;
+                max = Math.max(max, value);
+            }
+        }
+
+        for (int i = 0; i < mel.length; i++) {
+            mel[i] = (Math.max(mel[i], max - 8.0f) + 4.0f) / 4.0f;
+        }
+        return mel;
+    }
+}